@@ -0,0 +1,136 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ent.logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import jo.sm.ent.data.ControlElement;
+import jo.sm.ent.data.ControlElementMap;
+import jo.sm.ent.data.ControlSubElement;
+import jo.sm.ent.data.Tag;
+import jo.sm.ent.data.TagType;
+import jo.sm.logic.utils.DebugLogic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times reading and writing a large entity with TagLogic. The entity has a
+ * million-element int list, a 200,000-element float list, 5,000 small
+ * structs and a control element map of 2,000 controllers with 50 positions
+ * each, about 7 MB unzipped. Files in a server database are zipped, so the
+ * read is timed on both forms. Run with "gradle jmh --args=TagLogic".
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagLogicBenchmark {
+
+    @Param({"false", "true"})
+    public boolean mZipped;
+
+    private Tag mEntity;
+    private byte[] mFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        DebugLogic.DEBUG = false;
+        mEntity = makeEntity(new Random(16));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TagLogic.writeFile(mEntity, baos, true);
+        mFile = baos.toByteArray();
+        if (mZipped) {
+            // a zipped file has no leading short
+            baos = new ByteArrayOutputStream();
+            try (OutputStream os = new GZIPOutputStream(baos)) {
+                os.write(mFile, 2, mFile.length - 2);
+            }
+            mFile = baos.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public Tag read() throws IOException {
+        return TagLogic.readFile(new ByteArrayInputStream(mFile), true);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8 * 1024 * 1024);
+        TagLogic.writeFile(mEntity, baos, true);
+        return baos.size();
+    }
+
+    private static Tag makeEntity(Random rnd) {
+        int[] ints = new int[1000000];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = rnd.nextInt();
+        }
+        float[] floats = new float[200000];
+        for (int i = 0; i < floats.length; i++) {
+            floats[i] = rnd.nextFloat();
+        }
+        Tag[] structs = new Tag[5000];
+        for (int i = 0; i < structs.length; i++) {
+            structs[i] = new Tag(TagType.STRUCT, null, new Tag[] {
+                new Tag(TagType.STRING, "name", "item" + i),
+                new Tag(TagType.INT, "count", rnd.nextInt(1000)),
+                new Tag(TagType.DOUBLE, "weight", rnd.nextDouble()),
+                new Tag(TagType.FINISH, null, null)
+            });
+        }
+        ControlElementMap map = new ControlElementMap();
+        for (int i = 0; i < 2000; i++) {
+            ControlElement ele = new ControlElement();
+            ele.setIndex(TagLogic.shortToIndex(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)));
+            ControlSubElement sub = new ControlSubElement();
+            sub.setVal((short) 4);
+            for (int j = 0; j < 50; j++) {
+                sub.addPosition(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            }
+            ele.getElements().add(sub);
+            map.getElements().add(ele);
+        }
+        return new Tag(TagType.STRUCT, "sc", new Tag[] {
+            new Tag(TagType.LIST, "ints", ints),
+            new Tag(TagType.LIST, "floats", floats),
+            new Tag(TagType.LIST, "items", structs),
+            new Tag(TagType.SERIALIZABLE, "controllers", map),
+            new Tag(TagType.FINISH, null, null)
+        });
+    }
+}
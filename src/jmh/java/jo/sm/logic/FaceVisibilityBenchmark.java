@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.logic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jo.sm.data.BlockChunk;
+import jo.sm.data.SparseMatrix;
+import jo.sm.ship.data.Block;
+import jo.vecmath.Point3i;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Counts the exposed faces of a 96x48x160 grid four ways: six contains
+ * lookups per block, the same with a Point3i made for each lookup, as the
+ * renderers used to do, FaceVisibilityLogic.forEachExposed, and getExposed
+ * over each chunk. All four return the same count. The grid is either solid
+ * or has a third of its blocks set at random. Run with
+ * "gradle jmh --args=FaceVisibility".
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FaceVisibilityBenchmark {
+
+    @Param({"solid", "random"})
+    public String mFill;
+
+    private SparseMatrix<Block> mGrid;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rnd = new Random(9);
+        mGrid = new SparseMatrix<>();
+        for (int x = 0; x < 96; x++) {
+            for (int y = 0; y < 48; y++) {
+                for (int z = 0; z < 160; z++) {
+                    if (mFill.equals("solid") || (rnd.nextInt(3) == 0)) {
+                        mGrid.set(x, y, z, (short) 5, (short) 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public long lookups() {
+        SparseMatrix<Block> g = mGrid;
+        long[] count = new long[1];
+        g.forEachNonNull((x, y, z, id, orientation) -> {
+            count[0] += (g.contains(x + 1, y, z) ? 0 : 1) + (g.contains(x - 1, y, z) ? 0 : 1)
+                    + (g.contains(x, y + 1, z) ? 0 : 1) + (g.contains(x, y - 1, z) ? 0 : 1)
+                    + (g.contains(x, y, z + 1) ? 0 : 1) + (g.contains(x, y, z - 1) ? 0 : 1);
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public long pointLookups() {
+        SparseMatrix<Block> g = mGrid;
+        long[] count = new long[1];
+        g.forEachNonNull((x, y, z, id, orientation) -> {
+            Point3i p = new Point3i(x, y, z);
+            count[0] += (g.contains(new Point3i(p.x + 1, p.y, p.z)) ? 0 : 1)
+                    + (g.contains(new Point3i(p.x - 1, p.y, p.z)) ? 0 : 1)
+                    + (g.contains(new Point3i(p.x, p.y + 1, p.z)) ? 0 : 1)
+                    + (g.contains(new Point3i(p.x, p.y - 1, p.z)) ? 0 : 1)
+                    + (g.contains(new Point3i(p.x, p.y, p.z + 1)) ? 0 : 1)
+                    + (g.contains(new Point3i(p.x, p.y, p.z - 1)) ? 0 : 1);
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public long forEachExposed() {
+        long[] count = new long[1];
+        FaceVisibilityLogic.forEachExposed(mGrid, null, (x, y, z, id, orientation, faces) -> {
+            count[0] += Integer.bitCount(faces);
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public long getExposed() {
+        Map<Long, BlockChunk> chunks = new HashMap<>();
+        for (BlockChunk chunk : mGrid.getChunks()) {
+            chunks.put(chunk.getKey(), chunk);
+        }
+        short[] exposed = null;
+        long count = 0;
+        for (BlockChunk chunk : mGrid.getChunks()) {
+            exposed = FaceVisibilityLogic.getExposed(chunk, FaceVisibilityLogic.getNeighbours(chunks, chunk), null, exposed);
+            for (short row : exposed) {
+                count += Integer.bitCount(row & 0xffff);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ship.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jo.sm.data.SparseMatrix;
+import jo.sm.logic.macro.NullPluginCallback;
+import jo.sm.logic.utils.DebugLogic;
+import jo.sm.ship.data.Block;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times opening a ship spread over a 3x1x3 block of superchunk files, each
+ * with a 128x32x128 slab of mixed blocks, from reading the files to the
+ * finished grid. The files are decoded on the common fork-join pool, so to
+ * see what that gains, compare a run against one with
+ * "-jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=1".
+ * Run with "gradle jmh --args=DataLogic".
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataLogicBenchmark {
+
+    private static final String NAME = "ENTITY_SHIP_bench";
+    private static final short[] IDS = {5, 76, 77, 2, 8};
+
+    private File mDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        DebugLogic.DEBUG = false;
+        Random rnd = new Random(6);
+        SparseMatrix<Block> grid = new SparseMatrix<>();
+        for (int sx = -1; sx <= 1; sx++) {
+            for (int sz = -1; sz <= 1; sz++) {
+                for (int x = 0; x < 128; x++) {
+                    for (int y = 0; y < 32; y++) {
+                        for (int z = 0; z < 128; z++) {
+                            grid.set(sx * 256 + x, y, sz * 256 + z, IDS[rnd.nextInt(IDS.length)], (short) 0);
+                        }
+                    }
+                }
+            }
+        }
+        mDir = Files.createTempDirectory("smd2bench").toFile();
+        DataLogic.writeFiles(ShipLogic.getData(grid), mDir, NAME, new NullPluginCallback());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File f : mDir.listFiles()) {
+            f.delete();
+        }
+        mDir.delete();
+    }
+
+    @Benchmark
+    public SparseMatrix<Block> open() throws IOException {
+        return ShipLogic.getBlocks(DataLogic.readFiles(mDir, NAME, new NullPluginCallback()));
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ui.lwjgl;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jo.sm.data.SparseMatrix;
+import jo.sm.logic.StarMadeLogic;
+import jo.sm.ship.data.Block;
+import jo.util.jgl.obj.JGLGroup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times meshing a whole hull against bringing the mesh cache up to date
+ * after a one-block edit, the case the cache is there for. The hull is a
+ * solid shell with a tenth of its inside filled, in three textures. The
+ * textures come from the StarMade directory given by -Dstarmade.home, or else
+ * the one the editor last used. Run with
+ * "gradle jmh -Pstarmade.home=dir --args=MeshCache".
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LWJGLMeshCacheBenchmark {
+
+    private static final short[] IDS = {5, 76, 77};
+
+    @Param({"32", "96"})
+    public int mSize;
+
+    @Param({"false", "true"})
+    public boolean mGreedy;
+
+    private SparseMatrix<Block> mGrid;
+    private LWJGLMeshCache mCache;
+    private LWJGLMeshCache mFilteredCache;
+    private Random mRandom;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String home = System.getProperty("starmade.home", StarMadeLogic.getProps().getProperty("starmade.home", ""));
+        StarMadeLogic.getInstance().setBaseDir(new File(home));
+        mRandom = new Random(3);
+        mGrid = new SparseMatrix<>();
+        for (int x = 0; x < mSize; x++) {
+            for (int y = 0; y < mSize; y++) {
+                for (int z = 0; z < mSize; z++) {
+                    boolean shell = (x == 0) || (y == 0) || (z == 0)
+                            || (x == mSize - 1) || (y == mSize - 1) || (z == mSize - 1);
+                    if (shell || (mRandom.nextInt(10) == 0)) {
+                        mGrid.set(x, y, z, Block.valueOf(IDS[mRandom.nextInt(IDS.length)]));
+                    }
+                }
+            }
+        }
+        mCache = new LWJGLMeshCache();
+        mCache.setGreedy(mGreedy);
+        mCache.update(mGrid, false);
+        mFilteredCache = new LWJGLMeshCache();
+        mFilteredCache.setGreedy(mGreedy);
+        mFilteredCache.update(filter(mGrid), false);
+    }
+
+    /** What the panel did before the cache: every chunk, every time **/
+    @Benchmark
+    public JGLGroup full() {
+        JGLGroup group = new JGLGroup();
+        LWJGLRenderLogic.addBlocks(group, mGrid, false, mGreedy);
+        return group;
+    }
+
+    /** The cache starting empty, as on opening a blueprint **/
+    @Benchmark
+    public Object cold() {
+        mCache.clear();
+        return mCache.update(mGrid, false);
+    }
+
+    /** Adds or removes one block, then brings the cache up to date **/
+    @Benchmark
+    public Object incremental() {
+        edit();
+        return mCache.update(mGrid, false);
+    }
+
+    /**
+     * Edits one block under a view filter, which builds a new grid, so every
+     * chunk reaching the cache is a new object
+     **/
+    @Benchmark
+    public Object filtered() {
+        edit();
+        return mFilteredCache.update(filter(mGrid), false);
+    }
+
+    private void edit() {
+        int x = mRandom.nextInt(mSize);
+        int y = mRandom.nextInt(mSize);
+        int z = mRandom.nextInt(mSize);
+        if (mGrid.contains(x, y, z)) {
+            mGrid.set(x, y, z, (Block) null);
+        } else {
+            mGrid.set(x, y, z, Block.valueOf(IDS[0]));
+        }
+    }
+
+    // keeps the first two textures, as FilterPlugin does for a block list
+    private static SparseMatrix<Block> filter(SparseMatrix<Block> grid) {
+        SparseMatrix<Block> filtered = new SparseMatrix<>();
+        grid.forEachNonNull((x, y, z, blockID, orientation) -> {
+            if (blockID != IDS[2]) {
+                filtered.set(x, y, z, blockID, orientation);
+            }
+        });
+        return filtered;
+    }
+}
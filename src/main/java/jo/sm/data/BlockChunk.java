@@ -0,0 +1,218 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.data;
+
+import java.util.Arrays;
+
+/**
+ * Dense 16x16x16 block storage. Each voxel is a packed short holding the
+ * block id (11 bits, as in the .smd2 bitfield), the orientation (4 bits) and
+ * a presence flag, so an empty slot is always 0.
+ *
+ * Each chunk also keeps a bitmap of the block ids that have been written
+ * into it. Bits are not cleared when a block is removed, so it may report a
+ * type that is no longer present, but never misses one that is.
+ *
+ * A chunk marked shared is referenced by more than one SparseMatrix and must
+ * not be written; the owning grid copies it first (copy-on-write).
+ **/
+public final class BlockChunk {
+
+    public static final int SHIFT = 4;
+    public static final int SIZE = 1 << SHIFT;
+    public static final int MASK = SIZE - 1;
+    public static final int VOLUME = SIZE * SIZE * SIZE;
+
+    public static final int ID_LIMIT = 0x800;
+
+    private static final int ID_MASK = ID_LIMIT - 1;
+    private static final int ORIENTATION_SHIFT = 11;
+    private static final int ORIENTATION_MASK = 0xf;
+    private static final int PRESENT = 0x8000;
+
+    private static final int KEY_BITS = 21;
+    private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+
+    private final long mKey;
+    private final short[] mBlocks;
+    private final long[] mTypes;
+    private int mCount;
+    private volatile boolean mShared;
+
+    BlockChunk(long key) {
+        mKey = key;
+        mBlocks = new short[VOLUME];
+        mTypes = new long[ID_LIMIT / Long.SIZE];
+        mCount = 0;
+        mShared = false;
+    }
+
+    /**
+     * Wraps an array of packed values without copying it.
+     **/
+    BlockChunk(long key, short[] blocks) {
+        mKey = key;
+        mBlocks = blocks;
+        mTypes = new long[ID_LIMIT / Long.SIZE];
+        mCount = 0;
+        mShared = false;
+        for (short packed : blocks) {
+            if (packed != 0) {
+                int id = packed & ID_MASK;
+                mTypes[id >> 6] |= 1L << id;
+                mCount++;
+            }
+        }
+    }
+
+    BlockChunk(BlockChunk original) {
+        mKey = original.mKey;
+        mBlocks = original.mBlocks.clone();
+        mTypes = original.mTypes.clone();
+        mCount = original.mCount;
+        mShared = false;
+    }
+
+    public boolean isShared() {
+        return mShared;
+    }
+
+    void markShared() {
+        mShared = true;
+    }
+
+    public long getKey() {
+        return mKey;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /**
+     * Returns the packed value at the local index, 0 if empty.
+     **/
+    public short get(int idx) {
+        return mBlocks[idx];
+    }
+
+    /**
+     * Stores a packed value at the local index and returns the previous one.
+     **/
+    short set(int idx, short packed) {
+        short old = mBlocks[idx];
+        mBlocks[idx] = packed;
+        if (old == 0) {
+            if (packed != 0) {
+                mCount++;
+            }
+        } else if (packed == 0) {
+            mCount--;
+        }
+        if (packed != 0) {
+            int id = packed & ID_MASK;
+            mTypes[id >> 6] |= 1L << id;
+        }
+        return old;
+    }
+
+    /**
+     * Returns a copy of the packed values, indexed by index(x, y, z).
+     **/
+    public short[] toArray() {
+        return mBlocks.clone();
+    }
+
+    /**
+     * Returns true if other holds the same packed values, whether or not it
+     * is the same object.
+     **/
+    public boolean hasSameBlocks(BlockChunk other) {
+        return (other == this) || ((other.mCount == mCount) && Arrays.equals(mBlocks, other.mBlocks));
+    }
+
+    public boolean mayContain(short blockID) {
+        return (mTypes[blockID >> 6] & (1L << blockID)) != 0;
+    }
+
+    public int getOriginX() {
+        return keyX(mKey) << SHIFT;
+    }
+
+    public int getOriginY() {
+        return keyY(mKey) << SHIFT;
+    }
+
+    public int getOriginZ() {
+        return keyZ(mKey) << SHIFT;
+    }
+
+    public static int index(int x, int y, int z) {
+        return ((z & MASK) << (SHIFT + SHIFT)) | ((y & MASK) << SHIFT) | (x & MASK);
+    }
+
+    public static int indexX(int idx) {
+        return idx & MASK;
+    }
+
+    public static int indexY(int idx) {
+        return (idx >> SHIFT) & MASK;
+    }
+
+    public static int indexZ(int idx) {
+        return idx >> (SHIFT + SHIFT);
+    }
+
+    public static long key(int x, int y, int z) {
+        return keyOfChunk(x >> SHIFT, y >> SHIFT, z >> SHIFT);
+    }
+
+    public static long keyOfChunk(int cx, int cy, int cz) {
+        return ((cx & KEY_MASK) << (KEY_BITS + KEY_BITS))
+                | ((cy & KEY_MASK) << KEY_BITS)
+                | (cz & KEY_MASK);
+    }
+
+    public static int keyX(long key) {
+        return (int) (key << (64 - 3 * KEY_BITS) >> (64 - KEY_BITS));
+    }
+
+    public static int keyY(long key) {
+        return (int) (key << (64 - 2 * KEY_BITS) >> (64 - KEY_BITS));
+    }
+
+    public static int keyZ(long key) {
+        return (int) (key << (64 - KEY_BITS) >> (64 - KEY_BITS));
+    }
+
+    public static short pack(int blockID, int orientation) {
+        return (short) (PRESENT | ((orientation & ORIENTATION_MASK) << ORIENTATION_SHIFT) | (blockID & ID_MASK));
+    }
+
+    public static short getBlockID(short packed) {
+        return (short) (packed & ID_MASK);
+    }
+
+    public static short getOrientation(short packed) {
+        return (short) ((packed >> ORIENTATION_SHIFT) & ORIENTATION_MASK);
+    }
+}
@@ -693,8 +693,6 @@ public class BlockTypes {
         }
         color = getColor(color);
         short newID = getColoredBlock(oldBlock.getBlockID(), color);
-        Block newBlock = new Block(newID);
-        newBlock.setOrientation(oldBlock.getOrientation());
-        return newBlock;
+        return Block.valueOf(newID, oldBlock.getOrientation());
     }
 }
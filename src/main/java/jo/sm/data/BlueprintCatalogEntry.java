@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.data;
+
+import jo.sm.ship.data.BlockEntry;
+import jo.vecmath.Vector3f;
+
+/**
+ * What the blueprint catalog knows about one blueprint, taken from its
+ * header and file listing without reading DATA.
+ **/
+public class BlueprintCatalogEntry {
+
+    private String mName;
+    private Vector3f mLowerBound;
+    private Vector3f mUpperBound;
+    private BlockEntry[] mManifest;
+    private int mBlockCount;
+    private long mByteSize;
+    private int mDataFiles;
+    private long mHeaderModified;
+    private long mHeaderLength;
+    private long mDataModified;
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void setName(String name) {
+        mName = name;
+    }
+
+    public Vector3f getLowerBound() {
+        return mLowerBound;
+    }
+
+    public void setLowerBound(Vector3f lowerBound) {
+        mLowerBound = lowerBound;
+    }
+
+    public Vector3f getUpperBound() {
+        return mUpperBound;
+    }
+
+    public void setUpperBound(Vector3f upperBound) {
+        mUpperBound = upperBound;
+    }
+
+    public BlockEntry[] getManifest() {
+        return mManifest;
+    }
+
+    public void setManifest(BlockEntry[] manifest) {
+        mManifest = manifest;
+    }
+
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    public void setBlockCount(int blockCount) {
+        mBlockCount = blockCount;
+    }
+
+    public long getByteSize() {
+        return mByteSize;
+    }
+
+    public void setByteSize(long byteSize) {
+        mByteSize = byteSize;
+    }
+
+    public int getDataFiles() {
+        return mDataFiles;
+    }
+
+    public void setDataFiles(int dataFiles) {
+        mDataFiles = dataFiles;
+    }
+
+    public long getHeaderModified() {
+        return mHeaderModified;
+    }
+
+    public void setHeaderModified(long headerModified) {
+        mHeaderModified = headerModified;
+    }
+
+    public long getHeaderLength() {
+        return mHeaderLength;
+    }
+
+    public void setHeaderLength(long headerLength) {
+        mHeaderLength = headerLength;
+    }
+
+    public long getDataModified() {
+        return mDataModified;
+    }
+
+    public void setDataModified(long dataModified) {
+        mDataModified = dataModified;
+    }
+}
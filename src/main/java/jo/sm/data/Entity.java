@@ -36,6 +36,9 @@ public class Entity {
     private Point3i mLocation;
     private Tag mTag;
     private Map<Point3i, Data> mData;
+    private long mModified;
+    private long mLength;
+    private boolean mValid;
 
     @Override
     public String toString() {
@@ -118,4 +121,28 @@ public class Entity {
     public void setFile(File file) {
         mFile = file;
     }
+
+    public long getModified() {
+        return mModified;
+    }
+
+    public void setModified(long modified) {
+        mModified = modified;
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public void setLength(long length) {
+        mLength = length;
+    }
+
+    public boolean isValid() {
+        return mValid;
+    }
+
+    public void setValid(boolean valid) {
+        mValid = valid;
+    }
 }
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cells that differ between two states of a grid, grouped by chunk,
+ * with the packed value (see BlockChunk) each held before and after.
+ * Applying it forwards or backwards costs time in proportion to the
+ * changed cells only.
+ **/
+public class GridDelta {
+
+    private final long[] mKeys;
+    private final short[][] mIndexes;
+    private final short[][] mBefore;
+    private final short[][] mAfter;
+    private final int mCells;
+
+    private GridDelta(List<Long> keys, List<short[]> indexes, List<short[]> before, List<short[]> after, int cells) {
+        mKeys = new long[keys.size()];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = keys.get(i);
+        }
+        mIndexes = indexes.toArray(new short[0][]);
+        mBefore = before.toArray(new short[0][]);
+        mAfter = after.toArray(new short[0][]);
+        mCells = cells;
+    }
+
+    /**
+     * Compares a snapshot taken with SparseMatrix.snapshot against the grid
+     * now. Chunks still shared with the snapshot are skipped unexamined.
+     **/
+    public static GridDelta diff(Map<Long, BlockChunk> before, SparseMatrix<?> after) {
+        List<Long> keys = new ArrayList<>();
+        List<short[]> indexes = new ArrayList<>();
+        List<short[]> olds = new ArrayList<>();
+        List<short[]> news = new ArrayList<>();
+        short[] idx = new short[BlockChunk.VOLUME];
+        short[] o = new short[BlockChunk.VOLUME];
+        short[] n = new short[BlockChunk.VOLUME];
+        int cells = 0;
+        for (BlockChunk b : before.values()) {
+            BlockChunk a = after.getChunk(b.getKey());
+            if (a != b) {
+                cells += diff(b.getKey(), b, a, keys, indexes, olds, news, idx, o, n);
+            }
+        }
+        for (BlockChunk a : after.getChunks()) {
+            if (!before.containsKey(a.getKey())) {
+                cells += diff(a.getKey(), null, a, keys, indexes, olds, news, idx, o, n);
+            }
+        }
+        return new GridDelta(keys, indexes, olds, news, cells);
+    }
+
+    private static int diff(long key, BlockChunk b, BlockChunk a, List<Long> keys, List<short[]> indexes,
+            List<short[]> olds, List<short[]> news, short[] idx, short[] o, short[] n) {
+        int count = 0;
+        for (int i = 0; i < BlockChunk.VOLUME; i++) {
+            short before = (b == null) ? 0 : b.get(i);
+            short after = (a == null) ? 0 : a.get(i);
+            if (before != after) {
+                idx[count] = (short) i;
+                o[count] = before;
+                n[count] = after;
+                count++;
+            }
+        }
+        if (count > 0) {
+            keys.add(key);
+            indexes.add(Arrays.copyOf(idx, count));
+            olds.add(Arrays.copyOf(o, count));
+            news.add(Arrays.copyOf(n, count));
+        }
+        return count;
+    }
+
+    /** Writes the after values into grid **/
+    public void redo(SparseMatrix<?> grid) {
+        apply(grid, mAfter);
+    }
+
+    /** Writes the before values into grid **/
+    public void undo(SparseMatrix<?> grid) {
+        apply(grid, mBefore);
+    }
+
+    private void apply(SparseMatrix<?> grid, short[][] values) {
+        for (int c = 0; c < mKeys.length; c++) {
+            int ox = BlockChunk.keyX(mKeys[c]) << BlockChunk.SHIFT;
+            int oy = BlockChunk.keyY(mKeys[c]) << BlockChunk.SHIFT;
+            int oz = BlockChunk.keyZ(mKeys[c]) << BlockChunk.SHIFT;
+            short[] indexes = mIndexes[c];
+            short[] packed = values[c];
+            for (int i = 0; i < indexes.length; i++) {
+                grid.setPacked(ox + BlockChunk.indexX(indexes[i]), oy + BlockChunk.indexY(indexes[i]),
+                        oz + BlockChunk.indexZ(indexes[i]), packed[i]);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return mCells == 0;
+    }
+
+    public int getCells() {
+        return mCells;
+    }
+
+    /** Approximate heap footprint **/
+    public long getMemorySize() {
+        return 64 + mKeys.length * (8 + 3 * 16) + (long) mCells * 6;
+    }
+}
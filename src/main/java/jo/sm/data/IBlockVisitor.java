@@ -0,0 +1,27 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.data;
+
+/**
+ * Callback for SparseMatrix.forEachNonNull. Coordinates and block values are
+ * passed as primitives so a walk over the grid allocates nothing per block.
+ **/
+public interface IBlockVisitor {
+
+    public void visit(int x, int y, int z, short blockID, short orientation);
+}
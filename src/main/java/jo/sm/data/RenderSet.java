@@ -33,6 +33,9 @@ public class RenderSet {
     private Point3f mUnitY;
     private Point3f mUnitZ;
     private Point3f mOrigin;
+    private RenderPoly[] mSortedPolys;
+    private int mSortedOctant;
+    private int mShowing;
 
     public RenderSet() {
         mAllPolys = new ArrayList<>();
@@ -86,4 +89,28 @@ public class RenderSet {
     public void setOrigin(Point3f origin) {
         mOrigin = origin;
     }
+
+    public RenderPoly[] getSortedPolys() {
+        return mSortedPolys;
+    }
+
+    public void setSortedPolys(RenderPoly[] sortedPolys) {
+        mSortedPolys = sortedPolys;
+    }
+
+    public int getSortedOctant() {
+        return mSortedOctant;
+    }
+
+    public void setSortedOctant(int sortedOctant) {
+        mSortedOctant = sortedOctant;
+    }
+
+    public int getShowing() {
+        return mShowing;
+    }
+
+    public void setShowing(int showing) {
+        mShowing = showing;
+    }
 }
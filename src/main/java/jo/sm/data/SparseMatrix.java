@@ -18,102 +18,198 @@
 package jo.sm.data;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import jo.sm.logic.utils.ByteUtils;
+import jo.sm.ship.data.Block;
 import jo.vecmath.Point3i;
 import jo.vecmath.Point3s;
 
 /**
  * @Auther Jo Jaquinta for SMEdit Classic - version 1.0
+ *
+ * Blocks are held in dense 16x16x16 chunks of packed shorts (see
+ * BlockChunk), keyed by chunk coordinate. get hands back the shared
+ * Block.valueOf instance for the stored id and orientation. Copies share
+ * their chunks with the original and only duplicate a chunk when one side
+ * first writes to it, so copying costs O(chunks) rather than O(blocks).
+ * Use forEachNonNull to walk the blocks without allocating a Point3i or
+ * Block for each one; the visitor must not change the grid it is walking.
+ *
+ * Per-type block counts are kept up to date on every write and each chunk
+ * records which types it holds, so getCount is O(1) and forEachOfType only
+ * scans the chunks that contain the requested type.
  **/
-public final class SparseMatrix<T> {
-
-    public static long toHashCode(int x, int y, int z) {
-        byte[] buffer = new byte[8];
-        buffer[0] = 0;
-        ByteUtils.toBytes((short) x, buffer, 1);
-        ByteUtils.toBytes((short) y, buffer, 3);
-        ByteUtils.toBytes((short) z, buffer, 5);
-        buffer[7] = 1;
-        return ByteUtils.toLong(buffer);
-    }
-
-    public static Point3i fromHashCode(long hash) {
-        byte[] buffer = new byte[8];
-        ByteUtils.toBytes(hash, buffer);
-        short x = ByteUtils.toShort(buffer, 1);
-        short y = ByteUtils.toShort(buffer, 3);
-        short z = ByteUtils.toShort(buffer, 5);
-        Point3i p = new Point3i(x, y, z);
-        return p;
-    }
+public final class SparseMatrix<T extends Block> {
 
-    private Map<Long, T> mMatrix;
+    private Map<Long, BlockChunk> mChunks;
+    private BlockChunk mLastChunk;
+    private int mSize;
+    private int[] mTypeCounts;
     private Point3i mLower;
     private Point3i mUpper;
 
     public SparseMatrix() {
-        mMatrix = new HashMap<>();
+        mChunks = new HashMap<>();
+        mLastChunk = null;
+        mSize = 0;
+        mTypeCounts = new int[BlockChunk.ID_LIMIT];
         mLower = null;
         mUpper = null;
     }
 
     public SparseMatrix(SparseMatrix<T> original) {
         this();
-        set(original);
+        for (BlockChunk chunk : original.mChunks.values()) {
+            chunk.markShared();
+            mChunks.put(chunk.getKey(), chunk);
+        }
+        mSize = original.mSize;
+        mTypeCounts = original.mTypeCounts.clone();
         mLower = new Point3i();
         mUpper = new Point3i();
         original.getBounds(mLower, mUpper);
     }
 
     public void addAll(SparseMatrix<T> original) {
-        for (Iterator<Point3i> i = original.iteratorNonNull(); i.hasNext();) {
-            Point3i p = i.next();
-            set(p, original.get(p));
+        for (BlockChunk from : original.mChunks.values()) {
+            int ox = from.getOriginX();
+            int oy = from.getOriginY();
+            int oz = from.getOriginZ();
+            if (!mChunks.containsKey(from.getKey())) {
+                from.markShared();
+                mChunks.put(from.getKey(), from);
+                mSize += from.getCount();
+                for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                    short packed = from.get(idx);
+                    if (packed != 0) {
+                        mTypeCounts[BlockChunk.getBlockID(packed)]++;
+                        extendBounds(ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx));
+                    }
+                }
+                continue;
+            }
+            BlockChunk to = getWritableChunk(from.getKey());
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                short packed = from.get(idx);
+                if (packed == 0) {
+                    continue;
+                }
+                account(to.set(idx, packed), packed);
+                extendBounds(ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx));
+            }
         }
     }
 
     public void set(SparseMatrix<T> original) {
-        mMatrix.clear();
+        mChunks.clear();
+        mLastChunk = null;
+        mSize = 0;
+        mTypeCounts = new int[BlockChunk.ID_LIMIT];
         addAll(original);
     }
 
     public void set(int x, int y, int z, T val) {
-        long idx = toHashCode(x, y, z);
         if (val == null) {
-            mMatrix.remove(idx);
-        } else {
-            mMatrix.put(idx, val);
-        }
-        if (val != null) {
-            if (mLower == null) {
-                mLower = new Point3i(x, y, z);
-            } else {
-                mLower.x = Math.min(mLower.x, x);
-                mLower.y = Math.min(mLower.y, y);
-                mLower.z = Math.min(mLower.z, z);
+            long key = BlockChunk.key(x, y, z);
+            int idx = BlockChunk.index(x, y, z);
+            BlockChunk chunk = getChunk(key, false);
+            if ((chunk == null) || (chunk.get(idx) == 0)) {
+                return;
             }
-            if (mUpper == null) {
-                mUpper = new Point3i(x, y, z);
-            } else {
-                mUpper.x = Math.max(mUpper.x, x);
-                mUpper.y = Math.max(mUpper.y, y);
-                mUpper.z = Math.max(mUpper.z, z);
+            chunk = getWritableChunk(key);
+            account(chunk.set(idx, (short) 0), (short) 0);
+            if (chunk.isEmpty()) {
+                mChunks.remove(key);
+                mLastChunk = null;
             }
+            return;
         }
+        set(x, y, z, val.getBlockID(), val.getOrientation());
     }
 
+    @SuppressWarnings("unchecked")
     public T get(int x, int y, int z) {
-        long idx = toHashCode(x, y, z);
-        return mMatrix.get(idx);
+        BlockChunk chunk = getChunk(BlockChunk.key(x, y, z), false);
+        if (chunk == null) {
+            return null;
+        }
+        short packed = chunk.get(BlockChunk.index(x, y, z));
+        if (packed == 0) {
+            return null;
+        }
+        return (T) Block.valueOf(BlockChunk.getBlockID(packed), BlockChunk.getOrientation(packed));
+    }
+
+    public void set(int x, int y, int z, short blockID, short orientation) {
+        short packed = BlockChunk.pack(blockID, orientation);
+        BlockChunk chunk = getWritableChunk(BlockChunk.key(x, y, z));
+        account(chunk.set(BlockChunk.index(x, y, z), packed), packed);
+        extendBounds(x, y, z);
+    }
+
+    /**
+     * Bulk-inserts a 16x16x16 chunk of packed values (see BlockChunk) whose
+     * lowest corner is at ox, oy, oz. When the corner is chunk-aligned and the
+     * grid has nothing there yet, the array is adopted as-is and treated as
+     * shared, so the caller may keep reading it but the grid will copy it
+     * before writing.
+     **/
+    public void setChunk(int ox, int oy, int oz, short[] packed) {
+        long key = BlockChunk.key(ox, oy, oz);
+        if (((ox | oy | oz) & BlockChunk.MASK) != 0) {
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                if (packed[idx] != 0) {
+                    set(ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx),
+                            BlockChunk.getBlockID(packed[idx]), BlockChunk.getOrientation(packed[idx]));
+                }
+            }
+            return;
+        }
+        if (mChunks.containsKey(key)) {
+            BlockChunk to = getWritableChunk(key);
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                if (packed[idx] != 0) {
+                    account(to.set(idx, packed[idx]), packed[idx]);
+                    extendBounds(ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx));
+                }
+            }
+            return;
+        }
+        BlockChunk chunk = new BlockChunk(key, packed);
+        if (chunk.isEmpty()) {
+            return;
+        }
+        chunk.markShared();
+        mChunks.put(key, chunk);
+        mSize += chunk.getCount();
+        int lx = BlockChunk.MASK, ly = BlockChunk.MASK, lz = BlockChunk.MASK;
+        int ux = 0, uy = 0, uz = 0;
+        for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+            if (packed[idx] != 0) {
+                mTypeCounts[BlockChunk.getBlockID(packed[idx])]++;
+                int x = BlockChunk.indexX(idx);
+                int y = BlockChunk.indexY(idx);
+                int z = BlockChunk.indexZ(idx);
+                lx = Math.min(lx, x);
+                ly = Math.min(ly, y);
+                lz = Math.min(lz, z);
+                ux = Math.max(ux, x);
+                uy = Math.max(uy, y);
+                uz = Math.max(uz, z);
+            }
+        }
+        extendBounds(ox + lx, oy + ly, oz + lz);
+        extendBounds(ox + ux, oy + uy, oz + uz);
     }
 
     public boolean contains(int x, int y, int z) {
-        return get(x, y, z) != null;
+        BlockChunk chunk = getChunk(BlockChunk.key(x, y, z), false);
+        return (chunk != null) && (chunk.get(BlockChunk.index(x, y, z)) != 0);
     }
 
     public void set(Point3i v, T val) {
@@ -129,7 +225,7 @@ public final class SparseMatrix<T> {
     }
 
     public boolean contains(Point3i v) {
-        return get(v.x, v.y, v.z) != null;
+        return contains(v.x, v.y, v.z);
     }
 
     public void getBounds(Point3i lower, Point3i upper) {
@@ -146,16 +242,234 @@ public final class SparseMatrix<T> {
     }
 
     public Iterator<Point3i> iteratorNonNull() {
-        List<Point3i> points = new ArrayList<>();
-        for (Long l : mMatrix.keySet()) {
-            Point3i p = fromHashCode(l);
-            points.add(p);
+        List<Point3i> points = new ArrayList<>(mSize);
+        for (BlockChunk chunk : mChunks.values()) {
+            int ox = chunk.getOriginX();
+            int oy = chunk.getOriginY();
+            int oz = chunk.getOriginZ();
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                if (chunk.get(idx) != 0) {
+                    points.add(new Point3i(ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx)));
+                }
+            }
         }
         return points.iterator();
     }
 
+    public void forEachNonNull(IBlockVisitor visitor) {
+        for (BlockChunk chunk : mChunks.values()) {
+            visitChunk(chunk, visitor);
+        }
+    }
+
+    /**
+     * Visits the blocks inside the inclusive box lower..upper. Chunks that
+     * do not overlap the box are skipped without being scanned.
+     **/
+    public void forEachNonNull(Point3i lower, Point3i upper, IBlockVisitor visitor) {
+        int lx = Math.min(lower.x, upper.x);
+        int ly = Math.min(lower.y, upper.y);
+        int lz = Math.min(lower.z, upper.z);
+        int ux = Math.max(lower.x, upper.x);
+        int uy = Math.max(lower.y, upper.y);
+        int uz = Math.max(lower.z, upper.z);
+        for (BlockChunk chunk : mChunks.values()) {
+            int ox = chunk.getOriginX();
+            int oy = chunk.getOriginY();
+            int oz = chunk.getOriginZ();
+            if ((ox > ux) || (oy > uy) || (oz > uz)
+                    || (ox + BlockChunk.MASK < lx) || (oy + BlockChunk.MASK < ly) || (oz + BlockChunk.MASK < lz)) {
+                continue;
+            }
+            if ((ox >= lx) && (oy >= ly) && (oz >= lz)
+                    && (ox + BlockChunk.MASK <= ux) && (oy + BlockChunk.MASK <= uy) && (oz + BlockChunk.MASK <= uz)) {
+                visitChunk(chunk, visitor);
+                continue;
+            }
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                short packed = chunk.get(idx);
+                if (packed == 0) {
+                    continue;
+                }
+                int x = ox + BlockChunk.indexX(idx);
+                int y = oy + BlockChunk.indexY(idx);
+                int z = oz + BlockChunk.indexZ(idx);
+                if ((x >= lx) && (x <= ux) && (y >= ly) && (y <= uy) && (z >= lz) && (z <= uz)) {
+                    visitor.visit(x, y, z, BlockChunk.getBlockID(packed), BlockChunk.getOrientation(packed));
+                }
+            }
+        }
+    }
+
+    private static void visitChunk(BlockChunk chunk, IBlockVisitor visitor) {
+        int ox = chunk.getOriginX();
+        int oy = chunk.getOriginY();
+        int oz = chunk.getOriginZ();
+        for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+            short packed = chunk.get(idx);
+            if (packed != 0) {
+                visitor.visit(ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx),
+                        BlockChunk.getBlockID(packed), BlockChunk.getOrientation(packed));
+            }
+        }
+    }
+
+    /**
+     * Visits every block of the given type, scanning only the chunks that
+     * have held that type.
+     **/
+    public void forEachOfType(short blockID, IBlockVisitor visitor) {
+        if ((blockID < 0) || (blockID >= BlockChunk.ID_LIMIT) || (mTypeCounts[blockID] == 0)) {
+            return;
+        }
+        for (BlockChunk chunk : mChunks.values()) {
+            if (!chunk.mayContain(blockID)) {
+                continue;
+            }
+            int ox = chunk.getOriginX();
+            int oy = chunk.getOriginY();
+            int oz = chunk.getOriginZ();
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                short packed = chunk.get(idx);
+                if ((packed != 0) && (BlockChunk.getBlockID(packed) == blockID)) {
+                    visitor.visit(ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx),
+                            blockID, BlockChunk.getOrientation(packed));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the first block of the given type in forEachOfType order, or
+     * null if there is none, stopping as soon as it is found.
+     **/
+    public Point3i findFirstOfType(short blockID) {
+        if ((blockID < 0) || (blockID >= BlockChunk.ID_LIMIT) || (mTypeCounts[blockID] == 0)) {
+            return null;
+        }
+        for (BlockChunk chunk : mChunks.values()) {
+            if (!chunk.mayContain(blockID)) {
+                continue;
+            }
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                short packed = chunk.get(idx);
+                if ((packed != 0) && (BlockChunk.getBlockID(packed) == blockID)) {
+                    return new Point3i(chunk.getOriginX() + BlockChunk.indexX(idx),
+                            chunk.getOriginY() + BlockChunk.indexY(idx), chunk.getOriginZ() + BlockChunk.indexZ(idx));
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getCount(short blockID) {
+        if ((blockID < 0) || (blockID >= BlockChunk.ID_LIMIT)) {
+            return 0;
+        }
+        return mTypeCounts[blockID];
+    }
+
+    /**
+     * Returns a copy of the per-type block counts, indexed by block id.
+     **/
+    public int[] getTypeCounts() {
+        return mTypeCounts.clone();
+    }
+
+    /**
+     * Read-only view of the chunks holding blocks. Chunks may be shared with
+     * other grids.
+     **/
+    public Collection<BlockChunk> getChunks() {
+        return Collections.unmodifiableCollection(mChunks.values());
+    }
+
+    /**
+     * Returns the chunks as they are now, keyed by BlockChunk.key. They are
+     * marked shared, so later writes to the grid replace rather than change
+     * them, and a chunk that is still identical to the one in the snapshot
+     * has not been written since.
+     **/
+    public Map<Long, BlockChunk> snapshot() {
+        Map<Long, BlockChunk> chunks = new HashMap<>(mChunks.size() * 2);
+        for (BlockChunk chunk : mChunks.values()) {
+            chunk.markShared();
+            chunks.put(chunk.getKey(), chunk);
+        }
+        return chunks;
+    }
+
     public int size() {
-        return mMatrix.size();
+        return mSize;
+    }
+
+    // for GridDelta: the chunk at key, without disturbing the lookup cache
+    BlockChunk getChunk(long key) {
+        return mChunks.get(key);
+    }
+
+    // for GridDelta: writes a packed value, where 0 removes the block
+    @SuppressWarnings("unchecked")
+    void setPacked(int x, int y, int z, short packed) {
+        if (packed == 0) {
+            set(x, y, z, (T) null);
+        } else {
+            set(x, y, z, BlockChunk.getBlockID(packed), BlockChunk.getOrientation(packed));
+        }
+    }
+
+    private void account(short oldPacked, short newPacked) {
+        if (oldPacked != 0) {
+            mTypeCounts[BlockChunk.getBlockID(oldPacked)]--;
+            mSize--;
+        }
+        if (newPacked != 0) {
+            mTypeCounts[BlockChunk.getBlockID(newPacked)]++;
+            mSize++;
+        }
+    }
+
+    private BlockChunk getChunk(long key, boolean create) {
+        BlockChunk chunk = mLastChunk;
+        if ((chunk != null) && (chunk.getKey() == key)) {
+            return chunk;
+        }
+        chunk = mChunks.get(key);
+        if ((chunk == null) && create) {
+            chunk = new BlockChunk(key);
+            mChunks.put(key, chunk);
+        }
+        if (chunk != null) {
+            mLastChunk = chunk;
+        }
+        return chunk;
+    }
+
+    private BlockChunk getWritableChunk(long key) {
+        BlockChunk chunk = getChunk(key, true);
+        if (chunk.isShared()) {
+            chunk = new BlockChunk(chunk);
+            mChunks.put(key, chunk);
+            mLastChunk = chunk;
+        }
+        return chunk;
+    }
+
+    private void extendBounds(int x, int y, int z) {
+        if (mLower == null) {
+            mLower = new Point3i(x, y, z);
+        } else {
+            mLower.x = Math.min(mLower.x, x);
+            mLower.y = Math.min(mLower.y, y);
+            mLower.z = Math.min(mLower.z, z);
+        }
+        if (mUpper == null) {
+            mUpper = new Point3i(x, y, z);
+        } else {
+            mUpper.x = Math.max(mUpper.x, x);
+            mUpper.y = Math.max(mUpper.y, y);
+            mUpper.z = Math.max(mUpper.z, z);
+        }
     }
 
 }
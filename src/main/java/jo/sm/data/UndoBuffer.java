@@ -19,52 +19,108 @@ package jo.sm.data;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
-import jo.sm.logic.GridLogic;
 import jo.sm.ship.data.Block;
 
 /**
+ * Undo history kept as GridDeltas. checkpoint only snapshots the grid, which
+ * shares its chunks rather than copying them; the changes are worked out
+ * from that snapshot at the next checkpoint or undo. Oldest steps are
+ * dropped once the history outgrows the memory budget, although the latest
+ * step is always kept.
+ *
  * @Auther Jo Jaquinta for SMEdit Classic - version 1.0
  **/
 public class UndoBuffer {
 
-    private final List<byte[]> mBuffer;
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private final List<GridDelta> mBuffer;
     private int mPointer;
+    private Map<Long, BlockChunk> mPending;
+    private long mMemoryBudget;
+    private long mMemoryUsed;
 
     public UndoBuffer() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    public UndoBuffer(long memoryBudget) {
         mBuffer = new ArrayList<>();
         mPointer = 0;
+        mMemoryBudget = memoryBudget;
     }
 
-    public SparseMatrix<Block> undo() {
+    /** Returns grid with the last step undone, or null if there is none **/
+    public SparseMatrix<Block> undo(SparseMatrix<Block> grid) {
+        record(grid);
         if (mPointer > 0) {
             mPointer--;
-            return GridLogic.fromBytes(mBuffer.get(mPointer));
+            SparseMatrix<Block> undone = new SparseMatrix<>(grid);
+            mBuffer.get(mPointer).undo(undone);
+            return undone;
         } else {
             return null;
         }
     }
 
-    public SparseMatrix<Block> redo() {
+    /** Returns grid with the last undone step redone, or null if there is none **/
+    public SparseMatrix<Block> redo(SparseMatrix<Block> grid) {
+        record(grid);
         if (mPointer < mBuffer.size()) {
-            return GridLogic.fromBytes(mBuffer.get(mPointer++));
+            SparseMatrix<Block> redone = new SparseMatrix<>(grid);
+            mBuffer.get(mPointer++).redo(redone);
+            return redone;
         } else {
             return null;
         }
     }
 
+    /** Call before changing grid **/
     public void checkpoint(SparseMatrix<Block> grid) {
-        if (grid.size() > 10000) {
+        record(grid);
+        mPending = grid.snapshot();
+    }
+
+    // closes the step begun at the last checkpoint, if anything changed
+    private void record(SparseMatrix<Block> grid) {
+        if (mPending == null) {
+            return;
+        }
+        GridDelta delta = GridDelta.diff(mPending, grid);
+        mPending = null;
+        if (delta.isEmpty()) {
             return;
         }
         while (mBuffer.size() > mPointer) {
-            mBuffer.remove(mPointer);
+            mMemoryUsed -= mBuffer.remove(mPointer).getMemorySize();
         }
-        mBuffer.add(GridLogic.toBytes(grid));
+        mBuffer.add(delta);
+        mMemoryUsed += delta.getMemorySize();
         mPointer++;
+        while ((mMemoryUsed > mMemoryBudget) && (mBuffer.size() > 1)) {
+            mMemoryUsed -= mBuffer.remove(0).getMemorySize();
+            mPointer--;
+        }
     }
 
     public void clear() {
         mBuffer.clear();
+        mPointer = 0;
+        mPending = null;
+        mMemoryUsed = 0;
+    }
+
+    public long getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        mMemoryBudget = memoryBudget;
+    }
+
+    public long getMemoryUsed() {
+        return mMemoryUsed;
     }
 }
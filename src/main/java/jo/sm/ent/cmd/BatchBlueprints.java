@@ -0,0 +1,402 @@
+package jo.sm.ent.cmd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jo.sm.data.BlueprintCatalogEntry;
+import jo.sm.data.SparseMatrix;
+import jo.sm.data.StarMade;
+import jo.sm.logic.BatchLogic;
+import jo.sm.logic.BlueprintCatalogLogic;
+import jo.sm.logic.StarMadeLogic;
+import jo.sm.logic.utils.DebugLogic;
+import jo.sm.mods.IBlocksPlugin;
+import jo.sm.mods.IPluginCallback;
+import jo.sm.ship.data.Block;
+import jo.sm.ui.logic.ShipSpec;
+import jo.vecmath.Point3i;
+
+/**
+ * Loads blueprints, runs a chain of blocks plugins over each and saves the
+ * result, without opening the editor. Blueprints are worked on in parallel on
+ * a pool of worker threads. Parameters are given as name=value after each
+ * plugin, and "${name}" in a value is replaced with the blueprint's name, so
+ * exports can go to a file per blueprint. With -region only the chunks in a
+ * box are read, so part of a huge blueprint can be exported or inspected
+ * quickly; such a grid can only be saved with -saveas. Jobs on the same
+ * blueprint, here or in other batches in the process, take turns, and a save
+ * once started is finished even if the batch is cancelled.
+ **/
+public class BatchBlueprints {
+
+    private final List<String> mArgs;
+    private int mThreads;
+    private String mHome;
+    private boolean mDefault;
+    private boolean mAll;
+    private boolean mSave;
+    private String mSaveAs;
+    private Point3i mRegionLower;
+    private Point3i mRegionUpper;
+    private final List<String> mBlueprints;
+    private final List<IBlocksPlugin> mPlugins;
+    private final List<Map<String, String>> mParams;
+    private boolean mVerbose;
+    private final PrintStream mOut;
+    private final PrintStream mErr;
+    private volatile boolean mCancelled;
+    private boolean mSharedHome;
+
+    public BatchBlueprints(String[] argv) {
+        this(argv, System.out, System.err);
+    }
+
+    public BatchBlueprints(String[] argv, PrintStream out, PrintStream err) {
+        mOut = out;
+        mErr = err;
+        mArgs = new ArrayList<>();
+        for (String arg : argv) {
+            mArgs.add(arg);
+        }
+        mThreads = Runtime.getRuntime().availableProcessors();
+        mBlueprints = new ArrayList<>();
+        mPlugins = new ArrayList<>();
+        mParams = new ArrayList<>();
+    }
+
+    /** Returns true if every blueprint was processed without error **/
+    public boolean run() {
+        if (!parseArgs()) {
+            return false;
+        }
+        DebugLogic.DEBUG = false;
+        long start = System.nanoTime();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(mThreads);
+        for (final String name : mBlueprints) {
+            pool.execute(() -> {
+                if (mCancelled || !process(name)) {
+                    errors.incrementAndGet();
+                }
+                if (mVerbose) {
+                    mOut.println("progress " + done.incrementAndGet() + "/" + mBlueprints.size());
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            return false;
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        mErr.printf("%d blueprints, %d errors, %.2f s, %.1f blueprints/s, %d threads%s%n",
+                mBlueprints.size(), errors.get(), secs, mBlueprints.size() / secs, mThreads,
+                mCancelled ? ", cancelled" : "");
+        return errors.get() == 0;
+    }
+
+    /**
+     * If set, the StarMade directory already set up in this process is
+     * shared with other work, so -starmade may only name that one.
+     **/
+    public void setSharedHome(boolean sharedHome) {
+        mSharedHome = sharedHome;
+    }
+
+    /** Stops starting blueprints, and asks the running plugins to stop **/
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    private boolean process(String name) {
+        ConsoleCallback cb = new ConsoleCallback(name);
+        ShipSpec spec = BatchLogic.getBlueprintSpec(BatchLogic.getBlueprintDir(name, mDefault), mDefault);
+        cb.mName = spec.getName();
+        synchronized (BatchLogic.getBlueprintLock(spec.getFile())) {
+            return process(spec, cb);
+        }
+    }
+
+    private boolean process(ShipSpec spec, ConsoleCallback cb) {
+        String name = spec.getName();
+        try {
+            SparseMatrix<Block> grid;
+            if (mRegionLower != null) {
+                grid = BatchLogic.loadBlueprintRegion(spec, mRegionLower, mRegionUpper, cb);
+            } else {
+                grid = BatchLogic.loadBlueprint(spec, cb);
+            }
+            // the selection is only meaningful in the editor, so plugins see the whole grid
+            StarMade sm = new StarMade();
+            sm.setBaseDir(StarMadeLogic.getInstance().getBaseDir());
+            sm.setProps(StarMadeLogic.getProps());
+            sm.setModLoader(StarMadeLogic.getInstance().getModLoader());
+            for (int i = 0; i < mPlugins.size(); i++) {
+                IBlocksPlugin shared = mPlugins.get(i);
+                Map<String, String> values = new LinkedHashMap<>();
+                for (Map.Entry<String, String> value : mParams.get(i).entrySet()) {
+                    values.put(value.getKey(), value.getValue().replace("${name}", name));
+                }
+                sm.setModel(grid);
+                IBlocksPlugin plugin = BatchLogic.copyPlugin(shared);
+                if (plugin != null) {
+                    grid = runPlugin(plugin, grid, values, sm, cb);
+                } else {
+                    // no way to tell if it keeps state, so one blueprint at a time
+                    synchronized (shared) {
+                        grid = runPlugin(shared, grid, values, sm, cb);
+                    }
+                }
+                if (cb.isPleaseCancel()) {
+                    return false;
+                }
+            }
+            // a cancelled plugin may have left the grid half done
+            if (cb.isPleaseCancel()) {
+                return false;
+            }
+            if (mSaveAs != null) {
+                File dir = new File(spec.getFile().getParentFile(), name + mSaveAs);
+                ShipSpec saveSpec = BatchLogic.getBlueprintSpec(dir, mDefault);
+                synchronized (BatchLogic.getBlueprintLock(dir)) {
+                    save(grid, saveSpec, cb);
+                }
+            } else if (mSave) {
+                save(grid, spec, cb);
+            }
+            mOut.println(name + ": done");
+            return !cb.mFailed;
+        } catch (IOException | RuntimeException e) {
+            cb.setError(e);
+            return false;
+        }
+    }
+
+    // a cancel stops before the save, as stopping part way through leaves a mix of old and new files
+    private static void save(SparseMatrix<Block> grid, ShipSpec spec, ConsoleCallback cb) throws IOException {
+        cb.mSaving = true;
+        try {
+            BatchLogic.saveBlueprint(grid, spec, cb);
+        } finally {
+            cb.mSaving = false;
+        }
+    }
+
+    private static SparseMatrix<Block> runPlugin(IBlocksPlugin plugin, SparseMatrix<Block> grid,
+            Map<String, String> values, StarMade sm, IPluginCallback cb) {
+        Object params = BatchLogic.makeParameters(plugin, grid, values, sm, cb);
+        return BatchLogic.runPlugin(plugin, grid, params, sm, cb);
+    }
+
+    private boolean parseArgs() {
+        // @file reads more arguments from a file, one per line
+        for (int i = 0; i < mArgs.size(); i++) {
+            if (mArgs.get(i).startsWith("@")) {
+                try {
+                    List<String> lines = new ArrayList<>();
+                    for (String line : Files.readAllLines(new File(mArgs.get(i).substring(1)).toPath(), StandardCharsets.UTF_8)) {
+                        line = line.trim();
+                        if ((line.length() > 0) && !line.startsWith("#")) {
+                            lines.add(line);
+                        }
+                    }
+                    mArgs.remove(i);
+                    mArgs.addAll(i, lines);
+                    i--;
+                } catch (IOException e) {
+                    mErr.println(e.getLocalizedMessage());
+                    return false;
+                }
+            }
+        }
+        List<String> pluginNames = new ArrayList<>();
+        for (int i = 0; i < mArgs.size(); i++) {
+            String arg = mArgs.get(i);
+            switch (arg) {
+                case "-threads":
+                    mThreads = Integer.parseInt(mArgs.get(++i));
+                    break;
+                case "-starmade":
+                    mHome = mArgs.get(++i);
+                    break;
+                case "-default":
+                    mDefault = true;
+                    break;
+                case "-verbose":
+                    mVerbose = true;
+                    break;
+                case "-all":
+                    mAll = true;
+                    break;
+                case "-save":
+                    mSave = true;
+                    break;
+                case "-saveas":
+                    mSaveAs = mArgs.get(++i);
+                    break;
+                case "-region":
+                    mRegionLower = parsePoint(mArgs.get(++i));
+                    mRegionUpper = parsePoint(mArgs.get(++i));
+                    if ((mRegionLower == null) || (mRegionUpper == null)) {
+                        mErr.println("-region takes two corners, as x,y,z x,y,z");
+                        return false;
+                    }
+                    break;
+                case "-plugin":
+                    pluginNames.add(mArgs.get(++i));
+                    Map<String, String> values = new LinkedHashMap<>();
+                    for (; (i + 1 < mArgs.size()) && !mArgs.get(i + 1).startsWith("-") && (mArgs.get(i + 1).indexOf('=') > 0); i++) {
+                        String value = mArgs.get(i + 1);
+                        int o = value.indexOf('=');
+                        values.put(value.substring(0, o), value.substring(o + 1));
+                    }
+                    mParams.add(values);
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        mErr.println("Unknown option '" + arg + "'");
+                        return false;
+                    }
+                    mBlueprints.add(arg);
+                    break;
+            }
+        }
+        if ((pluginNames.isEmpty() && !mSave && (mSaveAs == null)) || (mBlueprints.isEmpty() && !mAll)) {
+            mErr.println("Args = blueprint names or directories, or -all");
+            mErr.println("-plugin name [param=value...], repeated, run in order");
+            mErr.println("Options: -starmade dir, -default, -threads n, -save, -saveas suffix, -region x,y,z x,y,z,");
+            mErr.println("         -verbose, @argsfile");
+            mErr.println("'${name}' in a value is replaced with the blueprint name");
+            return false;
+        }
+        if ((mRegionLower != null) && mSave) {
+            mErr.println("-region only reads part of each blueprint, so save it with -saveas, not -save");
+            return false;
+        }
+        File baseDir = StarMadeLogic.getInstance().getBaseDir();
+        if ((mHome == null) && (baseDir != null)) {
+            mHome = baseDir.getPath();
+        }
+        if (mHome == null) {
+            mHome = StarMadeLogic.getProps().getProperty("starmade.home", "");
+            if (!StarMadeLogic.isStarMadeDirectory(mHome)) {
+                mHome = System.getProperty("user.dir");
+            }
+        }
+        if (!StarMadeLogic.isStarMadeDirectory(mHome)) {
+            mErr.println("'" + mHome + "' is not a StarMade directory, try -starmade dir");
+            return false;
+        }
+        boolean sameHome = (baseDir != null)
+                && baseDir.toPath().toAbsolutePath().normalize().equals(new File(mHome).toPath().toAbsolutePath().normalize());
+        if (mSharedHome && !sameHome) {
+            mErr.println("Running in a daemon for '" + baseDir + "', so -starmade cannot name another directory");
+            return false;
+        }
+        // finding the plugins is slow, so only done once per process and directory
+        if (!sameHome) {
+            StarMadeLogic.setBaseDir(mHome);
+        }
+        if (mAll) {
+            for (BlueprintCatalogEntry entry : BlueprintCatalogLogic.getCatalog(mDefault)) {
+                mBlueprints.add(entry.getName());
+            }
+        }
+        try {
+            for (String pluginName : pluginNames) {
+                mPlugins.add(BatchLogic.findPlugin(pluginName));
+            }
+        } catch (IllegalArgumentException e) {
+            mErr.println(e.getLocalizedMessage());
+            return false;
+        }
+        return true;
+    }
+
+    // x,y,z, or null if it is not one
+    private static Point3i parsePoint(String arg) {
+        String[] parts = arg.split(",");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new Point3i(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                    Integer.parseInt(parts[2].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // reports errors, and status if verbose, prefixed with the blueprint being worked on
+    private class ConsoleCallback implements IPluginCallback {
+
+        private String mName;
+        private String mErrorTitle;
+        private boolean mFailed;
+        private boolean mSaving;
+
+        ConsoleCallback(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void setStatus(String status) {
+            if (mVerbose) {
+                mOut.println(mName + ": " + status);
+            }
+        }
+
+        @Override
+        public void startTask(int size) {
+        }
+
+        @Override
+        public void workTask(int amnt) {
+        }
+
+        @Override
+        public void endTask() {
+        }
+
+        @Override
+        public boolean isPleaseCancel() {
+            return !mSaving && (mFailed || mCancelled);
+        }
+
+        @Override
+        public void setErrorTitle(String title) {
+            mErrorTitle = title;
+        }
+
+        @Override
+        public void setErrorDescription(String desc) {
+            mErr.println(mName + ": " + ((mErrorTitle != null) ? mErrorTitle + ": " : "") + desc);
+            mFailed = true;
+        }
+
+        @Override
+        public void setError(Throwable t) {
+            mErr.println(mName + ": " + t);
+            mFailed = true;
+        }
+    }
+
+    public static void main(String[] argv) {
+        BatchBlueprints app = new BatchBlueprints(argv);
+        System.exit(app.run() ? 0 : 1);
+    }
+}
@@ -0,0 +1,303 @@
+package jo.sm.ent.cmd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jo.sm.ent.data.Tag;
+import jo.sm.ent.data.TagEdit;
+import jo.sm.ent.data.TagType;
+import jo.sm.ent.logic.TagLogic;
+import jo.sm.ent.logic.TagPatchLogic;
+import jo.sm.logic.utils.DebugLogic;
+
+/**
+ * Runs a query or an edit over every entity file in a directory, or matching
+ * a glob, on a pool of worker threads. Writes one CSV row or JSON line per
+ * file, and throughput figures to stderr. Only the tags on the given paths
+ * are read, and at most a few files per worker are in flight at once.
+ **/
+public class BatchEntityFiles {
+
+    private final String[] mArgs;
+    private boolean mJSON;
+    private File mOutFile;
+    private int mThreads;
+    private File mTarget;
+    private String mMode;
+    private String[] mPaths;
+    private List<TagEdit> mEdits;
+    private Writer mOut;
+
+    public BatchEntityFiles(String[] argv) {
+        mArgs = argv;
+        mThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    public void run() {
+        if (!parseArgs()) {
+            return;
+        }
+        DebugLogic.DEBUG = false; // keeps stdout clean for the results
+        List<File> files = findFiles(mTarget);
+        long start = System.nanoTime();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(mThreads);
+        Semaphore inFlight = new Semaphore(mThreads * 4);
+        try {
+            mOut = new BufferedWriter((mOutFile == null)
+                    ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                    : new OutputStreamWriter(new FileOutputStream(mOutFile), StandardCharsets.UTF_8));
+            if (!mJSON) {
+                List<String> header = new ArrayList<>();
+                header.add("file");
+                header.addAll(Arrays.asList(mPaths));
+                header.add("error");
+                writeCSV(header);
+            }
+            for (final File f : files) {
+                inFlight.acquire();
+                pool.execute(() -> {
+                    try {
+                        bytes.addAndGet(f.length());
+                        if (!process(f)) {
+                            errors.incrementAndGet();
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            mOut.flush();
+            if (mOutFile != null) {
+                mOut.close();
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println(e.getLocalizedMessage());
+            pool.shutdownNow();
+            return;
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d files, %d errors, %.2f s, %.0f files/s, %.1f MB/s, %d threads%n",
+                files.size(), errors.get(), secs, files.size() / secs, bytes.get() / secs / 1048576, mThreads);
+    }
+
+    private boolean process(File f) {
+        String[] values = new String[mPaths.length];
+        String error = null;
+        try {
+            Map<String, Tag> tags;
+            if ("edit".equals(mMode)) {
+                tags = TagPatchLogic.patch(f, mEdits);
+            } else {
+                tags = TagLogic.read(f, mPaths);
+            }
+            for (int i = 0; i < mPaths.length; i++) {
+                Tag tag = tags.get(mPaths[i]);
+                if (tag != null) {
+                    values[i] = toText(tag);
+                } else if ("edit".equals(mMode)) {
+                    error = "Cannot edit '" + mPaths[i] + "'";
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e.toString();
+        }
+        try {
+            if (mJSON) {
+                writeJSON(f, values, error);
+            } else {
+                List<String> row = new ArrayList<>();
+                row.add(f.getPath());
+                row.addAll(Arrays.asList(values));
+                row.add(error);
+                writeCSV(row);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return error == null;
+    }
+
+    private static String toText(Tag tag) {
+        switch (tag.getType()) {
+            case STRUCT: {
+                StringBuilder sb = new StringBuilder("{");
+                for (Tag sub : (Tag[]) tag.getValue()) {
+                    if (sub.getType() == TagType.FINISH) {
+                        break;
+                    }
+                    if (sb.length() > 1) {
+                        sb.append(", ");
+                    }
+                    sb.append(sub.getName()).append('=').append(toText(sub));
+                }
+                return sb.append('}').toString();
+            }
+            case LIST: {
+                StringBuilder sb = new StringBuilder("[");
+                for (Tag sub : TagLogic.getListElements(tag)) {
+                    if (sb.length() > 1) {
+                        sb.append(", ");
+                    }
+                    sb.append(toText(sub));
+                }
+                return sb.append(']').toString();
+            }
+            case BYTE_ARRAY:
+                return "byte[" + ((byte[]) tag.getValue()).length + "]";
+            case SERIALIZABLE:
+                return "ControlElementMap";
+            default:
+                return String.valueOf(tag.getValue());
+        }
+    }
+
+    private synchronized void writeCSV(List<String> cells) throws IOException {
+        for (int i = 0; i < cells.size(); i++) {
+            if (i > 0) {
+                mOut.write(',');
+            }
+            String cell = cells.get(i);
+            if (cell == null) {
+                continue;
+            }
+            if ((cell.indexOf(',') >= 0) || (cell.indexOf('"') >= 0) || (cell.indexOf('\n') >= 0)) {
+                cell = "\"" + cell.replace("\"", "\"\"") + "\"";
+            }
+            mOut.write(cell);
+        }
+        mOut.write('\n');
+    }
+
+    private synchronized void writeJSON(File f, String[] values, String error) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"file\":");
+        quote(sb, f.getPath());
+        for (int i = 0; i < mPaths.length; i++) {
+            if (values[i] != null) {
+                sb.append(',');
+                quote(sb, mPaths[i]);
+                sb.append(':');
+                quote(sb, values[i]);
+            }
+        }
+        if (error != null) {
+            sb.append(",\"error\":");
+            quote(sb, error);
+        }
+        sb.append("}\n");
+        mOut.write(sb.toString());
+    }
+
+    private static void quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    // a directory means all the .ent files in it, otherwise the name may be a glob
+    private static List<File> findFiles(File target) {
+        List<File> files = new ArrayList<>();
+        File dir;
+        PathMatcher matcher;
+        if (target.isDirectory()) {
+            dir = target;
+            matcher = FileSystems.getDefault().getPathMatcher("glob:*.ent");
+        } else {
+            dir = target.getAbsoluteFile().getParentFile();
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + target.getName());
+        }
+        File[] list = dir.listFiles();
+        if (list != null) {
+            for (File f : list) {
+                if (f.isFile() && matcher.matches(f.toPath().getFileName())) {
+                    files.add(f);
+                }
+            }
+        }
+        return files;
+    }
+
+    private boolean parseArgs() {
+        int i = 0;
+        for (; (i < mArgs.length) && mArgs[i].startsWith("-"); i++) {
+            switch (mArgs[i]) {
+                case "-csv":
+                    mJSON = false;
+                    break;
+                case "-jsonl":
+                    mJSON = true;
+                    break;
+                case "-o":
+                    mOutFile = new File(mArgs[++i]);
+                    break;
+                case "-threads":
+                    mThreads = Integer.parseInt(mArgs[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option '" + mArgs[i] + "'");
+                    return false;
+            }
+        }
+        if (mArgs.length - i < 3) {
+            System.err.println("Arg1 = directory or glob of entity files");
+            System.err.println("Arg2 = query or edit");
+            System.err.println("query: paths to objects, separated by commas");
+            System.err.println("edit: path to object, operation (=, +=, -=), value; repeated");
+            System.err.println("Options, before Arg1: -csv (default), -jsonl, -o file, -threads n");
+            return false;
+        }
+        mTarget = new File(mArgs[i++]);
+        mMode = mArgs[i++];
+        if ("query".equals(mMode)) {
+            mPaths = mArgs[i].split(",");
+        } else if ("edit".equals(mMode)) {
+            mEdits = new ArrayList<>();
+            List<String> paths = new ArrayList<>();
+            for (; i + 2 < mArgs.length; i += 3) {
+                mEdits.add(new TagEdit(mArgs[i], mArgs[i + 1], mArgs[i + 2]));
+                if (!paths.contains(mArgs[i])) {
+                    paths.add(mArgs[i]);
+                }
+            }
+            mPaths = paths.toArray(new String[paths.size()]);
+        } else {
+            System.err.println("Unknown mode '" + mMode + "'. Try 'query' or 'edit'.");
+            return false;
+        }
+        return true;
+    }
+
+    public static void main(String[] argv) {
+        BatchEntityFiles app = new BatchEntityFiles(argv);
+        app.run();
+    }
+}
@@ -1,12 +1,14 @@
 package jo.sm.ent.cmd;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import jo.sm.ent.data.Tag;
-import jo.sm.ent.logic.TagLogic;
+import jo.sm.ent.data.TagEdit;
+import jo.sm.ent.logic.TagPatchLogic;
 import jo.sm.ent.logic.TagUtils;
 
 public class EditEntityFile {
@@ -20,41 +22,24 @@ public class EditEntityFile {
 
     public void run() {
         parseArgs();
-        try {
-            FileInputStream fis = new FileInputStream(mTestFile);
-            Tag obj = TagLogic.readFile(fis, true);
-            for (int i = 1; i < mArgs.length; i += 3) {
-                edit(obj, mArgs[i], mArgs[i + 1], mArgs[i + 2]);
-            }
-            FileOutputStream fos = new FileOutputStream(mTestFile);
-            TagLogic.writeFile(obj, fos, true);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void edit(Tag root, String id, String op, String val) {
-        Tag obj = TagUtils.lookup(root, id);
-        if (obj == null) {
-            System.err.println("Cannot find '" + id + "'");
-            return;
+        List<TagEdit> edits = new ArrayList<>();
+        for (int i = 1; i + 2 < mArgs.length; i += 3) {
+            edits.add(new TagEdit(mArgs[i], mArgs[i + 1], mArgs[i + 2]));
         }
         try {
-            if ("=".equals(op)) {
-                TagUtils.set(obj, val);
-            } else if ("+=".equals(op)) {
-                TagUtils.incr(obj, val);
-            } else if ("-=".equals(op)) {
-                TagUtils.decr(obj, val);
-            } else {
-                System.err.println("Cannot find '" + id + "'");
-                return;
+            Map<String, Tag> patched = TagPatchLogic.patch(mTestFile, edits);
+            for (TagEdit edit : edits) {
+                Tag obj = patched.get(edit.getPath());
+                if (obj == null) {
+                    System.err.println("Cannot edit '" + edit.getPath() + "'");
+                }
+            }
+            for (Tag obj : patched.values()) {
+                TagUtils.dump(obj, "");
             }
-        } catch (Exception e) {
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println(e.getLocalizedMessage());
-            return;
         }
-        TagUtils.dump(obj, "");
     }
 
     private void parseArgs() {
@@ -0,0 +1,364 @@
+package jo.sm.ent.cmd;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jo.sm.logic.BatchLogic;
+import jo.sm.logic.BlueprintCatalogLogic;
+import jo.sm.logic.StarMadeLogic;
+import jo.sm.logic.utils.DebugLogic;
+import jo.sm.ui.BlockTypeColors;
+
+/**
+ * Stays resident with the plugins, block types, texture atlas, blueprint
+ * catalog and recently used blueprints loaded, and runs jobs sent to it on a
+ * Unix-domain socket, so scripts do not pay the start up cost each time.
+ * Takes one request per connection, as a line of text:
+ *
+ * run args... - runs the args as the "blueprints" command, sending back
+ * "job id", the job's output as it goes, then "end id ok|failed|cancelled"
+ * cancel id - asks a queued or running job to stop
+ * jobs - lists the queued and running jobs and the last thing each said
+ * stop - shuts the daemon down
+ *
+ * Arguments containing spaces can be put in double quotes. Jobs run with the
+ * rights of the daemon's owner, so the socket is made in a directory only
+ * its owner can use, and the daemon refuses to start in one others can get
+ * into. Jobs share the daemon's StarMade directory, and cannot name another.
+ **/
+public class JobDaemon {
+
+    private final String[] mArgs;
+    private File mSocket;
+    private int mJobs;
+    private int mModels;
+    private String mHome;
+    private ServerSocketChannel mServer;
+    private ExecutorService mPool;
+    private final AtomicInteger mNextID;
+    private final Map<Integer, Job> mRunning;
+
+    public JobDaemon(String[] argv) {
+        mArgs = argv;
+        mSocket = getDefaultSocket();
+        mJobs = Runtime.getRuntime().availableProcessors();
+        mModels = 16;
+        mNextID = new AtomicInteger(1);
+        mRunning = new ConcurrentSkipListMap<>();
+    }
+
+    public void run() {
+        if (!parseArgs()) {
+            return;
+        }
+        long start = System.nanoTime();
+        DebugLogic.DEBUG = false;
+        StarMadeLogic.setBaseDir(mHome);
+        BlockTypeColors.loadBlockIcons();
+        BlueprintCatalogLogic.getCatalog(false);
+        BatchLogic.setModelCacheSize(mModels);
+        mPool = Executors.newFixedThreadPool(mJobs);
+        try {
+            mServer = listen(mSocket);
+        } catch (IOException e) {
+            System.err.println("Cannot listen on " + mSocket + ": " + e.getLocalizedMessage());
+            mPool.shutdown();
+            return;
+        }
+        System.err.printf("Ready on %s in %.2f s, %d jobs at once, %d blueprints cached%n",
+                mSocket, (System.nanoTime() - start) / 1e9, mJobs, mModels);
+        while (mServer.isOpen()) {
+            try {
+                final SocketChannel client = mServer.accept();
+                Thread t = new Thread(() -> serve(client), "JobDaemon client");
+                t.setDaemon(true);
+                t.start();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println(e.getLocalizedMessage());
+            }
+        }
+        mSocket.delete();
+        mPool.shutdownNow();
+    }
+
+    /** Where the daemon listens, and jobs are sent, unless given -socket **/
+    public static File getDefaultSocket() {
+        return new File(new File(System.getProperty("user.home"), ".smedit"), "jobs.sock");
+    }
+
+    private static ServerSocketChannel listen(File socket) throws IOException {
+        checkPrivate(socket.getAbsoluteFile().getParentFile().toPath(), true);
+        if (socket.exists()) {
+            // left by a daemon that did not shut down, unless one is still there
+            boolean live;
+            try (SocketChannel ch = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()))) {
+                live = true;
+            } catch (IOException e) {
+                live = false;
+            }
+            if (live) {
+                throw new IOException("a daemon is already running there");
+            }
+            if (!socket.delete()) {
+                throw new IOException("cannot remove the old socket");
+            }
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+        return server;
+    }
+
+    /**
+     * Checks that only this user can get into the directory, making it if
+     * it is missing and make is set. Without POSIX permissions, as on
+     * Windows, the directory should be under the user's own profile.
+     **/
+    static void checkPrivate(Path dir, boolean make) throws IOException {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (!Files.isDirectory(dir)) {
+            if (!make) {
+                throw new IOException("no directory " + dir);
+            }
+            if (posix) {
+                Files.createDirectories(dir,
+                        PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ,
+                                PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE)));
+            } else {
+                Files.createDirectories(dir);
+            }
+        }
+        if (!posix) {
+            return;
+        }
+        PosixFileAttributes attrs = Files.readAttributes(dir, PosixFileAttributes.class);
+        if (!attrs.owner().getName().equals(System.getProperty("user.name"))) {
+            throw new IOException(dir + " belongs to " + attrs.owner().getName());
+        }
+        for (PosixFilePermission perm : attrs.permissions()) {
+            if ((perm != PosixFilePermission.OWNER_READ) && (perm != PosixFilePermission.OWNER_WRITE)
+                    && (perm != PosixFilePermission.OWNER_EXECUTE)) {
+                throw new IOException(dir + " can be used by other users, chmod 700 it");
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (SocketChannel s = client;
+                BufferedReader rdr = new BufferedReader(new InputStreamReader(Channels.newInputStream(s), StandardCharsets.UTF_8));
+                PrintStream out = new PrintStream(Channels.newOutputStream(s), true, "UTF-8")) {
+            String line = rdr.readLine();
+            List<String> words = (line == null) ? new ArrayList<String>() : split(line);
+            String cmd = words.isEmpty() ? "" : words.remove(0);
+            switch (cmd) {
+                case "run":
+                    runJob(words, out);
+                    break;
+                case "cancel":
+                    Job job = words.isEmpty() ? null : mRunning.get(Integer.parseInt(words.get(0)));
+                    if (job == null) {
+                        out.println("No such job");
+                    } else {
+                        job.cancel();
+                        out.println("cancelling " + job.mID);
+                    }
+                    break;
+                case "jobs":
+                    for (Job j : mRunning.values()) {
+                        out.println(j.mID + " " + j.mState + " " + j.mCommand + " - " + j.mLast);
+                    }
+                    out.println("end");
+                    break;
+                case "stop":
+                    out.println("stopping");
+                    for (Job j : mRunning.values()) {
+                        j.cancel();
+                    }
+                    mServer.close();
+                    break;
+                default:
+                    out.println("Unknown request '" + cmd + "'. Try 'run', 'cancel', 'jobs' or 'stop'.");
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getLocalizedMessage());
+        }
+    }
+
+    private void runJob(List<String> args, PrintStream client) {
+        final Job job = new Job();
+        job.mID = mNextID.getAndIncrement();
+        job.mCommand = String.join(" ", args);
+        job.mState = "queued";
+        job.mLast = "";
+        PrintStream out;
+        try {
+            out = new PrintStream(new JobOutput(job, client), true, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        job.mBatch = new BatchBlueprints(args.toArray(new String[args.size()]), out, out);
+        // other jobs are using the StarMade directory the daemon set up
+        job.mBatch.setSharedHome(true);
+        mRunning.put(job.mID, job);
+        client.println("job " + job.mID);
+        String result;
+        try {
+            Future<Boolean> done = mPool.submit(() -> {
+                job.mState = "running";
+                return !job.mCancelled && job.mBatch.run();
+            });
+            job.mFuture = done;
+            boolean ok = done.get();
+            result = job.mCancelled ? "cancelled" : ok ? "ok" : "failed";
+        } catch (Exception e) {
+            result = job.mCancelled ? "cancelled" : "failed";
+        } finally {
+            mRunning.remove(job.mID);
+        }
+        out.flush();
+        client.println("end " + job.mID + " " + result);
+    }
+
+    // splits on spaces, except within double quotes
+    private static List<String> split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                word.append(c);
+            }
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private boolean parseArgs() {
+        for (int i = 0; i < mArgs.length; i++) {
+            switch (mArgs[i]) {
+                case "-socket":
+                    mSocket = new File(mArgs[++i]);
+                    break;
+                case "-jobs":
+                    mJobs = Integer.parseInt(mArgs[++i]);
+                    break;
+                case "-models":
+                    mModels = Integer.parseInt(mArgs[++i]);
+                    break;
+                case "-starmade":
+                    mHome = mArgs[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option '" + mArgs[i] + "'");
+                    System.err.println("Options: -starmade dir, -socket file, -jobs n, -models n");
+                    return false;
+            }
+        }
+        if (mHome == null) {
+            mHome = StarMadeLogic.getProps().getProperty("starmade.home", "");
+            if (!StarMadeLogic.isStarMadeDirectory(mHome)) {
+                mHome = System.getProperty("user.dir");
+            }
+        }
+        if (!StarMadeLogic.isStarMadeDirectory(mHome)) {
+            System.err.println("'" + mHome + "' is not a StarMade directory, try -starmade dir");
+            return false;
+        }
+        return true;
+    }
+
+    private static class Job {
+
+        private int mID;
+        private String mCommand;
+        private volatile String mState;
+        private volatile String mLast;
+        private volatile boolean mCancelled;
+        private BatchBlueprints mBatch;
+        private Future<Boolean> mFuture;
+
+        private void cancel() {
+            mCancelled = true;
+            mBatch.cancel();
+            if ((mFuture != null) && "queued".equals(mState)) {
+                mFuture.cancel(false);
+            }
+        }
+    }
+
+    // passes a job's output to its client, remembering the last line for "jobs"
+    private static class JobOutput extends OutputStream {
+
+        private final Job mJob;
+        private final PrintStream mClient;
+        private final ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+
+        JobOutput(Job job, PrintStream client) {
+            mJob = job;
+            mClient = client;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                String line = new String(mLine.toByteArray(), StandardCharsets.UTF_8);
+                mLine.reset();
+                mJob.mLast = line;
+                mClient.println(line);
+            } else if (b != '\r') {
+                mLine.write(b);
+            }
+        }
+    }
+
+    public static void main(String[] argv) {
+        JobDaemon app = new JobDaemon(argv);
+        app.run();
+    }
+}
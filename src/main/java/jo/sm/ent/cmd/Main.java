@@ -19,8 +19,20 @@ public class Main {
             case "edit":
                 EditEntityFile.main(mOpArgs);
                 break;
+            case "batch":
+                BatchEntityFiles.main(mOpArgs);
+                break;
+            case "blueprints":
+                BatchBlueprints.main(mOpArgs);
+                break;
+            case "daemon":
+                JobDaemon.main(mOpArgs);
+                break;
+            case "job":
+                SubmitJob.main(mOpArgs);
+                break;
             default:
-                System.err.println("Unknown command '" + mOp + "'. Try 'dump' or 'edit'.");
+                System.err.println("Unknown command '" + mOp + "'. Try 'dump', 'edit', 'batch', 'blueprints', 'daemon' or 'job'.");
                 break;
         }
     }
@@ -30,6 +42,11 @@ public class Main {
             System.err.println("Try:");
             System.err.println("dump file.ent [id]");
             System.err.println("edit file.ent id (=|+=|-=) val");
+            System.err.println("batch [-jsonl] [-o out] [-threads n] (dir|glob) query id[,id...]");
+            System.err.println("batch [-jsonl] [-o out] [-threads n] (dir|glob) edit id (=|+=|-=) val");
+            System.err.println("blueprints [-starmade dir] [-threads n] [-save|-saveas suffix] (name...|-all) -plugin name [param=val...]...");
+            System.err.println("daemon [-starmade dir] [-socket file] [-jobs n] [-models n]");
+            System.err.println("job [-socket file] (run blueprints-args...|cancel id|jobs|stop)");
             System.exit(0);
         }
         mOp = mArgs[0];
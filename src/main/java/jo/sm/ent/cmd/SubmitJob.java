@@ -0,0 +1,93 @@
+package jo.sm.ent.cmd;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends a request to a running JobDaemon and prints what comes back. Exits
+ * with 1 if the job failed or was cancelled, or the daemon is not running.
+ * Only sends to a socket in a directory no other user can get into.
+ **/
+public class SubmitJob {
+
+    private final String[] mArgs;
+    private File mSocket;
+    private String mRequest;
+
+    public SubmitJob(String[] argv) {
+        mArgs = argv;
+        mSocket = JobDaemon.getDefaultSocket();
+    }
+
+    public int run() {
+        if (!parseArgs()) {
+            return 1;
+        }
+        int status = 0;
+        try {
+            JobDaemon.checkPrivate(mSocket.getAbsoluteFile().getParentFile().toPath(), false);
+        } catch (IOException e) {
+            System.err.println("Will not use " + mSocket + ": " + e.getLocalizedMessage());
+            return 1;
+        }
+        try (SocketChannel s = SocketChannel.open(UnixDomainSocketAddress.of(mSocket.toPath()));
+                BufferedReader rdr = new BufferedReader(new InputStreamReader(Channels.newInputStream(s), StandardCharsets.UTF_8))) {
+            Writer wtr = new OutputStreamWriter(Channels.newOutputStream(s), StandardCharsets.UTF_8);
+            wtr.write(mRequest);
+            wtr.write('\n');
+            wtr.flush();
+            for (;;) {
+                String line = rdr.readLine();
+                if (line == null) {
+                    break;
+                }
+                System.out.println(line);
+                if (line.startsWith("end ") && !line.endsWith(" ok")) {
+                    status = 1;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot reach the daemon on " + mSocket + ": " + e.getLocalizedMessage());
+            return 1;
+        }
+        return status;
+    }
+
+    private boolean parseArgs() {
+        int i = 0;
+        if ((mArgs.length > 1) && "-socket".equals(mArgs[0])) {
+            mSocket = new File(mArgs[1]);
+            i = 2;
+        }
+        if (i >= mArgs.length) {
+            System.err.println("Args = [-socket file] run blueprints args... | cancel id | jobs | stop");
+            return false;
+        }
+        StringBuilder request = new StringBuilder();
+        for (; i < mArgs.length; i++) {
+            if (request.length() > 0) {
+                request.append(' ');
+            }
+            if (mArgs[i].isEmpty() || (mArgs[i].indexOf(' ') >= 0)) {
+                request.append('"').append(mArgs[i]).append('"');
+            } else {
+                request.append(mArgs[i]);
+            }
+        }
+        mRequest = request.toString();
+        return true;
+    }
+
+    public static void main(String[] argv) {
+        SubmitJob app = new SubmitJob(argv);
+        System.exit(app.run());
+    }
+}
@@ -17,8 +17,7 @@
  **/
 package jo.sm.ent.data;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import jo.vecmath.Point3i;
 
@@ -28,10 +27,12 @@ import jo.vecmath.Point3i;
 public class ControlSubElement {
 
     private short mVal;
-    private List<Point3i> mVals;
+    // x, y, z of each controlled position, packed in file order
+    private short[] mPositions;
+    private int mSize;
 
     public ControlSubElement() {
-        mVals = new ArrayList<>();
+        mPositions = new short[0];
     }
 
     public short getVal() {
@@ -42,11 +43,31 @@ public class ControlSubElement {
         mVal = val;
     }
 
-    public List<Point3i> getVals() {
-        return mVals;
+    public int size() {
+        return mSize;
     }
 
-    public void setVals(List<Point3i> vals) {
-        mVals = vals;
+    public Point3i getPosition(int i) {
+        return new Point3i(mPositions[i * 3], mPositions[i * 3 + 1], mPositions[i * 3 + 2]);
+    }
+
+    public void addPosition(int x, int y, int z) {
+        if (mSize * 3 == mPositions.length) {
+            mPositions = Arrays.copyOf(mPositions, Math.max(12, mPositions.length * 2));
+        }
+        mPositions[mSize * 3] = (short) x;
+        mPositions[mSize * 3 + 1] = (short) y;
+        mPositions[mSize * 3 + 2] = (short) z;
+        mSize++;
+    }
+
+    /** Packed x, y, z triples; only the first size() * 3 entries are used **/
+    public short[] getPositions() {
+        return mPositions;
+    }
+
+    public void setPositions(short[] positions) {
+        mPositions = positions;
+        mSize = positions.length / 3;
     }
 }
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ent.data;
+
+/**
+ * One edit to a numeric tag: the tag's path, an operation of "=", "+=" or
+ * "-=", and the operand. The path is as TagReader gives it, starting with
+ * the root tag's name, e.g. "sc/ints/1", or may leave the root's name off,
+ * as for TagUtils.lookup, e.g. "ints/1".
+ **/
+public class TagEdit {
+
+    private String mPath;
+    private String mOp;
+    private String mValue;
+
+    public TagEdit() {
+    }
+
+    public TagEdit(String path, String op, String value) {
+        mPath = path;
+        mOp = op;
+        mValue = value;
+    }
+
+    @Override
+    public String toString() {
+        return mPath + " " + mOp + " " + mValue;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public void setPath(String path) {
+        mPath = path;
+    }
+
+    public String getOp() {
+        return mOp;
+    }
+
+    public void setOp(String op) {
+        mOp = op;
+    }
+
+    public String getValue() {
+        return mValue;
+    }
+
+    public void setValue(String value) {
+        mValue = value;
+    }
+}
@@ -262,7 +262,7 @@ public class EntityLogic {
                 dos.write(((Vector3b) tag.getValue()).c);
                 return;
             case LIST: {
-                Tag[] val = (Tag[]) tag.getValue();
+                Tag[] val = TagLogic.getListElements(tag);
                 if (val.length > 0) {
                     dos.writeByte(val[0].getType().ordinal());
                 } else {
@@ -47,7 +47,7 @@ public class EntityUtils {
                 break;
             }
             case LIST: {
-                Tag[] val = (Tag[]) obj.getValue();
+                Tag[] val = TagLogic.getListElements(obj);
             for (Tag val1 : val) {
                 if (val1.getType() == TagType.FINISH) {
                     break;
@@ -92,7 +92,7 @@ public class EntityUtils {
         }
         if (obj.getType() == TagType.LIST) {
             int n = Integer.parseInt(id);
-            Tag[] subs = (Tag[]) obj.getValue();
+            Tag[] subs = TagLogic.getListElements(obj);
             if (n < subs.length) {
                 return subs[n];
             }
@@ -2,14 +2,25 @@
 package jo.sm.ent.logic;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PushbackInputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
@@ -37,20 +48,7 @@ public class TagLogic {
         DebugLogic.setIndent("");
         DebugLogic.debug("Reading file");
         DebugLogic.indent();
-        if (!(is instanceof PushbackInputStream)) {
-            is = new PushbackInputStream(is, 2);
-        }
-        byte header[] = new byte[2];
-        is.read(header);
-        ((PushbackInputStream) is).unread(header);
-        DataInputStream dis;
-        if (header[0] == 31 && header[1] == -117) {
-            DebugLogic.debug("Zipped input");
-            dis = new DataInputStream(new GZIPInputStream(is, 4096));
-        } else {
-            dis = new DataInputStream(new BufferedInputStream(is, 4096));
-            dis.readShort();
-        }
+        DataInputStream dis = openStream(is);
         byte t = dis.readByte();
         TagType type = TagType.values()[t];
         Tag input = null;
@@ -78,14 +76,60 @@ public class TagLogic {
         return input;
     }
 
+    /**
+     * Reads only the tags at the given paths, e.g. "sc/transformable/transform",
+     * skipping everything else and stopping once all of them are found. Paths
+     * are as for TagReader. Returns the tags found, keyed by path.
+     **/
+    public static Map<String, Tag> read(File file, String... paths) throws IOException {
+        return read(new FileInputStream(file), paths);
+    }
+
+    public static Map<String, Tag> read(InputStream is, String... paths) throws IOException {
+        Map<String, Tag> found = new HashMap<>();
+        Set<String> wanted = new HashSet<>(Arrays.asList(paths));
+        try (TagReader rdr = new TagReader(is)) {
+            while (!wanted.isEmpty() && rdr.next()) {
+                if (rdr.getType() == TagType.FINISH) {
+                    continue;
+                }
+                String path = rdr.getPath();
+                if (wanted.remove(path)) {
+                    Tag tag = rdr.getTag();
+                    found.put(path, tag);
+                    // anything wanted inside it has just been read too
+                    String prefix = path + "/";
+                    for (Iterator<String> i = wanted.iterator(); i.hasNext();) {
+                        String p = i.next();
+                        if (p.startsWith(prefix)) {
+                            Tag sub = TagUtils.lookup(tag, p.substring(prefix.length()));
+                            if (sub != null) {
+                                found.put(p, sub);
+                            }
+                            i.remove();
+                        }
+                    }
+                } else if (!isAncestor(path, wanted)) {
+                    rdr.skip();
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean isAncestor(String path, Set<String> paths) {
+        String prefix = path + "/";
+        for (String p : paths) {
+            if (p.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static void writeFile(Tag tag, OutputStream os, boolean closeFile)
             throws IOException {
-        DataOutputStream dos;
-        if (os instanceof DataOutputStream) {
-            dos = (DataOutputStream) os;
-        } else {
-            dos = new DataOutputStream(os);
-        }
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os, 8192));
         dos.writeShort(0);
         dos.writeByte(tag.getType().ordinal());
         if (tag.getType() != TagType.FINISH) {
@@ -94,10 +138,57 @@ public class TagLogic {
         }
         if (closeFile) {
             dos.close();
+        } else {
+            dos.flush();
+        }
+    }
+
+    /**
+     * Returns a stream positioned at the root tag, unzipping or skipping the
+     * two byte prefix of an unzipped file as needed.
+     **/
+    static DataInputStream openStream(InputStream is) throws IOException {
+        if (!(is instanceof PushbackInputStream)) {
+            is = new PushbackInputStream(is, 2);
+        }
+        byte header[] = new byte[2];
+        is.read(header);
+        ((PushbackInputStream) is).unread(header);
+        DataInputStream dis;
+        if (header[0] == 31 && header[1] == -117) {
+            DebugLogic.debug("Zipped input");
+            dis = new DataInputStream(new BufferedInputStream(new GZIPInputStream(is, 4096), 8192));
+        } else {
+            dis = new DataInputStream(new BufferedInputStream(is, 4096));
+            dis.readShort();
         }
+        return dis;
     }
 
-    private static Object readValue(DataInputStream dis, TagType type)
+    /** Reads the type of the next struct member **/
+    static TagType readMemberType(DataInputStream dis) throws IOException {
+        byte nt = dis.readByte();
+        if ((nt & 0xff) == 0xf3) // HACK
+        {
+            dis.readFully(new byte[23]);
+            nt = dis.readByte();
+        } else if ((nt & 0xff) == 0xff) // HACK
+        {
+            dis.readFully(new byte[2]);
+            nt = dis.readByte();
+        }
+        try {
+            return TagType.values()[nt];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            byte[] buf = new byte[128];
+            buf[0] = nt;
+            dis.read(buf, 1, 127);
+            log.log(Level.WARNING, "Bad tag data:\n" + ByteUtils.toStringDump(buf));
+            throw new IllegalStateException("Unknown tag type '" + nt + "'");
+        }
+    }
+
+    static Object readValue(DataInputStream dis, TagType type)
             throws IOException {
         DebugLogic.indent();
         Object value = null;
@@ -150,15 +241,19 @@ public class TagLogic {
                 byte st = dis.readByte();
                 TagType subtype = TagType.values()[st];
                 int len = dis.readInt();
+                if (len == 0) {
+                    value = subtype;
+                    break;
+                }
+                value = readPrimitiveList(dis, subtype, len);
+                if (value != null) {
+                    break;
+                }
                 Tag tagbuf[] = new Tag[len];
                 for (int j = 0; j < len; j++) {
                     tagbuf[j] = new Tag(subtype, null, readValue(dis, subtype));
                 }
-                if (tagbuf.length == 0) {
-                    value = subtype;
-                } else {
-                    value = tagbuf;
-                }
+                value = tagbuf;
                 break;
             }
             case STRUCT: {
@@ -166,25 +261,7 @@ public class TagLogic {
                 List<Tag> inbuf = new ArrayList<>();
                 TagType nextType;
                 do {
-                    byte nt = dis.readByte();
-                    if ((nt & 0xff) == 0xf3) // HACK
-                    {
-                        dis.skip(23);
-                        nt = dis.readByte();
-                    } else if ((nt & 0xff) == 0xff) // HACK
-                    {
-                        dis.skip(2);
-                        nt = dis.readByte();
-                    }
-                    try {
-                        nextType = TagType.values()[nt];
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        byte[] buf = new byte[128];
-                        buf[0] = nt;
-                        dis.read(buf, 1, 127);
-                        log.log(Level.WARNING, "Bad tag data:\n" + ByteUtils.toStringDump(buf));
-                        throw new IllegalStateException("Unknown tag type '" + nt + "'");
-                    }
+                    nextType = readMemberType(dis);
                     String name = null;
                     String msg = "Reading member #" + (inbuf.size() + 1);
                     if (nextType != TagType.FINISH) {
@@ -215,14 +292,9 @@ public class TagLogic {
                     for (int j = 0; j < size2; j++) {
                         ControlSubElement sub = new ControlSubElement();
                         sub.setVal(dis.readShort());
-                        int size3 = dis.readInt();
-                        for (int k = 0; k < size3; k++) {
-                            Point3i p = new Point3i();
-                            p.x = dis.readShort();
-                            p.y = dis.readShort();
-                            p.z = dis.readShort();
-                            sub.getVals().add(p);
-                        }
+                        short[] positions = new short[dis.readInt() * 3];
+                        readShorts(dis, positions);
+                        sub.setPositions(positions);
                         ele.getElements().add(sub);
                     }
                     map.getElements().add(ele);
@@ -235,6 +307,82 @@ public class TagLogic {
         return value;
     }
 
+    // lists of numbers are kept as arrays rather than one Tag per element
+    private static Object readPrimitiveList(DataInputStream dis, TagType subtype, int len)
+            throws IOException {
+        switch (subtype) {
+            case BYTE: {
+                byte[] vals = new byte[len];
+                dis.readFully(vals);
+                return vals;
+            }
+            case SHORT: {
+                short[] vals = new short[len];
+                readShorts(dis, vals);
+                return vals;
+            }
+            case INT: {
+                int[] vals = new int[len];
+                for (int i = 0; i < len; i++) {
+                    vals[i] = dis.readInt();
+                }
+                return vals;
+            }
+            case LONG: {
+                long[] vals = new long[len];
+                for (int i = 0; i < len; i++) {
+                    vals[i] = dis.readLong();
+                }
+                return vals;
+            }
+            case FLOAT: {
+                float[] vals = new float[len];
+                for (int i = 0; i < len; i++) {
+                    vals[i] = dis.readFloat();
+                }
+                return vals;
+            }
+            case DOUBLE: {
+                double[] vals = new double[len];
+                for (int i = 0; i < len; i++) {
+                    vals[i] = dis.readDouble();
+                }
+                return vals;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static void readShorts(DataInputStream dis, short[] vals) throws IOException {
+        byte[] buf = new byte[vals.length * 2];
+        dis.readFully(buf);
+        ByteBuffer.wrap(buf).asShortBuffer().get(vals);
+    }
+
+    private static void writeShorts(DataOutputStream dos, short[] vals, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len * 2);
+        buf.asShortBuffer().put(vals, 0, len);
+        dos.write(buf.array());
+    }
+
+    /**
+     * Returns the elements of a list as Tags, making them on the fly for a
+     * list of numbers held as an array.
+     **/
+    public static Tag[] getListElements(Tag list) {
+        Object value = list.getValue();
+        if (value instanceof Tag[]) {
+            return (Tag[]) value;
+        }
+        int len = Array.getLength(value);
+        Tag[] tags = new Tag[len];
+        for (int i = 0; i < len; i++) {
+            tags[i] = new Tag(list.getSubType(), null, Array.get(value, i));
+        }
+        return tags;
+    }
+
     private static short[] indexToShort(long index) {
         long l1 = index / 4294705156L;
         long l2 = (index -= l1 * 4294705156L) / 65534L;
@@ -303,6 +451,10 @@ public class TagLogic {
                 dos.write(((Tuple3b) tag.getValue()).z);
                 return;
             case LIST: {
+                if (!(tag.getValue() instanceof Tag[])) {
+                    writePrimitiveList(tag, dos);
+                    return;
+                }
                 Tag[] val = (Tag[]) tag.getValue();
                 if (val.length > 0) {
                     dos.writeByte(val[0].getType().ordinal());
@@ -350,18 +502,52 @@ public class TagLogic {
                     dos.writeInt(ele.getElements().size());
                     for (ControlSubElement sub : ele.getElements()) {
                         dos.writeShort(sub.getVal());
-                        dos.writeInt(sub.getVals().size());
-                        for (Point3i p : sub.getVals()) {
-                            dos.writeShort(p.x);
-                            dos.writeShort(p.y);
-                            dos.writeShort(p.z);
-                        }
+                        dos.writeInt(sub.size());
+                        writeShorts(dos, sub.getPositions(), sub.size() * 3);
                     }
                 }
             }
         }
     }
 
+    private static void writePrimitiveList(Tag tag, DataOutputStream dos)
+            throws IOException {
+        Object value = tag.getValue();
+        int len = Array.getLength(value);
+        dos.writeByte(tag.getSubType().ordinal());
+        dos.writeInt(len);
+        switch (tag.getSubType()) {
+            case BYTE:
+                dos.write((byte[]) value);
+                break;
+            case SHORT:
+                writeShorts(dos, (short[]) value, len);
+                break;
+            case INT:
+                for (int v : (int[]) value) {
+                    dos.writeInt(v);
+                }
+                break;
+            case LONG:
+                for (long v : (long[]) value) {
+                    dos.writeLong(v);
+                }
+                break;
+            case FLOAT:
+                for (float v : (float[]) value) {
+                    dos.writeFloat(v);
+                }
+                break;
+            case DOUBLE:
+                for (double v : (double[]) value) {
+                    dos.writeDouble(v);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Cannot write a list of " + tag.getSubType() + " as an array");
+        }
+    }
+
     public static void setValue(Tag tag, Object value) {
         switch (tag.getType()) {
             case FINISH:
@@ -430,6 +616,25 @@ public class TagLogic {
                     value = new Tag[0];
                     break;
                 }
+                if (value instanceof byte[]) {
+                    tag.setSubType(TagType.BYTE);
+                    break;
+                } else if (value instanceof short[]) {
+                    tag.setSubType(TagType.SHORT);
+                    break;
+                } else if (value instanceof int[]) {
+                    tag.setSubType(TagType.INT);
+                    break;
+                } else if (value instanceof long[]) {
+                    tag.setSubType(TagType.LONG);
+                    break;
+                } else if (value instanceof float[]) {
+                    tag.setSubType(TagType.FLOAT);
+                    break;
+                } else if (value instanceof double[]) {
+                    tag.setSubType(TagType.DOUBLE);
+                    break;
+                }
                 if (!(value instanceof Tag[])) {
                     throw new IllegalArgumentException();
                 }
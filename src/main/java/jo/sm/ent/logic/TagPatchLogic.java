@@ -0,0 +1,256 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ent.logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import jo.sm.ent.data.Tag;
+import jo.sm.ent.data.TagEdit;
+import jo.sm.ent.data.TagType;
+
+/**
+ * Edits numeric tags in a tag file without building the tag tree. The tags
+ * to change are found with a TagReader that skips everything not on their
+ * paths, and only their bytes are overwritten. An unzipped file is patched
+ * in place; a zipped one is unzipped, patched and zipped back as a whole.
+ **/
+public class TagPatchLogic {
+
+    private static class PositionStream extends ByteArrayInputStream {
+
+        private PositionStream(byte[] buf, int offset) {
+            super(buf, offset, buf.length - offset);
+        }
+
+        private int getPosition() {
+            return pos;
+        }
+    }
+
+    // favours speed over size; StarMade reads any deflate level
+    private static class FastGZIPOutputStream extends GZIPOutputStream {
+
+        private FastGZIPOutputStream(OutputStream os) throws IOException {
+            super(os, 8192);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    /**
+     * Applies the edits, in order, to the file. Returns the edited tags with
+     * their new values, keyed by path. Paths that are not found, or are not
+     * numbers, are left out and not changed.
+     **/
+    public static Map<String, Tag> patch(File file, List<TagEdit> edits) throws IOException {
+        byte[] raw = Files.readAllBytes(file.toPath());
+        boolean zipped = (raw.length >= 2) && (raw[0] == 31) && (raw[1] == -117);
+        byte[] data = zipped ? unzip(raw) : raw;
+        Set<String> paths = new HashSet<>();
+        for (TagEdit edit : edits) {
+            paths.add(edit.getPath());
+        }
+        Map<String, Integer> offsets = new HashMap<>();
+        Map<String, TagType> types = new HashMap<>();
+        locate(data, zipped ? 0 : 2, paths, offsets, types);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        Map<String, Tag> patched = new LinkedHashMap<>();
+        for (TagEdit edit : edits) {
+            Integer offset = offsets.get(edit.getPath());
+            if (offset == null) {
+                continue;
+            }
+            TagType type = types.get(edit.getPath());
+            Object value = apply(buf, offset, type, edit.getOp(), edit.getValue());
+            String name = edit.getPath().substring(edit.getPath().lastIndexOf('/') + 1);
+            if (Character.isDigit(name.charAt(0))) {
+                name = null; // list element
+            }
+            patched.put(edit.getPath(), new Tag(type, name, value));
+        }
+        if (patched.isEmpty()) {
+            return patched;
+        }
+        if (zipped) {
+            File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (OutputStream os = new FastGZIPOutputStream(new FileOutputStream(tmpFile))) {
+                os.write(data);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                for (String path : patched.keySet()) {
+                    int offset = offsets.get(path);
+                    raf.seek(offset);
+                    raf.write(data, offset, getWidth(types.get(path)));
+                }
+            }
+        }
+        return patched;
+    }
+
+    private static byte[] unzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(raw.length * 4);
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(raw), 8192)) {
+            byte[] buf = new byte[65536];
+            for (;;) {
+                int len = is.read(buf);
+                if (len < 0) {
+                    break;
+                }
+                baos.write(buf, 0, len);
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    // finds the offset of the value of each numeric tag on one of the paths
+    private static void locate(byte[] data, int start, Set<String> paths,
+            Map<String, Integer> offsets, Map<String, TagType> types) throws IOException {
+        PositionStream ps = new PositionStream(data, start);
+        TagReader rdr = TagReader.atRoot(new DataInputStream(ps));
+        if (!rdr.next()) {
+            return;
+        }
+        // a path may start with the root's name, as TagReader gives it, or
+        // below the root, as for TagUtils.lookup; keyed here by the former
+        String root = rdr.getPath();
+        Map<String, List<String>> wanted = new HashMap<>();
+        for (String path : paths) {
+            boolean rooted = path.equals(root) || path.startsWith(root + "/");
+            wanted.computeIfAbsent(rooted ? path : root + "/" + path, p -> new ArrayList<>()).add(path);
+        }
+        do {
+            if (rdr.getType() == TagType.FINISH) {
+                continue;
+            }
+            String path = rdr.getPath();
+            List<String> given = wanted.remove(path);
+            if (given != null) {
+                if (getWidth(rdr.getType()) > 0) {
+                    for (String p : given) {
+                        offsets.put(p, ps.getPosition());
+                        types.put(p, rdr.getType());
+                    }
+                }
+                rdr.skip();
+            } else if (!isAncestor(path, wanted.keySet())) {
+                rdr.skip();
+            }
+        } while (!wanted.isEmpty() && rdr.next());
+    }
+
+    private static boolean isAncestor(String path, Set<String> paths) {
+        String prefix = path + "/";
+        for (String p : paths) {
+            if (p.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getWidth(TagType type) {
+        switch (type) {
+            case BYTE:
+                return 1;
+            case SHORT:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case DOUBLE:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    // applies one edit to the value at offset and returns the new value
+    private static Object apply(ByteBuffer buf, int offset, TagType type, String op, String val) {
+        int sign;
+        switch (op) {
+            case "=":
+                sign = 0;
+                break;
+            case "+=":
+                sign = 1;
+                break;
+            case "-=":
+                sign = -1;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation '" + op + "'");
+        }
+        switch (type) {
+            case BYTE: {
+                byte v = (byte) (sign == 0 ? Byte.parseByte(val) : buf.get(offset) + sign * Byte.parseByte(val));
+                buf.put(offset, v);
+                return v;
+            }
+            case SHORT: {
+                short v = (short) (sign == 0 ? Short.parseShort(val) : buf.getShort(offset) + sign * Short.parseShort(val));
+                buf.putShort(offset, v);
+                return v;
+            }
+            case INT: {
+                int v = (sign == 0) ? Integer.parseInt(val) : buf.getInt(offset) + sign * Integer.parseInt(val);
+                buf.putInt(offset, v);
+                return v;
+            }
+            case LONG: {
+                long v = (sign == 0) ? Long.parseLong(val) : buf.getLong(offset) + sign * Long.parseLong(val);
+                buf.putLong(offset, v);
+                return v;
+            }
+            case FLOAT: {
+                float v = (sign == 0) ? Float.parseFloat(val) : buf.getFloat(offset) + sign * Float.parseFloat(val);
+                buf.putFloat(offset, v);
+                return v;
+            }
+            case DOUBLE: {
+                double v = (sign == 0) ? Double.parseDouble(val) : buf.getDouble(offset) + sign * Double.parseDouble(val);
+                buf.putDouble(offset, v);
+                return v;
+            }
+            default:
+                throw new IllegalArgumentException("Cannot patch a " + type);
+        }
+    }
+}
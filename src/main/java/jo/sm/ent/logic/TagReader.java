@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ent.logic;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import jo.sm.ent.data.Tag;
+import jo.sm.ent.data.TagType;
+
+/**
+ * Pull reader for tag files. Each call to next() moves to the next tag in
+ * file order. A tag's value is only decoded if getValue() or getTag() is
+ * called; otherwise next() steps into a struct or list, and skips over any
+ * other value. skip() passes over a whole struct or list. The end of a
+ * struct or list is reported as a FINISH tag with the path of the container.
+ * Paths start with the root tag's name and join member names with '/', as
+ * in TagUtils.lookup; list elements are named by their index.
+ **/
+public class TagReader implements Closeable {
+
+    // encoded size of the fixed size values, by TagType ordinal, -1 if variable
+    private static final int[] FIXED_SIZE = {
+        0, 1, 2, 4, 8, 4, 8, -1, -1, 12, 12, 3, -1, -1, -1
+    };
+
+    private static class Frame {
+
+        private final String mPath;
+        private final TagType mSubType; // null for a struct
+        private int mRemaining;
+        private int mIndex;
+
+        private Frame(String path, TagType subType, int remaining) {
+            mPath = path;
+            mSubType = subType;
+            mRemaining = remaining;
+        }
+    }
+
+    private final DataInputStream mInput;
+    private final Deque<Frame> mStack;
+    private TagType mType;
+    private String mName;
+    private String mPath;
+    private boolean mPending; // value of the current tag is still in the stream
+    private boolean mStarted;
+
+    public TagReader(InputStream is) throws IOException {
+        this(TagLogic.openStream(is));
+    }
+
+    private TagReader(DataInputStream dis) {
+        mInput = dis;
+        mStack = new ArrayDeque<>();
+    }
+
+    /** Returns a reader for a stream that is already positioned at the root tag **/
+    static TagReader atRoot(DataInputStream dis) {
+        return new TagReader(dis);
+    }
+
+    /** Moves to the next tag, returns false at the end of the file **/
+    public boolean next() throws IOException {
+        if (mPending) {
+            mPending = false;
+            if (mType == TagType.STRUCT) {
+                mStack.push(new Frame(mPath, null, 0));
+            } else if (mType == TagType.LIST) {
+                TagType subType = TagType.values()[mInput.readByte()];
+                mStack.push(new Frame(mPath, subType, mInput.readInt()));
+            } else {
+                skipValue(mType);
+            }
+        }
+        if (!mStarted) {
+            mStarted = true;
+            mType = TagType.values()[mInput.readByte()];
+            mName = (mType == TagType.FINISH) ? null : mInput.readUTF();
+            mPath = (mName == null) ? "" : mName;
+            mPending = (mType != TagType.FINISH);
+            return true;
+        }
+        Frame top = mStack.peek();
+        if (top == null) {
+            return false;
+        }
+        if (top.mSubType == null) {
+            mType = TagLogic.readMemberType(mInput);
+            if (mType == TagType.FINISH) {
+                mStack.pop();
+                mName = null;
+                mPath = top.mPath;
+                return true;
+            }
+            mName = mInput.readUTF();
+            mPath = top.mPath + "/" + mName;
+        } else {
+            if (top.mRemaining == 0) {
+                mStack.pop();
+                mType = TagType.FINISH;
+                mName = null;
+                mPath = top.mPath;
+                return true;
+            }
+            top.mRemaining--;
+            mType = top.mSubType;
+            mName = null;
+            mPath = top.mPath + "/" + top.mIndex++;
+        }
+        mPending = true;
+        return true;
+    }
+
+    /** Skips the value of the current tag, including everything inside a struct or list **/
+    public void skip() throws IOException {
+        if (mPending) {
+            mPending = false;
+            skipValue(mType);
+        }
+    }
+
+    /** Reads the value of the current tag, as held by Tag **/
+    public Object getValue() throws IOException {
+        if (!mPending) {
+            throw new IllegalStateException("Value of " + mPath + " already consumed");
+        }
+        mPending = false;
+        return TagLogic.readValue(mInput, mType);
+    }
+
+    /** Reads the current tag and everything inside it **/
+    public Tag getTag() throws IOException {
+        if (mType == TagType.FINISH) {
+            return new Tag(TagType.FINISH, null, null);
+        }
+        return new Tag(mType, mName, getValue());
+    }
+
+    private void skipValue(TagType type) throws IOException {
+        int size = FIXED_SIZE[type.ordinal()];
+        if (size >= 0) {
+            skipFully(size);
+            return;
+        }
+        switch (type) {
+            case BYTE_ARRAY:
+                skipFully(mInput.readInt());
+                break;
+            case STRING:
+                skipFully(mInput.readUnsignedShort());
+                break;
+            case LIST: {
+                TagType subType = TagType.values()[mInput.readByte()];
+                int len = mInput.readInt();
+                size = FIXED_SIZE[subType.ordinal()];
+                if (size >= 0) {
+                    skipFully((long) size * len);
+                } else {
+                    for (int i = 0; i < len; i++) {
+                        skipValue(subType);
+                    }
+                }
+                break;
+            }
+            case STRUCT:
+                for (;;) {
+                    TagType memberType = TagLogic.readMemberType(mInput);
+                    if (memberType == TagType.FINISH) {
+                        break;
+                    }
+                    skipFully(mInput.readUnsignedShort());
+                    skipValue(memberType);
+                }
+                break;
+            case SERIALIZABLE: {
+                mInput.readByte(); // factory
+                int elements = mInput.readInt();
+                for (int i = 0; i < elements; i++) {
+                    skipFully(6); // index
+                    int subs = mInput.readInt();
+                    for (int j = 0; j < subs; j++) {
+                        skipFully(2); // val
+                        skipFully(6L * mInput.readInt());
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Cannot skip " + type);
+        }
+    }
+
+    private void skipFully(long len) throws IOException {
+        while (len > 0) {
+            int skipped = mInput.skipBytes((int) Math.min(len, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                if (mInput.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            len -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    public TagType getType() {
+        return mType;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /** Number of structs and lists the current tag is inside **/
+    public int getDepth() {
+        return mStack.size();
+    }
+}
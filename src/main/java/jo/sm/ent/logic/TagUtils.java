@@ -24,7 +24,6 @@ import jo.sm.ent.data.ControlElementMap;
 import jo.sm.ent.data.ControlSubElement;
 import jo.sm.ent.data.Tag;
 import jo.sm.ent.data.TagType;
-import jo.vecmath.Point3i;
 
 /**
  * @Auther Jo Jaquinta for SMEdit Classic - version 1.0
@@ -53,7 +52,7 @@ public class TagUtils {
                 break;
             }
             case LIST: {
-                Tag[] val = (Tag[]) obj.getValue();
+                Tag[] val = TagLogic.getListElements(obj);
             for (Tag val1 : val) {
                 if (val1.getType() == TagType.FINISH) {
                     break;
@@ -70,8 +69,8 @@ public class TagUtils {
                     log.log(Level.INFO, prefix + "Index:" + ele.getIndex());
                     for (ControlSubElement sub : ele.getElements()) {
                         log.log(Level.INFO, prefix + "  ElementID:" + sub.getVal());
-                        for (Point3i p : sub.getVals()) {
-                            log.log(Level.INFO, prefix + "    " + p);
+                        for (int i = 0; i < sub.size(); i++) {
+                            log.log(Level.INFO, prefix + "    " + sub.getPosition(i));
                         }
                     }
                 }
@@ -95,12 +94,15 @@ public class TagUtils {
         String[] ids = id.split("/");
         for (String i : ids) {
             obj = find(obj, i);
+            if (obj == null) {
+                break;
+            }
         }
         return obj;
     }
 
     private static Tag find(Tag obj, String id) {
-        if (obj.getName().equals(id)) {
+        if (id.equals(obj.getName())) {
             return obj;
         }
         if (obj.getType() == TagType.STRUCT) {
@@ -112,7 +114,8 @@ public class TagUtils {
         }
         if (obj.getType() == TagType.LIST) {
             int n = Integer.parseInt(id);
-            Tag[] subs = (Tag[]) obj.getValue();
+            Tag[] subs = TagLogic.getListElements(obj);
+            obj.setValue(subs); // so edits to the element are kept
             if (n < subs.length) {
                 return subs[n];
             }
@@ -171,7 +171,7 @@ public class MaterialPlugin implements IBlocksPlugin {
         for (MaterialEntry entry : probs) {
             roll -= entry.getPercent();
             if (roll < 0) {
-                return new Block(entry.getBlockID());
+                return Block.valueOf(entry.getBlockID());
             }
         }
         throw new IllegalStateException("We fell off the bottom!");
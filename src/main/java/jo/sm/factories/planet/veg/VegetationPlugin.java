@@ -128,7 +128,7 @@ public class VegetationPlugin implements IBlocksPlugin {
         for (VegetationEntry entry : probs) {
             roll -= entry.getPercent();
             if (roll < 0) {
-                return new Block(entry.getBlockID());
+                return Block.valueOf(entry.getBlockID());
             }
         }
         throw new IllegalStateException("We fell off the bottom!");
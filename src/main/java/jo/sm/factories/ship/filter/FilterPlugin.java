@@ -17,14 +17,11 @@
  **/
 package jo.sm.factories.ship.filter;
 
-import java.util.Iterator;
-
 import jo.sm.data.SparseMatrix;
 import jo.sm.data.StarMade;
 import jo.sm.mods.IBlocksPlugin;
 import jo.sm.mods.IPluginCallback;
 import jo.sm.ship.data.Block;
-import jo.vecmath.Point3i;
 
 /**
  * @Auther Jo Jaquinta for SMEdit Classic - version 1.0
@@ -77,13 +74,11 @@ public class FilterPlugin implements IBlocksPlugin {
     public SparseMatrix<Block> modify(SparseMatrix<Block> original,
             Object params, StarMade sm, IPluginCallback cb) {
         SparseMatrix<Block> modified = new SparseMatrix<>();
-        for (Iterator<Point3i> i = original.iteratorNonNull(); i.hasNext();) {
-            Point3i p = i.next();
-            Block b = original.get(p);
-            if (mDef.getBlocks().contains(b.getBlockID())) {
-                modified.set(p, b);
+        original.forEachNonNull((x, y, z, blockID, orientation) -> {
+            if (mDef.getBlocks().contains(blockID)) {
+                modified.set(x, y, z, blockID, orientation);
             }
-        }
+        });
         return modified;
     }
 
@@ -0,0 +1,280 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.logic;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jo.sm.data.SparseMatrix;
+import jo.sm.data.StarMade;
+import jo.sm.logic.macro.MacroFunctionOpLogic;
+import jo.sm.logic.utils.ConvertLogic;
+import jo.sm.mods.IBlocksPlugin;
+import jo.sm.mods.IPluginCallback;
+import jo.sm.ship.data.Block;
+import jo.sm.ship.data.Blueprint;
+import jo.sm.ship.data.DataBaseline;
+import jo.sm.ship.logic.DataLogic;
+import jo.sm.ship.logic.ShipLogic;
+import jo.sm.ui.logic.ShipSpec;
+import jo.vecmath.Point3i;
+
+/**
+ * Loading, modifying and saving blueprints without the editor window, for
+ * command line and scripted use. Nothing here touches the model or the
+ * selection held in StarMade, so several blueprints can be worked on at once.
+ **/
+public class BatchLogic {
+
+    // recently used blueprints, most recent last, for callers that run many jobs in one process
+    private static final Map<File, CachedModel> mModels = new LinkedHashMap<>(16, .75f, true);
+    private static int mModelCacheSize = 0;
+    // one lock per blueprint directory, so jobs on the same blueprint take turns
+    private static final Map<File, Object> mLocks = new ConcurrentHashMap<>();
+
+    public static synchronized int getModelCacheSize() {
+        return mModelCacheSize;
+    }
+
+    /** Sets how many loaded blueprints are kept to be handed out again, 0 for none **/
+    public static synchronized void setModelCacheSize(int modelCacheSize) {
+        mModelCacheSize = modelCacheSize;
+        trimModels();
+    }
+
+    public static synchronized void clearModelCache() {
+        mModels.clear();
+    }
+
+    /**
+     * Returns the object to hold while reading and then writing a
+     * blueprint's directory, so two jobs cannot interleave their loads and
+     * saves of the same blueprint.
+     **/
+    public static Object getBlueprintLock(File dir) {
+        return mLocks.computeIfAbsent(dir.toPath().toAbsolutePath().normalize().toFile(), d -> new Object());
+    }
+
+    /** Returns the blueprint's directory, given its name or a path to it **/
+    public static File getBlueprintDir(String name, boolean def) {
+        File dir = new File(name);
+        if (new File(dir, "header.smbph").exists()) {
+            return dir;
+        }
+        return new File(BlueprintCatalogLogic.getBlueprintsDir(def), name);
+    }
+
+    /**
+     * Reads a blueprint, remembering what was read so a later save only
+     * writes changes. A cached copy is returned if the files on disk have not
+     * changed since it was read or saved; the copy shares unchanged chunks
+     * with the cache, so it is cheap to make and safe to modify.
+     **/
+    public static SparseMatrix<Block> loadBlueprint(ShipSpec spec, IPluginCallback cb) throws IOException {
+        File dir = spec.getFile().getAbsoluteFile();
+        long stamp = getStamp(dir);
+        synchronized (BatchLogic.class) {
+            CachedModel cached = mModels.get(dir);
+            if ((cached != null) && (cached.mStamp == stamp) && cached.mName.equals(spec.getName())) {
+                spec.setBaseline(cached.mBaseline);
+                return new SparseMatrix<>(cached.mGrid);
+            }
+        }
+        Blueprint blueprint = BlueprintLogic.readBlueprint(spec.getFile(), cb);
+        SparseMatrix<Block> grid = ShipLogic.getBlocks(blueprint.getData());
+        spec.setBaseline(DataLogic.getBaseline(grid, new File(spec.getFile(), "DATA"), spec.getName()));
+        cacheModel(dir, spec, grid, stamp);
+        return grid;
+    }
+
+    /**
+     * Reads just the chunks of a blueprint that overlap lower..upper. Only
+     * the offset tables of the data files are read up front, and only the
+     * chunks in the region are inflated, so a region of a huge blueprint
+     * loads without decoding the rest. Whole chunks are kept, so the grid may
+     * run up to 15 blocks past the bounds. The grid is not cached and the spec
+     * gets no baseline, as it does not hold everything on disk.
+     **/
+    public static SparseMatrix<Block> loadBlueprintRegion(ShipSpec spec, Point3i lower, Point3i upper,
+            IPluginCallback cb) throws IOException {
+        cb.setStatus("Reading " + spec.getName() + " " + lower + " to " + upper);
+        spec.setBaseline(null);
+        return DataLogic.readRegion(new File(spec.getFile(), "DATA"), spec.getName(), lower, upper);
+    }
+
+    public static ShipSpec getBlueprintSpec(File dir, boolean def) {
+        ShipSpec spec = new ShipSpec();
+        spec.setType(def ? ShipSpec.DEFAULT_BLUEPRINT : ShipSpec.BLUEPRINT);
+        spec.setClassification(IBlocksPlugin.TYPE_SHIP);
+        spec.setName(dir.getName());
+        spec.setFile(dir);
+        return spec;
+    }
+
+    public static void saveBlueprint(SparseMatrix<Block> grid, ShipSpec spec, IPluginCallback cb) throws IOException {
+        File dir = spec.getFile().getAbsoluteFile();
+        try {
+            BlueprintLogic.writeBlueprint(grid, spec, spec.getType() == ShipSpec.DEFAULT_BLUEPRINT, cb);
+        } catch (IOException e) {
+            // the files may be half written, and must not be matched with the grid
+            uncacheModel(dir);
+            throw e;
+        }
+        cacheModel(dir, spec, grid, getStamp(dir));
+    }
+
+    private static synchronized void uncacheModel(File dir) {
+        mModels.remove(dir);
+    }
+
+    private static synchronized void cacheModel(File dir, ShipSpec spec, SparseMatrix<Block> grid, long stamp) {
+        if (mModelCacheSize <= 0) {
+            return;
+        }
+        CachedModel cached = new CachedModel();
+        cached.mName = spec.getName();
+        cached.mGrid = new SparseMatrix<>(grid);
+        cached.mBaseline = spec.getBaseline();
+        cached.mStamp = stamp;
+        mModels.put(dir, cached);
+        trimModels();
+    }
+
+    private static void trimModels() {
+        for (Iterator<File> i = mModels.keySet().iterator(); (mModels.size() > mModelCacheSize) && i.hasNext();) {
+            i.next();
+            i.remove();
+        }
+    }
+
+    // changes whenever the header or any data file is rewritten, added or removed
+    private static long getStamp(File dir) {
+        File header = new File(dir, "header.smbph");
+        long stamp = header.lastModified() * 31 + header.length();
+        File[] data = new File(dir, "DATA").listFiles();
+        if (data != null) {
+            Arrays.sort(data);
+            for (File f : data) {
+                stamp = stamp * 31 + f.getName().hashCode();
+                stamp = stamp * 31 + f.lastModified();
+                stamp = stamp * 31 + f.length();
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * Finds a blocks plugin by its name, e.g. "Export/OBJ", the part after
+     * the last '/', its macro function name, e.g. "fileexportobj", or its
+     * class name.
+     **/
+    public static IBlocksPlugin findPlugin(String name) {
+        for (IBlocksPlugin plugin : StarMadeLogic.getAllBlocksPlugins()) {
+            String pluginName = plugin.getName();
+            if (name.equalsIgnoreCase(pluginName)
+                    || name.equalsIgnoreCase(pluginName.substring(pluginName.lastIndexOf('/') + 1))
+                    || name.equalsIgnoreCase(MacroFunctionOpLogic.getID(plugin))
+                    || name.equals(plugin.getClass().getName())
+                    || name.equals(plugin.getClass().getSimpleName())) {
+                return plugin;
+            }
+        }
+        if ((name.indexOf('.') > 0) && StarMadeLogic.addBlocksPlugin(name)) {
+            return findPlugin(name);
+        }
+        throw new IllegalArgumentException("No blocks plugin '" + name + "'");
+    }
+
+    /**
+     * Returns a new instance of the plugin, or null if it has no public
+     * no-argument constructor, as with plugins made by a factory. Plugins
+     * such as the text and image ones keep the state of a run in fields, so
+     * each thread of a batch needs its own instance.
+     **/
+    public static IBlocksPlugin copyPlugin(IBlocksPlugin plugin) {
+        try {
+            return plugin.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Makes and initialises the plugin's parameter bean for the grid, then
+     * sets the given properties from their text form.
+     **/
+    public static Object makeParameters(IBlocksPlugin plugin, SparseMatrix<Block> grid,
+            Map<String, String> values, StarMade sm, IPluginCallback cb) {
+        Object params = plugin.newParameterBean();
+        if (params == null) {
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException(plugin.getName() + " takes no parameters");
+            }
+            return null;
+        }
+        plugin.initParameterBean(grid, params, sm, cb);
+        Map<String, PropertyDescriptor> props = new TreeMap<>();
+        try {
+            for (PropertyDescriptor pd : Introspector.getBeanInfo(params.getClass()).getPropertyDescriptors()) {
+                if ((pd.getReadMethod() != null) && (pd.getWriteMethod() != null)) {
+                    props.put(pd.getName(), pd);
+                }
+            }
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException(plugin.getName() + " has unreadable parameters", e);
+        }
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            PropertyDescriptor pd = props.get(value.getKey());
+            if (pd == null) {
+                throw new IllegalArgumentException(plugin.getName() + " has no parameter '" + value.getKey()
+                        + "', try " + props.keySet());
+            }
+            try {
+                pd.getWriteMethod().invoke(params, ConvertLogic.toObject(value.getValue(), pd.getPropertyType()));
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalArgumentException("Cannot set " + plugin.getName() + " parameter '" + value.getKey() + "'", e);
+            }
+        }
+        return params;
+    }
+
+    /** Runs the plugin and returns the resulting grid **/
+    public static SparseMatrix<Block> runPlugin(IBlocksPlugin plugin, SparseMatrix<Block> grid,
+            Object params, StarMade sm, IPluginCallback cb) {
+        SparseMatrix<Block> modified = plugin.modify(grid, params, sm, cb);
+        return (modified != null) ? modified : grid;
+    }
+
+    private static class CachedModel {
+
+        private String mName;
+        private SparseMatrix<Block> mGrid;
+        private DataBaseline mBaseline;
+        private long mStamp;
+    }
+}
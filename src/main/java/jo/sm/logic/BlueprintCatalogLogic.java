@@ -0,0 +1,255 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jo.sm.data.BlueprintCatalogEntry;
+import jo.sm.ship.data.BlockEntry;
+import jo.sm.ship.data.Header;
+import jo.sm.ship.logic.HeaderLogic;
+import jo.util.Paths;
+import jo.vecmath.Vector3f;
+
+/**
+ * Persistent index of the blueprints in a blueprints directory. Each
+ * refresh only stats the blueprint directories; a blueprint's header and
+ * DATA listing are re-read, in parallel, only when its header file or DATA
+ * directory has changed since it was indexed. The index is kept in the
+ * cache directory between runs.
+ **/
+public class BlueprintCatalogLogic {
+    private static final Logger log = Logger.getLogger(BlueprintCatalogLogic.class.getName());
+
+    private static final int INDEX_VERSION = 1;
+
+    public static final Comparator<BlueprintCatalogEntry> BY_NAME = Comparator.comparing(BlueprintCatalogEntry::getName, String.CASE_INSENSITIVE_ORDER);
+    public static final Comparator<BlueprintCatalogEntry> BY_BLOCK_COUNT = Comparator.comparingInt(BlueprintCatalogEntry::getBlockCount).reversed();
+    public static final Comparator<BlueprintCatalogEntry> BY_BYTE_SIZE = Comparator.comparingLong(BlueprintCatalogEntry::getByteSize).reversed();
+
+    // keyed by blueprints directory, then blueprint name
+    private static final Map<File, Map<String, BlueprintCatalogEntry>> mCatalogs = new HashMap<>();
+
+    public static File getBlueprintsDir(boolean def) {
+        return new File(StarMadeLogic.getInstance().getBaseDir(), def ? "blueprints-default" : "blueprints");
+    }
+
+    /** Returns the up to date catalog, ordered by name **/
+    public static List<BlueprintCatalogEntry> getCatalog(boolean def) {
+        return query(def, null, BY_NAME);
+    }
+
+    /**
+     * Returns the catalog entries that pass filter (all if null), in the
+     * given order (directory order if null).
+     **/
+    public static List<BlueprintCatalogEntry> query(boolean def, Predicate<BlueprintCatalogEntry> filter,
+            Comparator<BlueprintCatalogEntry> order) {
+        List<BlueprintCatalogEntry> entries = new ArrayList<>();
+        for (BlueprintCatalogEntry entry : refresh(getBlueprintsDir(def)).values()) {
+            if ((filter == null) || filter.test(entry)) {
+                entries.add(entry);
+            }
+        }
+        if (order != null) {
+            entries.sort(order);
+        }
+        return entries;
+    }
+
+    /** Returns the indexed entry for a blueprint without refreshing, or null **/
+    public static synchronized BlueprintCatalogEntry getEntry(boolean def, String name) {
+        Map<String, BlueprintCatalogEntry> catalog = mCatalogs.get(getBlueprintsDir(def));
+        return (catalog == null) ? null : catalog.get(name);
+    }
+
+    public static synchronized Map<String, BlueprintCatalogEntry> refresh(File blueprintsDir) {
+        Map<String, BlueprintCatalogEntry> catalog = mCatalogs.get(blueprintsDir);
+        if (catalog == null) {
+            catalog = readIndex(blueprintsDir);
+        }
+        Map<String, BlueprintCatalogEntry> current = new HashMap<>();
+        final List<BlueprintCatalogEntry> stale = new ArrayList<>();
+        File[] dirs = blueprintsDir.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File header = new File(dir, "header.smbph");
+                if (!header.exists()) {
+                    continue;
+                }
+                BlueprintCatalogEntry entry = catalog.get(dir.getName());
+                if ((entry == null) || (entry.getHeaderModified() != header.lastModified())
+                        || (entry.getHeaderLength() != header.length())
+                        || (entry.getDataModified() != new File(dir, "DATA").lastModified())) {
+                    entry = new BlueprintCatalogEntry();
+                    entry.setName(dir.getName());
+                    stale.add(entry);
+                }
+                current.put(entry.getName(), entry);
+            }
+        }
+        final File baseDir = blueprintsDir;
+        stale.parallelStream().forEach(entry -> readEntry(new File(baseDir, entry.getName()), entry));
+        mCatalogs.put(blueprintsDir, current);
+        if (!stale.isEmpty() || (current.size() != catalog.size())) {
+            log.log(Level.INFO, "Re-read " + stale.size() + " of " + current.size() + " blueprints in " + blueprintsDir);
+            writeIndex(blueprintsDir, current);
+        }
+        return current;
+    }
+
+    private static void readEntry(File dir, BlueprintCatalogEntry entry) {
+        File headerFile = new File(dir, "header.smbph");
+        File dataDir = new File(dir, "DATA");
+        entry.setHeaderModified(headerFile.lastModified());
+        entry.setHeaderLength(headerFile.length());
+        entry.setDataModified(dataDir.lastModified());
+        try (InputStream is = new BufferedInputStream(new FileInputStream(headerFile))) {
+            Header header = HeaderLogic.readFile(is, false);
+            entry.setLowerBound(header.getLowerBound());
+            entry.setUpperBound(header.getUpperBound());
+            entry.setManifest(header.getManifest());
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Cannot read header of " + dir.getName(), e);
+            entry.setLowerBound(new Vector3f());
+            entry.setUpperBound(new Vector3f());
+            entry.setManifest(new BlockEntry[0]);
+        }
+        int blockCount = 0;
+        for (BlockEntry block : entry.getManifest()) {
+            blockCount += block.getBlockQuantity();
+        }
+        entry.setBlockCount(blockCount);
+        long byteSize = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                byteSize += f.length();
+            }
+        }
+        int dataFiles = 0;
+        files = dataDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(".smd2")) {
+                    byteSize += f.length();
+                    dataFiles++;
+                }
+            }
+        }
+        entry.setByteSize(byteSize);
+        entry.setDataFiles(dataFiles);
+    }
+
+    private static File getIndexFile(File blueprintsDir) {
+        return new File(Paths.getCacheDirectory(), blueprintsDir.getName() + ".idx");
+    }
+
+    private static Map<String, BlueprintCatalogEntry> readIndex(File blueprintsDir) {
+        Map<String, BlueprintCatalogEntry> catalog = new HashMap<>();
+        File indexFile = getIndexFile(blueprintsDir);
+        if (!indexFile.exists()) {
+            return catalog;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if ((dis.readInt() != INDEX_VERSION) || !dis.readUTF().equals(blueprintsDir.getAbsolutePath())) {
+                return catalog;
+            }
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                BlueprintCatalogEntry entry = new BlueprintCatalogEntry();
+                entry.setName(dis.readUTF());
+                entry.setHeaderModified(dis.readLong());
+                entry.setHeaderLength(dis.readLong());
+                entry.setDataModified(dis.readLong());
+                entry.setByteSize(dis.readLong());
+                entry.setDataFiles(dis.readInt());
+                entry.setLowerBound(new Vector3f(dis.readFloat(), dis.readFloat(), dis.readFloat()));
+                entry.setUpperBound(new Vector3f(dis.readFloat(), dis.readFloat(), dis.readFloat()));
+                entry.setBlockCount(dis.readInt());
+                BlockEntry[] manifest = new BlockEntry[dis.readInt()];
+                for (int j = 0; j < manifest.length; j++) {
+                    manifest[j] = new BlockEntry();
+                    manifest[j].setBlockID(dis.readShort());
+                    manifest[j].setBlockQuantity(dis.readInt());
+                }
+                entry.setManifest(manifest);
+                catalog.put(entry.getName(), entry);
+            }
+        } catch (IOException e) {
+            log.log(Level.INFO, "Ignoring unreadable blueprint index " + indexFile, e);
+            catalog.clear();
+        }
+        return catalog;
+    }
+
+    private static void writeIndex(File blueprintsDir, Map<String, BlueprintCatalogEntry> catalog) {
+        File indexFile = getIndexFile(blueprintsDir);
+        File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        indexFile.getParentFile().mkdirs();
+        try {
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                dos.writeInt(INDEX_VERSION);
+                dos.writeUTF(blueprintsDir.getAbsolutePath());
+                dos.writeInt(catalog.size());
+                for (BlueprintCatalogEntry entry : catalog.values()) {
+                    dos.writeUTF(entry.getName());
+                    dos.writeLong(entry.getHeaderModified());
+                    dos.writeLong(entry.getHeaderLength());
+                    dos.writeLong(entry.getDataModified());
+                    dos.writeLong(entry.getByteSize());
+                    dos.writeInt(entry.getDataFiles());
+                    dos.writeFloat(entry.getLowerBound().x);
+                    dos.writeFloat(entry.getLowerBound().y);
+                    dos.writeFloat(entry.getLowerBound().z);
+                    dos.writeFloat(entry.getUpperBound().x);
+                    dos.writeFloat(entry.getUpperBound().y);
+                    dos.writeFloat(entry.getUpperBound().z);
+                    dos.writeInt(entry.getBlockCount());
+                    dos.writeInt(entry.getManifest().length);
+                    for (BlockEntry block : entry.getManifest()) {
+                        dos.writeShort(block.getBlockID());
+                        dos.writeInt(block.getBlockQuantity());
+                    }
+                }
+            }
+            if (indexFile.exists()) {
+                indexFile.delete();
+            }
+            tmpFile.renameTo(indexFile);
+        } catch (IOException e) {
+            log.log(Level.INFO, "Cannot write blueprint index " + indexFile, e);
+        }
+    }
+}
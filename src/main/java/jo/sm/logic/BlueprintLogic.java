@@ -23,17 +23,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import jo.sm.data.BlueprintCatalogEntry;
 import jo.sm.data.SparseMatrix;
 import jo.sm.data.StarMade;
 import jo.sm.mods.IPluginCallback;
 import jo.sm.ship.data.Block;
 import jo.sm.ship.data.Blueprint;
-import jo.sm.ship.data.Data;
 import jo.sm.ship.data.Header;
 import jo.sm.ship.data.Logic;
 import jo.sm.ship.data.Meta;
@@ -41,9 +41,7 @@ import jo.sm.ship.logic.DataLogic;
 import jo.sm.ship.logic.HeaderLogic;
 import jo.sm.ship.logic.LogicLogic;
 import jo.sm.ship.logic.MetaLogic;
-import jo.sm.ship.logic.ShipLogic;
 import jo.sm.ui.logic.ShipSpec;
-import jo.vecmath.Point3i;
 
 
 public class BlueprintLogic {
@@ -60,11 +58,10 @@ public class BlueprintLogic {
     }
 
     private static void scanBlueprintsDir(File blueprintsDir, List<String> blueprints) {
-        for (File f : blueprintsDir.listFiles()) {
-            if (isValidBlueprintDir(f)) {
-                blueprints.add(f.getName());
-            }
+        for (BlueprintCatalogEntry entry : BlueprintCatalogLogic.refresh(blueprintsDir).values()) {
+            blueprints.add(entry.getName());
         }
+        Collections.sort(blueprints, String.CASE_INSENSITIVE_ORDER);
     }
 
     public static List<String> getDefaultBlueprintNames() {
@@ -77,11 +74,6 @@ public class BlueprintLogic {
         return sm.getDefaultBlueprints();
     }
 
-    private static boolean isValidBlueprintDir(File dir) {
-        File header = new File(dir, "header.smbph");
-        return header.exists();
-    }
-
     public static Blueprint readBlueprint(String name, IPluginCallback cb) throws IOException {
         File blueprintsDir = new File(StarMadeLogic.getInstance().getBaseDir(), "blueprints");
         File blueprintDir = new File(blueprintsDir, name);
@@ -113,36 +105,45 @@ public class BlueprintLogic {
 
     public static void saveBlueprint(SparseMatrix<Block> grid, ShipSpec spec, boolean def, IPluginCallback cb) {
         try {
-            Map<Point3i, Data> data = ShipLogic.getData(grid);
-            File baseDir = spec.getFile();
-            if (!baseDir.exists()) {
-                baseDir.mkdir();
-                if (def) {
-                    StarMadeLogic.getInstance().setDefaultBlueprints(null);
-                } else {
-                    StarMadeLogic.getInstance().setBlueprints(null);
-                }
-            }
-            // header file
-            Header header = HeaderLogic.make(grid);
-            File headerFile = new File(baseDir, "header.smbph");
-            HeaderLogic.writeFile(header, new FileOutputStream(headerFile), true);
-            Logic logic = LogicLogic.make(grid);
-            File logicFile = new File(baseDir, "logic.smbpl");
-            LogicLogic.writeFile(logic, new FileOutputStream(logicFile), true);
-            Meta meta = MetaLogic.make(grid);
-            File metaFile = new File(baseDir, "meta.smbpm");
-            MetaLogic.writeFile(meta, new FileOutputStream(metaFile), true);
-            // data file
-            File dataDir = new File(baseDir, "DATA");
-            if (!dataDir.exists()) {
-                dataDir.mkdir();
-            }
-            DataLogic.writeFiles(data, dataDir, spec.getName(), cb);
+            writeBlueprint(grid, spec, def, cb);
         } catch (IOException e1) {
             log.log(Level.WARNING, "saveBlueprint failed!", e1);
             e1.printStackTrace();
         }
     }
 
+    /**
+     * As saveBlueprint, but passes failures on to the caller, for batch use
+     * where a failed save has to count as an error.
+     **/
+    public static void writeBlueprint(SparseMatrix<Block> grid, ShipSpec spec, boolean def, IPluginCallback cb)
+            throws IOException {
+        File baseDir = spec.getFile();
+        if (!baseDir.exists()) {
+            baseDir.mkdir();
+            if (def) {
+                StarMadeLogic.getInstance().setDefaultBlueprints(null);
+            } else {
+                StarMadeLogic.getInstance().setBlueprints(null);
+            }
+        }
+        // made before anything is written, so a grid they reject leaves the files alone
+        Header header = HeaderLogic.make(grid);
+        Logic logic = LogicLogic.make(grid);
+        Meta meta = MetaLogic.make(grid);
+        // header file
+        File headerFile = new File(baseDir, "header.smbph");
+        HeaderLogic.writeFile(header, new FileOutputStream(headerFile), true);
+        File logicFile = new File(baseDir, "logic.smbpl");
+        LogicLogic.writeFile(logic, new FileOutputStream(logicFile), true);
+        File metaFile = new File(baseDir, "meta.smbpm");
+        MetaLogic.writeFile(meta, new FileOutputStream(metaFile), true);
+        // data file
+        File dataDir = new File(baseDir, "DATA");
+        if (!dataDir.exists()) {
+            dataDir.mkdir();
+        }
+        spec.setBaseline(DataLogic.writeFiles(grid, spec.getBaseline(), dataDir, spec.getName(), cb));
+    }
+
 }
@@ -17,63 +17,195 @@
  **/
 package jo.sm.logic;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jo.sm.data.Entity;
 import jo.sm.data.StarMade;
 import jo.sm.ent.data.Tag;
+import jo.sm.ent.data.TagType;
 import jo.sm.ent.logic.TagLogic;
+import jo.sm.ent.logic.TagReader;
 import jo.sm.logic.utils.DebugLogic;
 import jo.sm.mods.IPluginCallback;
 import jo.sm.ship.logic.DataLogic;
+import jo.util.Paths;
 import jo.vecmath.Point3i;
 
 
 public class EntityLogic {
     private static final Logger log = Logger.getLogger(EntityLogic.class.getName());
 
+    private static final int INDEX_VERSION = 1;
+
     public static List<Entity> getEntities() throws IOException {
         StarMade sm = StarMadeLogic.getInstance();
         if (sm.getEntities() == null) {
-            sm.setEntities(new ArrayList<Entity>());
-            File serverDatabase = new File(sm.getBaseDir(), "server-database");
-            for (File entFile : serverDatabase.listFiles()) {
-                if (entFile.getName().startsWith("ENTITY_")) {
-                    try {
-                        Entity entity = readEntity(entFile);
-                        sm.getEntities().add(entity);
-                    } catch (Exception e) {
-                        log.log(Level.WARNING, "Bad entity read!", e);
-                        System.out.println("Bad entity read: " + e);
-                        //e.printStackTrace();
-                    }
+            sm.setEntities(scanEntities(new File(sm.getBaseDir(), "server-database")));
+        }
+        return sm.getEntities();
+    }
+
+    /**
+     * Lists the entities in a server database. Entities are built from their
+     * file names; only files that are new or changed since the last scan have
+     * their root tag checked, in parallel, and the results are kept in an
+     * index in the cache directory. Tag trees are read on demand by getTag.
+     **/
+    public static synchronized List<Entity> scanEntities(File serverDatabase) {
+        Map<String, Entity> index = readIndex(serverDatabase);
+        List<Entity> entities = new ArrayList<>();
+        List<Entity> stale = new ArrayList<>();
+        File[] files = serverDatabase.listFiles();
+        if (files != null) {
+            for (File entFile : files) {
+                if (!entFile.getName().startsWith("ENTITY_") || !entFile.getName().endsWith(".ent")) {
+                    continue;
                 }
+                Entity entity = index.get(entFile.getName());
+                if ((entity == null) || (entity.getModified() != entFile.lastModified())
+                        || (entity.getLength() != entFile.length())) {
+                    entity = new Entity();
+                    entity.setModified(entFile.lastModified());
+                    entity.setLength(entFile.length());
+                    stale.add(entity);
+                }
+                entity.setFile(entFile);
+                entities.add(entity);
             }
         }
-        return sm.getEntities();
+        stale.parallelStream().forEach(entity -> entity.setValid(isValidEntity(entity.getFile())));
+        List<Entity> valid = new ArrayList<>();
+        for (Entity entity : entities) {
+            if (!entity.isValid()) {
+                continue;
+            }
+            try {
+                parseName(entity.getFile(), entity);
+                valid.add(entity);
+            } catch (RuntimeException e) {
+                // names are parsed by position, so a malformed one can fail in many ways
+                log.log(Level.WARNING, "Bad entity read!", e);
+                entity.setValid(false);
+            }
+        }
+        if (!stale.isEmpty() || (entities.size() != index.size())) {
+            log.log(Level.INFO, "Checked " + stale.size() + " of " + entities.size() + " entities in " + serverDatabase);
+            writeIndex(serverDatabase, entities);
+        }
+        return valid;
     }
 
     public static Entity readEntity(File entFile) throws IOException {
         DebugLogic.debug("Reading entity " + entFile);
         Entity entity = new Entity();
         entity.setFile(entFile);
+        entity.setModified(entFile.lastModified());
+        entity.setLength(entFile.length());
+        entity.setValid(true);
         parseName(entFile, entity);
-        Tag t = TagLogic.readFile(new FileInputStream(entFile), true);
-        entity.setTag(t);
+        getTag(entity);
         return entity;
     }
 
+    /** Returns the entity's tag tree, reading it on first use **/
+    public static Tag getTag(Entity entity) throws IOException {
+        synchronized (entity) {
+            if (entity.getTag() == null) {
+                entity.setTag(TagLogic.readFile(new FileInputStream(entity.getFile()), true));
+            }
+            return entity.getTag();
+        }
+    }
+
+    // cheap sanity check: a tag file whose root is a named struct
+    private static boolean isValidEntity(File entFile) {
+        try (TagReader rdr = new TagReader(new FileInputStream(entFile))) {
+            return rdr.next() && (rdr.getType() == TagType.STRUCT);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Bad entity read: " + entFile.getName(), e);
+            return false;
+        }
+    }
+
+    private static File getIndexFile(File serverDatabase) {
+        return new File(Paths.getCacheDirectory(), "entities-" + serverDatabase.getParentFile().getName() + ".idx");
+    }
+
+    private static Map<String, Entity> readIndex(File serverDatabase) {
+        Map<String, Entity> index = new HashMap<>();
+        File indexFile = getIndexFile(serverDatabase);
+        if (!indexFile.exists()) {
+            return index;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if ((dis.readInt() != INDEX_VERSION) || !dis.readUTF().equals(serverDatabase.getAbsolutePath())) {
+                return index;
+            }
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = dis.readUTF();
+                Entity entity = new Entity();
+                entity.setModified(dis.readLong());
+                entity.setLength(dis.readLong());
+                entity.setValid(dis.readBoolean());
+                index.put(name, entity);
+            }
+        } catch (IOException e) {
+            log.log(Level.INFO, "Ignoring unreadable entity index " + indexFile, e);
+            index.clear();
+        }
+        return index;
+    }
+
+    private static void writeIndex(File serverDatabase, List<Entity> entities) {
+        File indexFile = getIndexFile(serverDatabase);
+        File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        indexFile.getParentFile().mkdirs();
+        try {
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                dos.writeInt(INDEX_VERSION);
+                dos.writeUTF(serverDatabase.getAbsolutePath());
+                dos.writeInt(entities.size());
+                for (Entity entity : entities) {
+                    dos.writeUTF(entity.getFile().getName());
+                    dos.writeLong(entity.getModified());
+                    dos.writeLong(entity.getLength());
+                    dos.writeBoolean(entity.isValid());
+                }
+            }
+            if (indexFile.exists()) {
+                indexFile.delete();
+            }
+            tmpFile.renameTo(indexFile);
+        } catch (IOException e) {
+            log.log(Level.INFO, "Cannot write entity index " + indexFile, e);
+        }
+    }
+
     public static void readEntityData(Entity entity, IPluginCallback cb) throws IOException {
-        File dataDir = new File(entity.getFile().getParent(), "DATA");
+        entity.setData(DataLogic.readFiles(getDataDir(entity), getDataBaseName(entity), cb));
+    }
+
+    public static File getDataDir(Entity entity) {
+        return new File(entity.getFile().getParent(), "DATA");
+    }
+
+    public static String getDataBaseName(Entity entity) {
         String name = entity.getFile().getName();
-        name = name.substring(0, name.length() - 4); // strip .ent
-        entity.setData(DataLogic.readFiles(dataDir, name, cb));
+        return name.substring(0, name.length() - 4); // strip .ent
     }
 
     private static void parseName(File entFile, Entity entity) {
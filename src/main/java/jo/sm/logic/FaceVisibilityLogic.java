@@ -0,0 +1,222 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.logic;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import jo.sm.data.BlockChunk;
+import jo.sm.data.IFaceVisitor;
+import jo.sm.data.RenderPoly;
+import jo.sm.data.SparseMatrix;
+
+/**
+ * Works out which faces of the blocks in a chunk are exposed a whole row at
+ * a time, rather than looking up each block's six neighbours.
+ *
+ * The occupancy of a chunk is gathered into 16 bit masks, one for each row
+ * of blocks along x, with bit x set where there is a block. Rows are indexed
+ * by (z << 4) | y, which is the chunk index without its x bits, so the row of
+ * index idx is idx >> 4 and its bit is idx & 15. A face is exposed where a
+ * row has a block and the occluding row beside it, shifted into line, does
+ * not:
+ *
+ *   XP: row & ~(solid >>> 1), bit 15 from bit 0 of the row in the chunk at +x
+ *   XM: row & ~(solid << 1), bit 0 from bit 15 of the row in the chunk at -x
+ *   YP: row & ~(solid row at y + 1), or at y = 0 in the chunk at +y
+ *   ...
+ *
+ * The exposed masks are returned in a single array of six runs of ROWS
+ * masks, in the order of the RenderPoly face constants, face f of row r
+ * being at f * ROWS + r.
+ **/
+public class FaceVisibilityLogic {
+
+    public static final int ROWS = BlockChunk.SIZE * BlockChunk.SIZE;
+    public static final int FACES = 6;
+    public static final int ALL_FACES = (1 << FACES) - 1;
+
+    private static final int ROW_MASK = (1 << BlockChunk.SIZE) - 1;
+    private static final int LAST_BIT = 1 << BlockChunk.MASK;
+
+    /**
+     * Returns the exposed face masks of chunk. neighbours holds the chunks
+     * beyond each face, in the order XP, XM, YP, YM, ZP, ZM, or null where
+     * there is none, as made by getNeighbours. occluders is indexed by block
+     * ID and says which blocks cover the faces beside them, or is null if
+     * every block does. exposed is filled and returned if it is not null,
+     * so one array can be reused across chunks.
+     *
+     * @param chunk
+     * @param neighbours
+     * @param occluders
+     * @param exposed
+     * @return
+     */
+    public static short[] getExposed(BlockChunk chunk, BlockChunk[] neighbours, boolean[] occluders, short[] exposed) {
+        if (exposed == null) {
+            exposed = new short[FACES * ROWS];
+        }
+        short[] rows = new short[ROWS];
+        short[] solid = (occluders == null) ? rows : new short[ROWS];
+        for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+            short packed = chunk.get(idx);
+            if (packed != 0) {
+                int r = idx >> BlockChunk.SHIFT;
+                int bit = 1 << (idx & BlockChunk.MASK);
+                rows[r] = (short) (rows[r] | bit);
+                if ((occluders != null) && occluders[BlockChunk.getBlockID(packed)]) {
+                    solid[r] = (short) (solid[r] | bit);
+                }
+            }
+        }
+        for (int r = 0; r < ROWS; r++) {
+            int row = rows[r] & ROW_MASK;
+            if (row == 0) {
+                for (int f = 0; f < FACES; f++) {
+                    exposed[f * ROWS + r] = 0;
+                }
+                continue;
+            }
+            int s = solid[r] & ROW_MASK;
+            int y = r & BlockChunk.MASK;
+            int z = r >> BlockChunk.SHIFT;
+            int xp = (s >>> 1);
+            if (occludes(neighbours[0], r << BlockChunk.SHIFT, occluders)) {
+                xp |= LAST_BIT;
+            }
+            int xm = (s << 1) & ROW_MASK;
+            if (occludes(neighbours[1], (r << BlockChunk.SHIFT) | BlockChunk.MASK, occluders)) {
+                xm |= 1;
+            }
+            int yp = (y < BlockChunk.MASK) ? (solid[r + 1] & ROW_MASK) : getRow(neighbours[2], z << BlockChunk.SHIFT, occluders);
+            int ym = (y > 0) ? (solid[r - 1] & ROW_MASK) : getRow(neighbours[3], (z << BlockChunk.SHIFT) | BlockChunk.MASK, occluders);
+            int zp = (z < BlockChunk.MASK) ? (solid[r + BlockChunk.SIZE] & ROW_MASK) : getRow(neighbours[4], y, occluders);
+            int zm = (z > 0) ? (solid[r - BlockChunk.SIZE] & ROW_MASK) : getRow(neighbours[5], (BlockChunk.MASK << BlockChunk.SHIFT) | y, occluders);
+            exposed[RenderPoly.XP * ROWS + r] = (short) (row & ~xp);
+            exposed[RenderPoly.XM * ROWS + r] = (short) (row & ~xm);
+            exposed[RenderPoly.YP * ROWS + r] = (short) (row & ~yp);
+            exposed[RenderPoly.YM * ROWS + r] = (short) (row & ~ym);
+            exposed[RenderPoly.ZP * ROWS + r] = (short) (row & ~zp);
+            exposed[RenderPoly.ZM * ROWS + r] = (short) (row & ~zm);
+        }
+        return exposed;
+    }
+
+    /**
+     * Returns the exposed faces of the block at the chunk index idx, with bit
+     * (1 << RenderPoly.XP) and so on set for each.
+     *
+     * @param exposed
+     * @param idx
+     * @return
+     */
+    public static int getFaces(short[] exposed, int idx) {
+        int r = idx >> BlockChunk.SHIFT;
+        int bit = idx & BlockChunk.MASK;
+        int faces = 0;
+        for (int f = 0; f < FACES; f++) {
+            faces |= ((exposed[f * ROWS + r] >> bit) & 1) << f;
+        }
+        return faces;
+    }
+
+    /**
+     * Returns whether face f of the block at the chunk index idx is exposed.
+     *
+     * @param exposed
+     * @param f
+     * @param idx
+     * @return
+     */
+    public static boolean isExposed(short[] exposed, int f, int idx) {
+        return ((exposed[f * ROWS + (idx >> BlockChunk.SHIFT)] >> (idx & BlockChunk.MASK)) & 1) != 0;
+    }
+
+    /**
+     * Returns the chunks beside chunk, in the order getExposed takes them.
+     *
+     * @param chunks
+     * @param chunk
+     * @return
+     */
+    public static BlockChunk[] getNeighbours(Map<Long, BlockChunk> chunks, BlockChunk chunk) {
+        int cx = chunk.getOriginX() >> BlockChunk.SHIFT;
+        int cy = chunk.getOriginY() >> BlockChunk.SHIFT;
+        int cz = chunk.getOriginZ() >> BlockChunk.SHIFT;
+        return new BlockChunk[]{
+            chunks.get(BlockChunk.keyOfChunk(cx + 1, cy, cz)),
+            chunks.get(BlockChunk.keyOfChunk(cx - 1, cy, cz)),
+            chunks.get(BlockChunk.keyOfChunk(cx, cy + 1, cz)),
+            chunks.get(BlockChunk.keyOfChunk(cx, cy - 1, cz)),
+            chunks.get(BlockChunk.keyOfChunk(cx, cy, cz + 1)),
+            chunks.get(BlockChunk.keyOfChunk(cx, cy, cz - 1)),};
+    }
+
+    /**
+     * Visits every block of grid with its exposed faces, in the same order
+     * as SparseMatrix.forEachNonNull. The visitor must not change the grid.
+     *
+     * @param grid
+     * @param occluders
+     * @param visitor
+     */
+    public static void forEachExposed(SparseMatrix<?> grid, boolean[] occluders, IFaceVisitor visitor) {
+        Map<Long, BlockChunk> chunks = new HashMap<>();
+        for (BlockChunk chunk : grid.getChunks()) {
+            chunks.put(chunk.getKey(), chunk);
+        }
+        short[] exposed = null;
+        for (BlockChunk chunk : grid.getChunks()) {
+            exposed = getExposed(chunk, getNeighbours(chunks, chunk), occluders, exposed);
+            int ox = chunk.getOriginX();
+            int oy = chunk.getOriginY();
+            int oz = chunk.getOriginZ();
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                short packed = chunk.get(idx);
+                if (packed != 0) {
+                    visitor.visit(ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx),
+                            BlockChunk.getBlockID(packed), BlockChunk.getOrientation(packed), getFaces(exposed, idx));
+                }
+            }
+        }
+    }
+
+    // the occluding blocks of the row at index r of chunk, 0 if there is no chunk
+    private static int getRow(BlockChunk chunk, int r, boolean[] occluders) {
+        if (chunk == null) {
+            return 0;
+        }
+        int row = 0;
+        int base = r << BlockChunk.SHIFT;
+        for (int x = 0; x < BlockChunk.SIZE; x++) {
+            if (occludes(chunk, base | x, occluders)) {
+                row |= 1 << x;
+            }
+        }
+        return row;
+    }
+
+    private static boolean occludes(BlockChunk chunk, int idx, boolean[] occluders) {
+        if (chunk == null) {
+            return false;
+        }
+        short packed = chunk.get(idx);
+        return (packed != 0) && ((occluders == null) || occluders[BlockChunk.getBlockID(packed)]);
+    }
+}
@@ -17,21 +17,29 @@
  **/
 package jo.sm.logic;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
+import jo.sm.data.BlockChunk;
 import jo.sm.data.CubeIterator;
 import jo.sm.data.SparseMatrix;
-import jo.sm.logic.utils.StreamUtils;
 import jo.sm.logic.utils.StringUtils;
 import jo.sm.logic.utils.XMLEditUtils;
 import jo.sm.logic.utils.XMLUtils;
@@ -103,10 +111,10 @@ public class GridLogic {
             String[] xyz = XMLUtils.getAttribute(block, "location").split(",");
             Point3i p = new Point3i(Integer.parseInt(xyz[0]), Integer.parseInt(xyz[1]), Integer.parseInt(xyz[2]));
             short id = Short.parseShort(XMLUtils.getAttribute(block, "type"));
-            Block b = new Block(id);
+            Block b = Block.valueOf(id);
             String ori = XMLUtils.getAttribute(block, "orientation");
             if (!StringUtils.isTrivial(ori)) {
-                b.setOrientation(Short.parseShort(ori));
+                b = b.withOrientation(Short.parseShort(ori));
             }
             grid.set(p, b);
         }
@@ -115,14 +123,8 @@ public class GridLogic {
 
     public static byte[] toBytes(SparseMatrix<Block> grid) {
         try {
-            ByteArrayOutputStream baos;
-            GZIPOutputStream os;
-            try (ByteArrayInputStream is = new ByteArrayInputStream(toString(grid).getBytes())) {
-                baos = new ByteArrayOutputStream();
-                os = new GZIPOutputStream(baos);
-                StreamUtils.copy(is, os);
-            }
-            os.close();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writeBinary(grid, null, baos);
             return baos.toByteArray();
         } catch (IOException e) {
             log.log(Level.WARNING, "ByteArrayOutputStream failed!", e);
@@ -133,20 +135,185 @@ public class GridLogic {
 
     public static SparseMatrix<Block> fromBytes(byte[] bytes) {
         try {
-            ByteArrayOutputStream os;
-            try (GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
-                os = new ByteArrayOutputStream();
-                StreamUtils.copy(is, os);
-            }
-            os.close();
-            return fromString(new String(os.toByteArray()));
+            return readBinary(new ByteArrayInputStream(bytes), null);
         } catch (IOException e) {
-            log.log(Level.WARNING, "ByteArrayOutputStream failed!", e);
+            log.log(Level.WARNING, "ByteArrayInputStream failed!", e);
             e.printStackTrace();
             return null;
         }
     }
 
+    public static boolean isBinary(byte[] bytes) {
+        return (bytes.length >= BINARY_MAGIC.length)
+                && Arrays.equals(Arrays.copyOf(bytes, BINARY_MAGIC.length), BINARY_MAGIC);
+    }
+
+    /*
+     * Binary grid format, version 1, all big-endian:
+     *   "SMGB", version byte
+     *   attribute count (short), then key/value pairs as modified UTF-8
+     *   lower x,y,z and upper x,y,z bounds (ints), block count (int)
+     *   palette size (unsigned short), then that many packed block values
+     *   chunk count (int), then for each chunk its chunk coordinates (ints)
+     *   followed by runs covering all 4096 cells in BlockChunk.index order,
+     *   each a varint length and a varint value: 0 for empty, else 1 + the
+     *   palette index.
+     * Chunks are written and read one at a time, so neither side needs more
+     * than the grid itself.
+     */
+    private static final byte[] BINARY_MAGIC = {'S', 'M', 'G', 'B'};
+    private static final int BINARY_VERSION = 1;
+
+    /**
+     * Writes grid in the binary format. The attributes, if any, are stored
+     * in the header, where readBinaryAttributes can get at them cheaply.
+     **/
+    public static void writeBinary(SparseMatrix<Block> grid, Map<String, String> attributes, OutputStream os) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os));
+        dos.write(BINARY_MAGIC);
+        dos.writeByte(BINARY_VERSION);
+        if (attributes == null) {
+            dos.writeShort(0);
+        } else {
+            dos.writeShort(attributes.size());
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                dos.writeUTF(attribute.getKey());
+                dos.writeUTF(attribute.getValue());
+            }
+        }
+        Point3i lower = new Point3i();
+        Point3i upper = new Point3i();
+        grid.getBounds(lower, upper);
+        IOLogic.write(dos, lower);
+        IOLogic.write(dos, upper);
+        dos.writeInt(grid.size());
+        // palette of the packed values in use, in ascending order
+        boolean[] used = new boolean[0x8000];
+        Collection<BlockChunk> chunks = grid.getChunks();
+        for (BlockChunk chunk : chunks) {
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                short packed = chunk.get(idx);
+                if (packed != 0) {
+                    used[packed & 0x7fff] = true;
+                }
+            }
+        }
+        int[] code = new int[0x8000];
+        int paletteSize = 0;
+        for (int v = 0; v < used.length; v++) {
+            if (used[v]) {
+                code[v] = ++paletteSize;
+            }
+        }
+        dos.writeShort(paletteSize);
+        for (int v = 0; v < used.length; v++) {
+            if (used[v]) {
+                dos.writeShort(v | 0x8000);
+            }
+        }
+        dos.writeInt(chunks.size());
+        for (BlockChunk chunk : chunks) {
+            dos.writeInt(BlockChunk.keyX(chunk.getKey()));
+            dos.writeInt(BlockChunk.keyY(chunk.getKey()));
+            dos.writeInt(BlockChunk.keyZ(chunk.getKey()));
+            int idx = 0;
+            while (idx < BlockChunk.VOLUME) {
+                short packed = chunk.get(idx);
+                int run = 1;
+                while ((idx + run < BlockChunk.VOLUME) && (chunk.get(idx + run) == packed)) {
+                    run++;
+                }
+                writeVarInt(dos, run);
+                writeVarInt(dos, (packed == 0) ? 0 : code[packed & 0x7fff]);
+                idx += run;
+            }
+        }
+        dos.flush();
+    }
+
+    /**
+     * Reads a grid in the binary format. If attributes is not null, the
+     * header attributes are added to it.
+     **/
+    public static SparseMatrix<Block> readBinary(InputStream is, Map<String, String> attributes) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+        readBinaryHeader(dis, attributes);
+        IOLogic.readPoint3i(dis); // lower
+        IOLogic.readPoint3i(dis); // upper
+        dis.readInt(); // block count
+        short[] palette = new short[dis.readUnsignedShort() + 1];
+        for (int i = 1; i < palette.length; i++) {
+            palette[i] = dis.readShort();
+        }
+        SparseMatrix<Block> grid = new SparseMatrix<>();
+        int chunkCount = dis.readInt();
+        for (int c = 0; c < chunkCount; c++) {
+            int ox = dis.readInt() << BlockChunk.SHIFT;
+            int oy = dis.readInt() << BlockChunk.SHIFT;
+            int oz = dis.readInt() << BlockChunk.SHIFT;
+            short[] packed = new short[BlockChunk.VOLUME];
+            int idx = 0;
+            while (idx < BlockChunk.VOLUME) {
+                int run = readVarInt(dis);
+                int value = readVarInt(dis);
+                if ((run <= 0) || (idx + run > BlockChunk.VOLUME) || (value >= palette.length)) {
+                    throw new IOException("Corrupt grid data in chunk " + c);
+                }
+                Arrays.fill(packed, idx, idx + run, palette[value]);
+                idx += run;
+            }
+            grid.setChunk(ox, oy, oz, packed);
+        }
+        return grid;
+    }
+
+    /** Reads just the attributes at the head of a binary grid **/
+    public static Map<String, String> readBinaryAttributes(InputStream is) throws IOException {
+        Map<String, String> attributes = new HashMap<>();
+        readBinaryHeader(new DataInputStream(is), attributes);
+        return attributes;
+    }
+
+    private static void readBinaryHeader(DataInputStream dis, Map<String, String> attributes) throws IOException {
+        byte[] magic = new byte[BINARY_MAGIC.length];
+        dis.readFully(magic);
+        if (!Arrays.equals(magic, BINARY_MAGIC)) {
+            throw new IOException("Not a binary grid");
+        }
+        int version = dis.readUnsignedByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported binary grid version " + version);
+        }
+        int count = dis.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String key = dis.readUTF();
+            String value = dis.readUTF();
+            if (attributes != null) {
+                attributes.put(key, value);
+            }
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream dos, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            dos.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        dos.writeByte(v);
+    }
+
+    private static int readVarInt(DataInputStream dis) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = dis.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Corrupt varint");
+    }
+
     public static void delete(SparseMatrix<Block> grid, Point3i lower, Point3i upper) {
         for (Iterator<Point3i> i = new CubeIterator(lower, upper); i.hasNext();) {
             Point3i p = i.next();
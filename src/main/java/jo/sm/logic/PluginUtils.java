@@ -58,9 +58,7 @@ public class PluginUtils {
     public static void fill(SparseMatrix<Block> grid, Point3i lower,
             Point3i upper, int blockID, int orientation) {
         for (Iterator<Point3i> i = new CubeIterator(lower, upper); i.hasNext();) {
-            Block b = new Block((short) blockID);
-            b.setOrientation((short) orientation);
-            grid.set(i.next(), b);
+            grid.set(i.next(), Block.valueOf((short) blockID, (short) orientation));
         }
     }
 }
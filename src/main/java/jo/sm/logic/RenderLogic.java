@@ -30,7 +30,6 @@ import java.util.logging.Logger;
 import javax.swing.ImageIcon;
 
 import jo.sm.data.BlockTypes;
-import jo.sm.data.CubeIterator;
 import jo.sm.data.RenderTile;
 import jo.sm.data.SparseMatrix;
 import jo.sm.ship.data.Block;
@@ -46,214 +45,206 @@ public class RenderLogic {
 
     public static List<RenderTile> getRender(SparseMatrix<Block> blocks) {
         List<RenderTile> polys = new ArrayList<>();
-        Point3i lower = new Point3i();
-        Point3i upper = new Point3i();
-        blocks.getBounds(lower, upper);
-        getBasicPolys(blocks, upper, lower, polys);
+        getBasicPolys(blocks, polys);
         return polys;
     }
 
-    private static void getBasicPolys(SparseMatrix<Block> blocks,
-            Point3i upper, Point3i lower, List<RenderTile> polys) {
-        for (CubeIterator i = new CubeIterator(lower, upper); i.hasNext();) {
-            Point3i p = i.next();
-            if (!blocks.contains(p)) {
-                continue;
-            }
-            Block b = blocks.get(p);
-            if (BlockTypes.isCorner(b.getBlockID()) || BlockTypes.isPowerCorner(b.getBlockID())) {
-                doCorner(blocks, p, polys);
-            } else if (BlockTypes.isWedge(b.getBlockID()) || BlockTypes.isPowerWedge(b.getBlockID())) {
-                doWedge(blocks, p, polys);
-            } else if (BlockTypes.isPenta(b.getBlockID()) || BlockTypes.isPowerPenta(b.getBlockID())) {
-                doPenta(blocks, p, polys);
-            } else if (BlockTypes.isTetra(b.getBlockID()) || BlockTypes.isPowerTetra(b.getBlockID())) {
-                doTetra(blocks, p, polys);
+    private static void getBasicPolys(SparseMatrix<Block> blocks, List<RenderTile> polys) {
+        FaceVisibilityLogic.forEachExposed(blocks, null, (x, y, z, blockID, orientation, faces) -> {
+            Point3i p = new Point3i(x, y, z);
+            if (BlockTypes.isCorner(blockID) || BlockTypes.isPowerCorner(blockID)) {
+                doCorner(blocks, p, faces, polys);
+            } else if (BlockTypes.isWedge(blockID) || BlockTypes.isPowerWedge(blockID)) {
+                doWedge(blocks, p, faces, polys);
+            } else if (BlockTypes.isPenta(blockID) || BlockTypes.isPowerPenta(blockID)) {
+                doPenta(blocks, p, faces, polys);
+            } else if (BlockTypes.isTetra(blockID) || BlockTypes.isPowerTetra(blockID)) {
+                doTetra(blocks, p, faces, polys);
             } else {
-                doCube(blocks, p, polys);
+                doCube(blocks, p, faces, polys);
             }
-        }
+        });
     }
 
-    private static void doPenta(SparseMatrix<Block> blocks, Point3i p, List<RenderTile> polys) {
+    private static void doPenta(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderTile> polys) {
 
     }
 
-    private static void doTetra(SparseMatrix<Block> blocks, Point3i p, List<RenderTile> polys) {
+    private static void doTetra(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderTile> polys) {
 
     }
 
-    private static void doCorner(SparseMatrix<Block> blocks, Point3i p, List<RenderTile> polys) {
+    private static void doCorner(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderTile> polys) {
         log.log(Level.INFO, "Corner, ori="+blocks.get(p).getOrientation());
         switch (blocks.get(p).getOrientation()) {
             case 0: // spire: xp,zm>yp
-                doYMSquare(blocks, p, polys, RenderTile.SQUARE); // bottom
-                doXMSquare(blocks, p, polys, RenderTile.TRI4); // back
-                doZPSquare(blocks, p, polys, RenderTile.TRI1); // back
+                doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE); // bottom
+                doXMSquare(blocks, p, faces, polys, RenderTile.TRI4); // back
+                doZPSquare(blocks, p, faces, polys, RenderTile.TRI1); // back
                 doRect(blocks, p, polys, RenderTile.XPYP);
                 doRect(blocks, p, polys, RenderTile.YPZM);
                 break;
             case 1: // spire: xp,zp>yp
-                doYMSquare(blocks, p, polys, RenderTile.SQUARE); // bottom
-                doXMSquare(blocks, p, polys, RenderTile.TRI1); // back
-                doZMSquare(blocks, p, polys, RenderTile.TRI1); // back
+                doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE); // bottom
+                doXMSquare(blocks, p, faces, polys, RenderTile.TRI1); // back
+                doZMSquare(blocks, p, faces, polys, RenderTile.TRI1); // back
                 doRect(blocks, p, polys, RenderTile.XPYP);
                 doRect(blocks, p, polys, RenderTile.YPZP);
                 break;
             case 2: // spire: xm,zp>yp
-                doYMSquare(blocks, p, polys, RenderTile.SQUARE); // bottom
-                doXPSquare(blocks, p, polys, RenderTile.TRI1); // back
-                doZMSquare(blocks, p, polys, RenderTile.TRI2); // back
+                doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE); // bottom
+                doXPSquare(blocks, p, faces, polys, RenderTile.TRI1); // back
+                doZMSquare(blocks, p, faces, polys, RenderTile.TRI2); // back
                 doRect(blocks, p, polys, RenderTile.XMYP);
                 doRect(blocks, p, polys, RenderTile.YPZP);
                 break;
             case 3: // spire: xm,zp>yp
-                doYMSquare(blocks, p, polys, RenderTile.SQUARE); // bottom
-                doXPSquare(blocks, p, polys, RenderTile.TRI4); // back
-                doZPSquare(blocks, p, polys, RenderTile.TRI2); // back
+                doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE); // bottom
+                doXPSquare(blocks, p, faces, polys, RenderTile.TRI4); // back
+                doZPSquare(blocks, p, faces, polys, RenderTile.TRI2); // back
                 doRect(blocks, p, polys, RenderTile.XMYP);
                 doRect(blocks, p, polys, RenderTile.YPZM);
                 break;
             case 4: // spire: xm,zp>yp
-                doYPSquare(blocks, p, polys, RenderTile.SQUARE); // bottom
-                doXMSquare(blocks, p, polys, RenderTile.TRI3); // back
-                doZPSquare(blocks, p, polys, RenderTile.TRI4); // back
+                doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE); // bottom
+                doXMSquare(blocks, p, faces, polys, RenderTile.TRI3); // back
+                doZPSquare(blocks, p, faces, polys, RenderTile.TRI4); // back
                 doRect(blocks, p, polys, RenderTile.XPYM);
                 doRect(blocks, p, polys, RenderTile.YMZM);
                 break;
             case 5: // spire: xm,zp>yp
-                doYPSquare(blocks, p, polys, RenderTile.SQUARE); // bottom
-                doXMSquare(blocks, p, polys, RenderTile.TRI2); // back
-                doZMSquare(blocks, p, polys, RenderTile.TRI4); // back
+                doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE); // bottom
+                doXMSquare(blocks, p, faces, polys, RenderTile.TRI2); // back
+                doZMSquare(blocks, p, faces, polys, RenderTile.TRI4); // back
                 doRect(blocks, p, polys, RenderTile.XPYM);
                 doRect(blocks, p, polys, RenderTile.YMZP);
                 break;
             case 6: // spire: xm,zp>yp
-                doYPSquare(blocks, p, polys, RenderTile.SQUARE); // bottom
-                doXPSquare(blocks, p, polys, RenderTile.TRI2); // back
-                doZMSquare(blocks, p, polys, RenderTile.TRI3); // back
+                doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE); // bottom
+                doXPSquare(blocks, p, faces, polys, RenderTile.TRI2); // back
+                doZMSquare(blocks, p, faces, polys, RenderTile.TRI3); // back
                 doRect(blocks, p, polys, RenderTile.XMYM);
                 doRect(blocks, p, polys, RenderTile.YMZP);
                 break;
             case 7: // spire: xm,zp>yp
-                doYPSquare(blocks, p, polys, RenderTile.SQUARE); // bottom
-                doXPSquare(blocks, p, polys, RenderTile.TRI3); // back
-                doZPSquare(blocks, p, polys, RenderTile.TRI3); // back
+                doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE); // bottom
+                doXPSquare(blocks, p, faces, polys, RenderTile.TRI3); // back
+                doZPSquare(blocks, p, faces, polys, RenderTile.TRI3); // back
                 doRect(blocks, p, polys, RenderTile.XMYM);
                 doRect(blocks, p, polys, RenderTile.YMZM);
                 break;
         }
     }
 
-    private static void doWedge(SparseMatrix<Block> blocks, Point3i p, List<RenderTile> polys) {
+    private static void doWedge(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderTile> polys) {
         switch (blocks.get(p).getOrientation()) {
             case 0: // YPZM
-                doXMSquare(blocks, p, polys, RenderTile.TRI4);
-                doXPSquare(blocks, p, polys, RenderTile.TRI4);
+                doXMSquare(blocks, p, faces, polys, RenderTile.TRI4);
+                doXPSquare(blocks, p, faces, polys, RenderTile.TRI4);
                 // no YP face
-                doYMSquare(blocks, p, polys, RenderTile.SQUARE);
-                doZPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+                doZPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no ZM face
                 doRect(blocks, p, polys, RenderTile.YPZM);
                 break;
             case 1: // XMYP
-                doXPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no XM face
                 // no YP face
-                doYMSquare(blocks, p, polys, RenderTile.SQUARE);
-                doZMSquare(blocks, p, polys, RenderTile.TRI2);
-                doZPSquare(blocks, p, polys, RenderTile.TRI2);
+                doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderTile.TRI2);
+                doZPSquare(blocks, p, faces, polys, RenderTile.TRI2);
                 doRect(blocks, p, polys, RenderTile.XMYP);
                 break;
             case 2: // YPZP
-                doXMSquare(blocks, p, polys, RenderTile.TRI1);
-                doXPSquare(blocks, p, polys, RenderTile.TRI1);
+                doXMSquare(blocks, p, faces, polys, RenderTile.TRI1);
+                doXPSquare(blocks, p, faces, polys, RenderTile.TRI1);
                 // no YP face
-                doYMSquare(blocks, p, polys, RenderTile.SQUARE);
+                doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no ZP face
-                doZMSquare(blocks, p, polys, RenderTile.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 doRect(blocks, p, polys, RenderTile.YPZP);
                 break;
             case 3: // XPYP
                 // no XP face
-                doXMSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no YP face
-                doYMSquare(blocks, p, polys, RenderTile.SQUARE);
-                doZMSquare(blocks, p, polys, RenderTile.TRI1);
-                doZPSquare(blocks, p, polys, RenderTile.TRI1);
+                doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderTile.TRI1);
+                doZPSquare(blocks, p, faces, polys, RenderTile.TRI1);
                 doRect(blocks, p, polys, RenderTile.XPYP);
                 break;
             case 4: // YMZM
-                doXMSquare(blocks, p, polys, RenderTile.TRI3);
-                doXPSquare(blocks, p, polys, RenderTile.TRI3);
-                doYPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderTile.TRI3);
+                doXPSquare(blocks, p, faces, polys, RenderTile.TRI3);
+                doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no YM face
-                doZPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doZPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no ZM face
                 doRect(blocks, p, polys, RenderTile.YMZM);
                 break;
             case 5: // XPYM
                 // no XP face
-                doXMSquare(blocks, p, polys, RenderTile.SQUARE);
-                doYPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no YM face
-                doZMSquare(blocks, p, polys, RenderTile.TRI4);
-                doZPSquare(blocks, p, polys, RenderTile.TRI4);
+                doZMSquare(blocks, p, faces, polys, RenderTile.TRI4);
+                doZPSquare(blocks, p, faces, polys, RenderTile.TRI4);
                 doRect(blocks, p, polys, RenderTile.XPYM);
                 break;
             case 6: // YMZP
-                doXMSquare(blocks, p, polys, RenderTile.TRI2);
-                doXPSquare(blocks, p, polys, RenderTile.TRI2);
-                doYPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderTile.TRI2);
+                doXPSquare(blocks, p, faces, polys, RenderTile.TRI2);
+                doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no YM face
                 // no ZP face
-                doZMSquare(blocks, p, polys, RenderTile.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 doRect(blocks, p, polys, RenderTile.YMZP);
                 break;
             case 7: // XMYM
-                doXPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no XM face
-                doYPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no YM face
-                doZMSquare(blocks, p, polys, RenderTile.TRI3);
-                doZPSquare(blocks, p, polys, RenderTile.TRI3);
+                doZMSquare(blocks, p, faces, polys, RenderTile.TRI3);
+                doZPSquare(blocks, p, faces, polys, RenderTile.TRI3);
                 doRect(blocks, p, polys, RenderTile.XMYM);
                 break;
             case 8: // XPZM
             case 12: // ???
                 // no XP face
-                doXMSquare(blocks, p, polys, RenderTile.SQUARE);
-                doYPSquare(blocks, p, polys, RenderTile.TRI2);
-                doYMSquare(blocks, p, polys, RenderTile.TRI2);
-                doZPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderTile.TRI2);
+                doYMSquare(blocks, p, faces, polys, RenderTile.TRI2);
+                doZPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no ZM face
                 doRect(blocks, p, polys, RenderTile.ZMXP);
                 break;
             case 10: // XMZM
-                doXPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no XM face
-                doYPSquare(blocks, p, polys, RenderTile.TRI3);
-                doYMSquare(blocks, p, polys, RenderTile.TRI3);
-                doZPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderTile.TRI3);
+                doYMSquare(blocks, p, faces, polys, RenderTile.TRI3);
+                doZPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no ZM face
                 doRect(blocks, p, polys, RenderTile.ZMXM);
                 break;
             case 11: // XMZP
-                doXPSquare(blocks, p, polys, RenderTile.SQUARE);
+                doXPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 // no XM face
-                doYPSquare(blocks, p, polys, RenderTile.TRI4);
-                doYMSquare(blocks, p, polys, RenderTile.TRI4);
+                doYPSquare(blocks, p, faces, polys, RenderTile.TRI4);
+                doYMSquare(blocks, p, faces, polys, RenderTile.TRI4);
                 // no ZP face
-                doZMSquare(blocks, p, polys, RenderTile.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 doRect(blocks, p, polys, RenderTile.ZPXM);
                 break;
             case 13: // XPZP
                 // no XP face
-                doXMSquare(blocks, p, polys, RenderTile.SQUARE);
-                doYPSquare(blocks, p, polys, RenderTile.TRI1);
-                doYMSquare(blocks, p, polys, RenderTile.TRI1);
+                doXMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderTile.TRI1);
+                doYMSquare(blocks, p, faces, polys, RenderTile.TRI1);
                 // no ZP face
-                doZMSquare(blocks, p, polys, RenderTile.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
                 doRect(blocks, p, polys, RenderTile.ZPXP);
                 break;
             default:
@@ -262,13 +253,13 @@ public class RenderLogic {
         }
     }
 
-    private static void doCube(SparseMatrix<Block> blocks, Point3i p, List<RenderTile> polys) {
-        doXPSquare(blocks, p, polys, RenderTile.SQUARE);
-        doXMSquare(blocks, p, polys, RenderTile.SQUARE);
-        doYPSquare(blocks, p, polys, RenderTile.SQUARE);
-        doYMSquare(blocks, p, polys, RenderTile.SQUARE);
-        doZPSquare(blocks, p, polys, RenderTile.SQUARE);
-        doZMSquare(blocks, p, polys, RenderTile.SQUARE);
+    private static void doCube(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderTile> polys) {
+        doXPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+        doXMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+        doYPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+        doYMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+        doZPSquare(blocks, p, faces, polys, RenderTile.SQUARE);
+        doZMSquare(blocks, p, faces, polys, RenderTile.SQUARE);
     }
 
     private static void doRect(SparseMatrix<Block> blocks, Point3i p,
@@ -281,9 +272,9 @@ public class RenderLogic {
         polys.add(rp);
     }
 
-    private static void doZMSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doZMSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderTile> polys, int type) {
-        if (!blocks.contains(new Point3i(p.x, p.y, p.z - 1))) {
+        if ((faces & (1 << RenderTile.ZM)) != 0) {
             RenderTile rp = new RenderTile();
             rp.setBlock(blocks.get(p));
             rp.setFacing(RenderTile.ZM);
@@ -293,9 +284,9 @@ public class RenderLogic {
         }
     }
 
-    private static void doZPSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doZPSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderTile> polys, int type) {
-        if (!blocks.contains(new Point3i(p.x, p.y, p.z + 1))) {
+        if ((faces & (1 << RenderTile.ZP)) != 0) {
             RenderTile rp = new RenderTile();
             rp.setBlock(blocks.get(p));
             rp.setFacing(RenderTile.ZP);
@@ -305,9 +296,9 @@ public class RenderLogic {
         }
     }
 
-    private static void doYMSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doYMSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderTile> polys, int type) {
-        if (!blocks.contains(new Point3i(p.x, p.y - 1, p.z))) {
+        if ((faces & (1 << RenderTile.YM)) != 0) {
             RenderTile rp = new RenderTile();
             rp.setBlock(blocks.get(p));
             rp.setFacing(RenderTile.YM);
@@ -317,9 +308,9 @@ public class RenderLogic {
         }
     }
 
-    private static void doYPSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doYPSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderTile> polys, int type) {
-        if (!blocks.contains(new Point3i(p.x, p.y + 1, p.z))) {
+        if ((faces & (1 << RenderTile.YP)) != 0) {
             RenderTile rp = new RenderTile();
             rp.setBlock(blocks.get(p));
             rp.setFacing(RenderTile.YP);
@@ -329,9 +320,9 @@ public class RenderLogic {
         }
     }
 
-    private static void doXMSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doXMSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderTile> polys, int type) {
-        if (!blocks.contains(new Point3i(p.x - 1, p.y, p.z))) {
+        if ((faces & (1 << RenderTile.XM)) != 0) {
             RenderTile rp = new RenderTile();
             rp.setBlock(blocks.get(p));
             rp.setFacing(RenderTile.XM);
@@ -341,9 +332,9 @@ public class RenderLogic {
         }
     }
 
-    private static void doXPSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doXPSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderTile> polys, int type) {
-        if (!blocks.contains(new Point3i(p.x + 1, p.y, p.z))) {
+        if ((faces & (1 << RenderTile.XP)) != 0) {
             RenderTile rp = new RenderTile();
             rp.setBlock(blocks.get(p));
             rp.setFacing(RenderTile.XP);
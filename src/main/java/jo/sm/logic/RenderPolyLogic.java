@@ -20,15 +20,13 @@ package jo.sm.logic;
 import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.ImageIcon;
 
+import jo.sm.data.BlockChunk;
 import jo.sm.data.BlockTypes;
 import jo.sm.data.RenderPoly;
 import jo.sm.data.RenderSet;
@@ -47,6 +45,7 @@ public class RenderPolyLogic {
 
     public static void fillPolys(SparseMatrix<Block> blocks, RenderSet set) {
         set.getAllPolys().clear();
+        set.setSortedPolys(null);
         Point3i lower = new Point3i();
         Point3i upper = new Point3i();
         blocks.getBounds(lower, upper);
@@ -81,214 +80,221 @@ public class RenderPolyLogic {
          }
          }
          */
-        for (Iterator<Point3i> i = blocks.iteratorNonNull(); i.hasNext();) {
-            Point3i p = i.next();
-            Block b = blocks.get(p);
-            short blockID = b.getBlockID();
+        FaceVisibilityLogic.forEachExposed(blocks, getOccluders(), (x, y, z, blockID, orientation, faces) -> {
+            Point3i p = new Point3i(x, y, z);
             if (BlockTypes.isCorner(blockID) || BlockTypes.isPowerCorner(blockID)) {
-                doCorner(blocks, p, polys);
+                doCorner(blocks, p, faces, polys);
             } else if (BlockTypes.isWedge(blockID) || BlockTypes.isPowerWedge(blockID)) {
-                doWedge(blocks, p, polys);
+                doWedge(blocks, p, faces, polys);
             } else if (BlockTypes.isPenta(blockID) || BlockTypes.isPowerPenta(blockID)) {
-                doPenta(blocks, p, polys);
+                doPenta(blocks, p, faces, polys);
             } else if (BlockTypes.isTetra(blockID) || BlockTypes.isPowerTetra(blockID)) {
-                doTetra(blocks, p, polys);
+                doTetra(blocks, p, faces, polys);
             } else {
-                doCube(blocks, p, polys);
+                doCube(blocks, p, faces, polys);
             }
+        });
+    }
+
+    // sloped blocks leave the faces beside them open
+    private static boolean[] getOccluders() {
+        boolean[] occluders = new boolean[BlockChunk.ID_LIMIT];
+        for (short id = 0; id < occluders.length; id++) {
+            occluders[id] = !BlockTypes.isAnyCorner(id) && !BlockTypes.isAnyWedge(id);
         }
+        return occluders;
     }
 
-    private static void doPenta(SparseMatrix<Block> blocks, Point3i p, List<RenderPoly> polys) {
-        doXPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doXMSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doYPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doYMSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doZPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doZMSquare(blocks, p, polys, RenderPoly.SQUARE);
+    private static void doPenta(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderPoly> polys) {
+        doXPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doXMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doZPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doZMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
     }
 
-    private static void doTetra(SparseMatrix<Block> blocks, Point3i p, List<RenderPoly> polys) {
-        doXPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doXMSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doYPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doYMSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doZPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doZMSquare(blocks, p, polys, RenderPoly.SQUARE);
+    private static void doTetra(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderPoly> polys) {
+        doXPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doXMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doZPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doZMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
     }
 
-    private static void doCorner(SparseMatrix<Block> blocks, Point3i p, List<RenderPoly> polys) {
+    private static void doCorner(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderPoly> polys) {
         //System.out.println("Corner, ori="+blocks.get(p).getOrientation());
         switch (blocks.get(p).getOrientation()) {
             case 0: // spire: xp,zm>yp
-                doYMSquare(blocks, p, polys, RenderPoly.SQUARE); // bottom
-                doXMSquare(blocks, p, polys, RenderPoly.TRI4); // back
-                doZPSquare(blocks, p, polys, RenderPoly.TRI1); // back
+                doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE); // bottom
+                doXMSquare(blocks, p, faces, polys, RenderPoly.TRI4); // back
+                doZPSquare(blocks, p, faces, polys, RenderPoly.TRI1); // back
                 doRect(blocks, p, polys, RenderPoly.XPYP, RenderPoly.TRI2);
                 doRect(blocks, p, polys, RenderPoly.YPZM, RenderPoly.TRI1);
                 break;
             case 1: // spire: xp,zp>yp
-                doYMSquare(blocks, p, polys, RenderPoly.SQUARE); // bottom
-                doXMSquare(blocks, p, polys, RenderPoly.TRI1); // back
-                doZMSquare(blocks, p, polys, RenderPoly.TRI1); // back
+                doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE); // bottom
+                doXMSquare(blocks, p, faces, polys, RenderPoly.TRI1); // back
+                doZMSquare(blocks, p, faces, polys, RenderPoly.TRI1); // back
                 doRect(blocks, p, polys, RenderPoly.XPYP, RenderPoly.TRI1);
                 doRect(blocks, p, polys, RenderPoly.YPZP, RenderPoly.TRI4);
                 break;
             case 2: // spire: xm,zp>yp
-                doYMSquare(blocks, p, polys, RenderPoly.SQUARE); // bottom
-                doXPSquare(blocks, p, polys, RenderPoly.TRI1); // back
-                doZMSquare(blocks, p, polys, RenderPoly.TRI2); // back
+                doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE); // bottom
+                doXPSquare(blocks, p, faces, polys, RenderPoly.TRI1); // back
+                doZMSquare(blocks, p, faces, polys, RenderPoly.TRI2); // back
                 doRect(blocks, p, polys, RenderPoly.XMYP, RenderPoly.TRI1);
                 doRect(blocks, p, polys, RenderPoly.YPZP, RenderPoly.TRI3);
                 break;
             case 3: // spire: xm,zp>yp
-                doYMSquare(blocks, p, polys, RenderPoly.SQUARE); // bottom
-                doXPSquare(blocks, p, polys, RenderPoly.TRI4); // back
-                doZPSquare(blocks, p, polys, RenderPoly.TRI2); // back
+                doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE); // bottom
+                doXPSquare(blocks, p, faces, polys, RenderPoly.TRI4); // back
+                doZPSquare(blocks, p, faces, polys, RenderPoly.TRI2); // back
                 doRect(blocks, p, polys, RenderPoly.XMYP, RenderPoly.TRI4);
                 doRect(blocks, p, polys, RenderPoly.YPZM, RenderPoly.TRI2);
                 break;
             case 4: // spire: xm,zp>yp
-                doYPSquare(blocks, p, polys, RenderPoly.SQUARE); // bottom
-                doXMSquare(blocks, p, polys, RenderPoly.TRI3); // back
-                doZPSquare(blocks, p, polys, RenderPoly.TRI4); // back
+                doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE); // bottom
+                doXMSquare(blocks, p, faces, polys, RenderPoly.TRI3); // back
+                doZPSquare(blocks, p, faces, polys, RenderPoly.TRI4); // back
                 doRect(blocks, p, polys, RenderPoly.XPYM, RenderPoly.TRI3);
                 doRect(blocks, p, polys, RenderPoly.YMZM, RenderPoly.TRI1);
                 break;
             case 5: // spire: xm,zp>yp
-                doYPSquare(blocks, p, polys, RenderPoly.SQUARE); // bottom
-                doXMSquare(blocks, p, polys, RenderPoly.TRI2); // back
-                doZMSquare(blocks, p, polys, RenderPoly.TRI4); // back
+                doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE); // bottom
+                doXMSquare(blocks, p, faces, polys, RenderPoly.TRI2); // back
+                doZMSquare(blocks, p, faces, polys, RenderPoly.TRI4); // back
                 doRect(blocks, p, polys, RenderPoly.XPYM, RenderPoly.TRI2);
                 doRect(blocks, p, polys, RenderPoly.YMZP, RenderPoly.TRI4);
                 break;
             case 6: // spire: xm,zp>yp
-                doYPSquare(blocks, p, polys, RenderPoly.SQUARE); // bottom
-                doXPSquare(blocks, p, polys, RenderPoly.TRI2); // back
-                doZMSquare(blocks, p, polys, RenderPoly.TRI3); // back
+                doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE); // bottom
+                doXPSquare(blocks, p, faces, polys, RenderPoly.TRI2); // back
+                doZMSquare(blocks, p, faces, polys, RenderPoly.TRI3); // back
                 doRect(blocks, p, polys, RenderPoly.XMYM, RenderPoly.TRI4);
                 doRect(blocks, p, polys, RenderPoly.YMZP, RenderPoly.TRI3);
                 break;
             case 7: // spire: xm,zp>yp
-                doYPSquare(blocks, p, polys, RenderPoly.SQUARE); // bottom
-                doXPSquare(blocks, p, polys, RenderPoly.TRI3); // back
-                doZPSquare(blocks, p, polys, RenderPoly.TRI3); // back
+                doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE); // bottom
+                doXPSquare(blocks, p, faces, polys, RenderPoly.TRI3); // back
+                doZPSquare(blocks, p, faces, polys, RenderPoly.TRI3); // back
                 doRect(blocks, p, polys, RenderPoly.XMYM, RenderPoly.TRI3);
                 doRect(blocks, p, polys, RenderPoly.YMZM, RenderPoly.TRI2);
                 break;
         }
     }
 
-    private static void doWedge(SparseMatrix<Block> blocks, Point3i p, List<RenderPoly> polys) {
+    private static void doWedge(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderPoly> polys) {
         switch (blocks.get(p).getOrientation()) {
             case 0: // YPZM
-                doXMSquare(blocks, p, polys, RenderPoly.TRI4);
-                doXPSquare(blocks, p, polys, RenderPoly.TRI4);
+                doXMSquare(blocks, p, faces, polys, RenderPoly.TRI4);
+                doXPSquare(blocks, p, faces, polys, RenderPoly.TRI4);
                 // no YP face
-                doYMSquare(blocks, p, polys, RenderPoly.SQUARE);
-                doZPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+                doZPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no ZM face
                 doRect(blocks, p, polys, RenderPoly.YPZM);
                 break;
             case 1: // XMYP
-                doXPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no XM face
                 // no YP face
-                doYMSquare(blocks, p, polys, RenderPoly.SQUARE);
-                doZMSquare(blocks, p, polys, RenderPoly.TRI2);
-                doZPSquare(blocks, p, polys, RenderPoly.TRI2);
+                doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderPoly.TRI2);
+                doZPSquare(blocks, p, faces, polys, RenderPoly.TRI2);
                 doRect(blocks, p, polys, RenderPoly.XMYP);
                 break;
             case 2: // YPZP
-                doXMSquare(blocks, p, polys, RenderPoly.TRI1);
-                doXPSquare(blocks, p, polys, RenderPoly.TRI1);
+                doXMSquare(blocks, p, faces, polys, RenderPoly.TRI1);
+                doXPSquare(blocks, p, faces, polys, RenderPoly.TRI1);
                 // no YP face
-                doYMSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no ZP face
-                doZMSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 doRect(blocks, p, polys, RenderPoly.YPZP);
                 break;
             case 3: // XPYP
                 // no XP face
-                doXMSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no YP face
-                doYMSquare(blocks, p, polys, RenderPoly.SQUARE);
-                doZMSquare(blocks, p, polys, RenderPoly.TRI1);
-                doZPSquare(blocks, p, polys, RenderPoly.TRI1);
+                doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderPoly.TRI1);
+                doZPSquare(blocks, p, faces, polys, RenderPoly.TRI1);
                 doRect(blocks, p, polys, RenderPoly.XPYP);
                 break;
             case 4: // YMZM
-                doXMSquare(blocks, p, polys, RenderPoly.TRI3);
-                doXPSquare(blocks, p, polys, RenderPoly.TRI3);
-                doYPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderPoly.TRI3);
+                doXPSquare(blocks, p, faces, polys, RenderPoly.TRI3);
+                doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no YM face
-                doZPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doZPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no ZM face
                 doRect(blocks, p, polys, RenderPoly.YMZM);
                 break;
             case 5: // XPYM
                 // no XP face
-                doXMSquare(blocks, p, polys, RenderPoly.SQUARE);
-                doYPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no YM face
-                doZMSquare(blocks, p, polys, RenderPoly.TRI4);
-                doZPSquare(blocks, p, polys, RenderPoly.TRI4);
+                doZMSquare(blocks, p, faces, polys, RenderPoly.TRI4);
+                doZPSquare(blocks, p, faces, polys, RenderPoly.TRI4);
                 doRect(blocks, p, polys, RenderPoly.XPYM);
                 break;
             case 6: // YMZP
-                doXMSquare(blocks, p, polys, RenderPoly.TRI2);
-                doXPSquare(blocks, p, polys, RenderPoly.TRI2);
-                doYPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderPoly.TRI2);
+                doXPSquare(blocks, p, faces, polys, RenderPoly.TRI2);
+                doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no YM face
                 // no ZP face
-                doZMSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 doRect(blocks, p, polys, RenderPoly.YMZP);
                 break;
             case 7: // XMYM
-                doXPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no XM face
-                doYPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no YM face
-                doZMSquare(blocks, p, polys, RenderPoly.TRI3);
-                doZPSquare(blocks, p, polys, RenderPoly.TRI3);
+                doZMSquare(blocks, p, faces, polys, RenderPoly.TRI3);
+                doZPSquare(blocks, p, faces, polys, RenderPoly.TRI3);
                 doRect(blocks, p, polys, RenderPoly.XMYM);
                 break;
             case 8: // XPZM
             case 12: // ???
                 // no XP face
-                doXMSquare(blocks, p, polys, RenderPoly.SQUARE);
-                doYPSquare(blocks, p, polys, RenderPoly.TRI4);
-                doYMSquare(blocks, p, polys, RenderPoly.TRI4);
-                doZPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderPoly.TRI4);
+                doYMSquare(blocks, p, faces, polys, RenderPoly.TRI4);
+                doZPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no ZM face
                 doRect(blocks, p, polys, RenderPoly.ZMXP);
                 break;
             case 10: // XMZM
             case 14:
-                doXPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no XM face
-                doYPSquare(blocks, p, polys, RenderPoly.TRI3);
-                doYMSquare(blocks, p, polys, RenderPoly.TRI3);
-                doZPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderPoly.TRI3);
+                doYMSquare(blocks, p, faces, polys, RenderPoly.TRI3);
+                doZPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no ZM face
                 doRect(blocks, p, polys, RenderPoly.ZMXM);
                 break;
             case 11: // XMZP
-                doXPSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doXPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 // no XM face
-                doYPSquare(blocks, p, polys, RenderPoly.TRI2);
-                doYMSquare(blocks, p, polys, RenderPoly.TRI2);
+                doYPSquare(blocks, p, faces, polys, RenderPoly.TRI2);
+                doYMSquare(blocks, p, faces, polys, RenderPoly.TRI2);
                 // no ZP face
-                doZMSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 doRect(blocks, p, polys, RenderPoly.ZPXM);
                 break;
             case 13: // XPZP
                 // no XP face
-                doXMSquare(blocks, p, polys, RenderPoly.SQUARE);
-                doYPSquare(blocks, p, polys, RenderPoly.TRI1);
-                doYMSquare(blocks, p, polys, RenderPoly.TRI1);
+                doXMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+                doYPSquare(blocks, p, faces, polys, RenderPoly.TRI1);
+                doYMSquare(blocks, p, faces, polys, RenderPoly.TRI1);
                 // no ZP face
-                doZMSquare(blocks, p, polys, RenderPoly.SQUARE);
+                doZMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
                 doRect(blocks, p, polys, RenderPoly.ZPXP);
                 break;
             default:
@@ -297,13 +303,13 @@ public class RenderPolyLogic {
         }
     }
 
-    private static void doCube(SparseMatrix<Block> blocks, Point3i p, List<RenderPoly> polys) {
-        doXPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doXMSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doYPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doYMSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doZPSquare(blocks, p, polys, RenderPoly.SQUARE);
-        doZMSquare(blocks, p, polys, RenderPoly.SQUARE);
+    private static void doCube(SparseMatrix<Block> blocks, Point3i p, int faces, List<RenderPoly> polys) {
+        doXPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doXMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doYPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doYMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doZPSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
+        doZMSquare(blocks, p, faces, polys, RenderPoly.SQUARE);
     }
 
     private static void doRect(SparseMatrix<Block> blocks, Point3i p,
@@ -373,9 +379,9 @@ public class RenderPolyLogic {
         polys.add(rp);
     }
 
-    private static void doZMSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doZMSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderPoly> polys, int type) {
-        if (!opaque(blocks, p.x, p.y, p.z - 1)) {
+        if ((faces & (1 << RenderPoly.ZM)) != 0) {
             RenderPoly rp = new RenderPoly();
             rp.setPosition(p);
             rp.setBlock(blocks.get(p));
@@ -390,9 +396,9 @@ public class RenderPolyLogic {
         }
     }
 
-    private static void doZPSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doZPSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderPoly> polys, int type) {
-        if (!opaque(blocks, p.x, p.y, p.z + 1)) {
+        if ((faces & (1 << RenderPoly.ZP)) != 0) {
             RenderPoly rp = new RenderPoly();
             rp.setPosition(p);
             rp.setBlock(blocks.get(p));
@@ -407,9 +413,9 @@ public class RenderPolyLogic {
         }
     }
 
-    private static void doYMSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doYMSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderPoly> polys, int type) {
-        if (!opaque(blocks, p.x, p.y - 1, p.z)) {
+        if ((faces & (1 << RenderPoly.YM)) != 0) {
             RenderPoly rp = new RenderPoly();
             rp.setPosition(p);
             rp.setBlock(blocks.get(p));
@@ -424,9 +430,9 @@ public class RenderPolyLogic {
         }
     }
 
-    private static void doYPSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doYPSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderPoly> polys, int type) {
-        if (!opaque(blocks, p.x, p.y + 1, p.z)) {
+        if ((faces & (1 << RenderPoly.YP)) != 0) {
             RenderPoly rp = new RenderPoly();
             rp.setPosition(p);
             rp.setBlock(blocks.get(p));
@@ -441,9 +447,9 @@ public class RenderPolyLogic {
         }
     }
 
-    private static void doXMSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doXMSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderPoly> polys, int type) {
-        if (!opaque(blocks, p.x - 1, p.y, p.z)) {
+        if ((faces & (1 << RenderPoly.XM)) != 0) {
             RenderPoly rp = new RenderPoly();
             rp.setPosition(p);
             rp.setBlock(blocks.get(p));
@@ -458,9 +464,9 @@ public class RenderPolyLogic {
         }
     }
 
-    private static void doXPSquare(SparseMatrix<Block> blocks, Point3i p,
+    private static void doXPSquare(SparseMatrix<Block> blocks, Point3i p, int faces,
             List<RenderPoly> polys, int type) {
-        if (!opaque(blocks, p.x + 1, p.y, p.z)) {
+        if ((faces & (1 << RenderPoly.XP)) != 0) {
             RenderPoly rp = new RenderPoly();
             rp.setPosition(p);
             rp.setBlock(blocks.get(p));
@@ -475,15 +481,9 @@ public class RenderPolyLogic {
         }
     }
 
-    private static boolean opaque(SparseMatrix<Block> grid, int x, int y, int z) {
-        Block b = grid.get(x, y, z);
-        return (b != null) && !BlockTypes.isAnyCorner(b.getBlockID()) && !BlockTypes.isAnyWedge(b.getBlockID());
-    }
-
     public static void transformAndSort(final RenderSet set, Matrix4f transform) {
         List<RenderPoly> tiles = set.getAllPolys();
         List<RenderPoly> visible = set.getVisiblePolys();
-        visible.clear();
 
         Point3f o = new Point3f();
         transform.transform(o);
@@ -514,46 +514,130 @@ public class RenderPolyLogic {
         //System.out.println("Unit X="+unitX+", Y="+unitY+", Z="+unitZ);
         //System.out.println("Showing +x="+showing[0]+", -x="+showing[1]+", +y="+showing[2]+", -y="+showing[3]+", +z="+showing[4]+", -z="+showing[5]);
         //System.out.println("Showing XPYP="+showing[RenderPoly.XPYP]);
-        for (RenderPoly tile : tiles) {
-            if (showing[tile.getNormal()]) {
-                visible.add(tile);
+        // the back to front order only changes when the view crosses an axis
+        int octant = (showing[RenderPoly.XP] ? 1 : 0) | (showing[RenderPoly.YP] ? 2 : 0) | (showing[RenderPoly.ZP] ? 4 : 0);
+        RenderPoly[] sorted = set.getSortedPolys();
+        if ((sorted == null) || (sorted.length != tiles.size()) || (set.getSortedOctant() != octant)) {
+            sorted = sortBackToFront(tiles, showing);
+            set.setSortedPolys(sorted);
+            set.setSortedOctant(octant);
+            set.setShowing(-1);
+        }
+        int mask = 0;
+        for (int i = 0; i < showing.length; i++) {
+            if (showing[i]) {
+                mask |= 1 << i;
             }
         }
-        Collections.sort(visible, new Comparator<RenderPoly>() {
-            @Override
-            public int compare(RenderPoly tile1, RenderPoly tile2) {
-                float delta = getMidZ(tile2, set) - getMidZ(tile1, set);
-                if (Math.abs(delta) < .001) {
-                    return (int) Math.signum(tile1.getBlock().getBlockID() - tile2.getBlock().getBlockID());
+        if (set.getShowing() != mask) {
+            visible.clear();
+            for (RenderPoly tile : sorted) {
+                if (showing[tile.getNormal()]) {
+                    visible.add(tile);
                 }
-                return (int) Math.signum(delta);
             }
-        });
+            set.setShowing(mask);
+        }
         //log.log(Level.INFO, "TransformAndSort, visible="+set.getVisiblePolys().size());
         //System.out.println("TransformAndSort, visible="+set.getVisiblePolys().size());
     }
 
-    private static float getX(Point3i p, RenderSet set) {
-        float z = set.getOrigin().x + p.x * set.getUnitX().x + p.y * set.getUnitY().x + p.z * set.getUnitZ().x;
-        return z;
+    /**
+     * Orders polys back to front. Under a parallel projection the cells of a
+     * grid can be painted a slab at a time, starting from the far side along
+     * each axis, and the faces of one cell never hide each other. So a
+     * stable counting sort of the cells along z, then y, then x gives a
+     * correct order that depends only on which way each axis faces.
+     *
+     * @param polys
+     * @param showing
+     * @return
+     */
+    private static RenderPoly[] sortBackToFront(List<RenderPoly> polys, boolean[] showing) {
+        RenderPoly[] from = polys.toArray(new RenderPoly[polys.size()]);
+        int[] cells = new int[from.length * 3];
+        for (int i = 0; i < from.length; i++) {
+            getCell(from[i], cells, i * 3);
+        }
+        RenderPoly[] to = new RenderPoly[from.length];
+        int[] order = new int[from.length];
+        int[] next = new int[from.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int axis = 2; axis >= 0; axis--) {
+            countingSort(order, next, cells, axis, showing[axis * 2]);
+            int[] t = order;
+            order = next;
+            next = t;
+        }
+        for (int i = 0; i < order.length; i++) {
+            to[i] = from[order[i]];
+        }
+        return to;
     }
 
-    private static float getY(Point3i p, RenderSet set) {
-        float z = set.getOrigin().y + p.x * set.getUnitX().y + p.y * set.getUnitY().y + p.z * set.getUnitZ().y;
-        return z;
+    // stable sort of order into sorted by the cell coordinate on axis
+    private static void countingSort(int[] order, int[] sorted, int[] cells, int axis, boolean ascending) {
+        if (order.length == 0) {
+            return;
+        }
+        int lo = Integer.MAX_VALUE;
+        int hi = Integer.MIN_VALUE;
+        for (int i = 0; i < order.length; i++) {
+            int c = cells[i * 3 + axis];
+            lo = Math.min(lo, c);
+            hi = Math.max(hi, c);
+        }
+        int[] starts = new int[hi - lo + 2];
+        for (int i : order) {
+            int c = cells[i * 3 + axis];
+            starts[(ascending ? c - lo : hi - c) + 1]++;
+        }
+        for (int k = 1; k < starts.length; k++) {
+            starts[k] += starts[k - 1];
+        }
+        for (int i : order) {
+            int c = cells[i * 3 + axis];
+            sorted[starts[ascending ? c - lo : hi - c]++] = i;
+        }
+    }
+
+    // the block a poly is drawn for, worked out from its corners if not set
+    private static void getCell(RenderPoly tile, int[] cells, int off) {
+        Point3i p = tile.getPosition();
+        if (p != null) {
+            cells[off] = p.x;
+            cells[off + 1] = p.y;
+            cells[off + 2] = p.z;
+            return;
+        }
+        Point3i lower = new Point3i();
+        Point3i upper = new Point3i();
+        getBounds(tile, lower, upper);
+        cells[off] = lower.x;
+        cells[off + 1] = lower.y;
+        cells[off + 2] = lower.z;
+        switch (tile.getNormal()) {
+            case RenderPoly.XP:
+                cells[off]--;
+                break;
+            case RenderPoly.YP:
+                cells[off + 1]--;
+                break;
+            case RenderPoly.ZP:
+                cells[off + 2]--;
+                break;
+        }
     }
 
-    private static float getZ(Point3i p, RenderSet set) {
-        float z = set.getOrigin().z + p.x * set.getUnitX().z + p.y * set.getUnitY().z + p.z * set.getUnitZ().z;
+    private static float getX(Point3i p, RenderSet set) {
+        float z = set.getOrigin().x + p.x * set.getUnitX().x + p.y * set.getUnitY().x + p.z * set.getUnitZ().x;
         return z;
     }
 
-    private static float getMidZ(RenderPoly tile, RenderSet set) {
-        float z = 0;
-        for (Point3i p : tile.getModelPoints()) {
-            z += getZ(p, set);
-        }
-        z /= tile.getModelPoints().length;
+    private static float getY(Point3i p, RenderSet set) {
+        float z = set.getOrigin().y + p.x * set.getUnitX().y + p.y * set.getUnitY().y + p.z * set.getUnitZ().y;
         return z;
     }
 
@@ -18,7 +18,11 @@
 package jo.sm.logic;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -30,19 +34,16 @@ import jo.sm.data.ShapeLibraryEntry;
 import jo.sm.data.SparseMatrix;
 import jo.sm.logic.utils.FileUtils;
 import jo.sm.logic.utils.StringUtils;
-import jo.sm.logic.utils.XMLEditUtils;
-import jo.sm.logic.utils.XMLUtils;
 import jo.sm.mods.IBlocksPlugin;
 import jo.sm.ship.data.Block;
 import jo.util.Paths;
 import jo.vecmath.Point3i;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-
 
 public class ShapeLibraryLogic {
 
+    public static final String SHAPE_SUFFIX = ".smgrid";
+
     private static long mLastRead = 0;
     private static final List<ShapeLibraryEntry> mEntries = new ArrayList<>();
     private static final Logger log = Logger.getLogger(ShapeLibraryLogic.class.getName());
@@ -80,33 +81,46 @@ public class ShapeLibraryLogic {
     }
 
     private static void updateEntry(ShapeLibraryEntry entry) throws IOException {
-        String xml = FileUtils.readFileAsString(entry.getShape().toString(), 1024);
-        String name = getAttribute(xml, "name");
+        Map<String, String> attributes;
+        if (entry.getShape().getName().endsWith(SHAPE_SUFFIX)) {
+            try (InputStream is = new FileInputStream(entry.getShape())) {
+                attributes = GridLogic.readBinaryAttributes(is);
+            }
+        } else {
+            String xml = FileUtils.readFileAsString(entry.getShape().toString(), 1024);
+            attributes = new HashMap<>();
+            for (String key : new String[]{"name", "author", "lower", "upper", "classifications"}) {
+                attributes.put(key, getAttribute(xml, key));
+            }
+        }
+        String name = attributes.get("name");
         if (StringUtils.isTrivial(name)) {
             name = entry.getShape().getName();
             if (name.endsWith(".xml")) {
                 name = name.substring(0, name.length() - 4);
+            } else if (name.endsWith(SHAPE_SUFFIX)) {
+                name = name.substring(0, name.length() - SHAPE_SUFFIX.length());
             }
         }
         entry.setName(name);
-        String author = getAttribute(xml, "author");
+        String author = attributes.get("author");
         if (StringUtils.isTrivial(author)) {
             author = "A. N. Onomous";
         }
         entry.setAuthor(author);
-        String lower = getAttribute(xml, "lower");
+        String lower = attributes.get("lower");
         if (!StringUtils.isTrivial(lower)) {
             entry.setLower(new Point3i(lower));
         } else {
             entry.setLower(new Point3i());
         }
-        String upper = getAttribute(xml, "upper");
+        String upper = attributes.get("upper");
         if (!StringUtils.isTrivial(upper)) {
             entry.setUpper(new Point3i(upper));
         } else {
             entry.setUpper(new Point3i());
         }
-        String classes = getAttribute(xml, "classifications");
+        String classes = attributes.get("classifications");
         if (!StringUtils.isTrivial(classes)) {
             classes = classes.toLowerCase();
             if (classes.contains("ship")) {
@@ -191,35 +205,39 @@ public class ShapeLibraryLogic {
     }
 
     public static void addEntry(SparseMatrix<Block> grid, String name, String author, int type) {
-        Document doc = GridLogic.toDocument(grid);
-        Node root = doc.getFirstChild();
+        Map<String, String> attributes = new HashMap<>();
         if (!StringUtils.isTrivial(name)) {
-            XMLEditUtils.addAttribute(root, "name", name);
+            attributes.put("name", name);
         }
         if (!StringUtils.isTrivial(author)) {
-            XMLEditUtils.addAttribute(root, "author", author);
+            attributes.put("author", author);
         }
+        Point3i lower = new Point3i();
+        Point3i upper = new Point3i();
+        grid.getBounds(lower, upper);
+        attributes.put("lower", lower.x + "," + lower.y + "," + lower.z);
+        attributes.put("upper", upper.x + "," + upper.y + "," + upper.z);
         switch (type) {
             case IBlocksPlugin.TYPE_ALL:
-                XMLEditUtils.addAttribute(root, "classifications", "all");
+                attributes.put("classifications", "all");
                 break;
             case IBlocksPlugin.TYPE_FLOATINGROCK:
-                XMLEditUtils.addAttribute(root, "classifications", "floatingrock");
+                attributes.put("classifications", "floatingrock");
                 break;
             case IBlocksPlugin.TYPE_SHIP:
-                XMLEditUtils.addAttribute(root, "classifications", "ship");
+                attributes.put("classifications", "ship");
                 break;
             case IBlocksPlugin.TYPE_SHOP:
-                XMLEditUtils.addAttribute(root, "classifications", "shop");
+                attributes.put("classifications", "shop");
                 break;
             case IBlocksPlugin.TYPE_STATION:
-                XMLEditUtils.addAttribute(root, "classifications", "station");
+                attributes.put("classifications", "station");
                 break;
             case IBlocksPlugin.TYPE_PLANET:
-                XMLEditUtils.addAttribute(root, "classifications", "planet");
+                attributes.put("classifications", "planet");
                 break;
             default:
-                XMLEditUtils.addAttribute(root, "classifications", "all");
+                attributes.put("classifications", "all");
                 break;
         }
         File plugins = new File(Paths.getPluginsDirectory());
@@ -227,11 +245,29 @@ public class ShapeLibraryLogic {
         if (!shapeLibDir.exists()) {
             shapeLibDir.mkdirs();
         }
-        File shapeFile = new File(shapeLibDir, name + ".xml");
-        XMLUtils.writeFile(root, shapeFile);
+        File shapeFile = new File(shapeLibDir, name + SHAPE_SUFFIX);
+        try (OutputStream os = new FileOutputStream(shapeFile)) {
+            GridLogic.writeBinary(grid, attributes, os);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "ShapeLibrary failed!", e);
+            e.printStackTrace();
+        }
         mLastRead = 0;
     }
 
+    /**
+     * Reads the blocks of a shape, stored either in the binary grid format
+     * or, for shapes imported by hand, as XML.
+     **/
+    public static SparseMatrix<Block> readShape(ShapeLibraryEntry entry) throws IOException {
+        if (entry.getShape().getName().endsWith(SHAPE_SUFFIX)) {
+            try (InputStream is = new FileInputStream(entry.getShape())) {
+                return GridLogic.readBinary(is, null);
+            }
+        }
+        return GridLogic.fromString(FileUtils.readFileAsString(entry.getShape().toString()));
+    }
+
     private static boolean isType(ShapeLibraryEntry entry, int type) {
         if (type == IBlocksPlugin.TYPE_ALL) {
             return true;
@@ -120,4 +120,57 @@ public class BufferLogic {
         buff.rewind();
         return buff;
     }
+
+    /**
+     * Returns a direct buffer of at least size elements holding what has been
+     * put in buff, which is returned as is if it is already big enough.
+     *
+     * @param buff
+     * @param size
+     * @return
+     */
+    public static FloatBuffer grow(FloatBuffer buff, int size) {
+        if (buff.capacity() >= size) {
+            return buff;
+        }
+        FloatBuffer bigger = createFloatBuffer(Math.max(size, buff.capacity() * 2));
+        buff.flip();
+        bigger.put(buff);
+        return bigger;
+    }
+
+    public static IntBuffer grow(IntBuffer buff, int size) {
+        if (buff.capacity() >= size) {
+            return buff;
+        }
+        IntBuffer bigger = createIntBuffer(Math.max(size, buff.capacity() * 2));
+        buff.flip();
+        bigger.put(buff);
+        return bigger;
+    }
+
+    /**
+     * Returns a direct buffer holding just what has been put in buff, leaving
+     * buff as it was.
+     *
+     * @param buff
+     * @return
+     */
+    public static FloatBuffer copy(FloatBuffer buff) {
+        FloatBuffer src = buff.duplicate();
+        src.flip();
+        FloatBuffer dup = createFloatBuffer(src.remaining());
+        dup.put(src);
+        dup.rewind();
+        return dup;
+    }
+
+    public static IntBuffer copy(IntBuffer buff) {
+        IntBuffer src = buff.duplicate();
+        src.flip();
+        IntBuffer dup = createIntBuffer(src.remaining());
+        dup.put(src);
+        dup.rewind();
+        return dup;
+    }
 }
@@ -25,27 +25,28 @@ public class DebugLogic {
 
     public static boolean DEBUG = true;
 
-    private static String mIndent = "";
+    // per thread, as tag files may be read on several threads at once
+    private static final ThreadLocal<String> mIndent = ThreadLocal.withInitial(() -> "");
 
     public static final boolean HULL_ONLY = false;
     private static final Logger log = Logger.getLogger(DebugLogic.class.getName());
 
     public static void setIndent(String indent) {
-        mIndent = indent;
+        mIndent.set(indent);
     }
 
     public static void indent() {
-        mIndent += "  ";
+        mIndent.set(mIndent.get() + "  ");
     }
 
     public static void outdent() {
-        mIndent = mIndent.substring(2);
+        mIndent.set(mIndent.get().substring(2));
     }
 
     public static void debug(String msg) {
         if (DEBUG) {
-            log.log(Level.INFO, mIndent + msg);
-            System.out.println(mIndent + msg);
+            log.log(Level.INFO, mIndent.get() + msg);
+            System.out.println(mIndent.get() + msg);
         }
     }
 
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.plugins.planet.select;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import jo.sm.data.SparseMatrix;
+import jo.sm.logic.GridLogic;
+import jo.sm.ship.data.Block;
+
+/**
+ * Clipboard contents for a block selection. Held in the compact binary grid
+ * format; the XML form is only built if another application asks for text.
+ **/
+public class GridSelection implements Transferable {
+
+    public static final DataFlavor GRID_FLAVOR = new DataFlavor("application/x-smedit-grid; class=java.io.InputStream", "SMEdit blocks");
+    private static final DataFlavor[] FLAVORS = {GRID_FLAVOR, DataFlavor.stringFlavor};
+
+    private final byte[] mBytes;
+
+    public GridSelection(SparseMatrix<Block> grid) {
+        mBytes = GridLogic.toBytes(grid);
+    }
+
+    @Override
+    public DataFlavor[] getTransferDataFlavors() {
+        return FLAVORS.clone();
+    }
+
+    @Override
+    public boolean isDataFlavorSupported(DataFlavor flavor) {
+        return GRID_FLAVOR.equals(flavor) || DataFlavor.stringFlavor.equals(flavor);
+    }
+
+    @Override
+    public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException, IOException {
+        if (GRID_FLAVOR.equals(flavor)) {
+            return new ByteArrayInputStream(mBytes);
+        }
+        if (DataFlavor.stringFlavor.equals(flavor)) {
+            return GridLogic.toString(GridLogic.fromBytes(mBytes));
+        }
+        throw new UnsupportedFlavorException(flavor);
+    }
+
+    /**
+     * Returns the blocks held by contents, preferring the binary form and
+     * falling back to XML text, or null if it holds neither.
+     **/
+    public static SparseMatrix<Block> getGrid(Transferable contents) throws UnsupportedFlavorException, IOException {
+        if (contents == null) {
+            return null;
+        }
+        if (contents.isDataFlavorSupported(GRID_FLAVOR)) {
+            try (InputStream is = (InputStream) contents.getTransferData(GRID_FLAVOR)) {
+                return GridLogic.readBinary(is, null);
+            }
+        }
+        if (contents.isDataFlavorSupported(DataFlavor.stringFlavor)) {
+            return GridLogic.fromString((String) contents.getTransferData(DataFlavor.stringFlavor));
+        }
+        return null;
+    }
+}
@@ -20,7 +20,6 @@ package jo.sm.plugins.planet.select;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.ClipboardOwner;
-import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
 
 import jo.sm.data.SparseMatrix;
@@ -84,8 +83,7 @@ public class SelectCutPlugin implements IBlocksPlugin, ClipboardOwner {
         Point3i upper = sm.getSelectedUpper();
         if ((lower != null) && (upper != null)) {
             SparseMatrix<Block> clip = GridLogic.extract(original, lower, upper);
-            String xml = GridLogic.toString(clip);
-            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(xml), this);
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new GridSelection(clip), this);
             GridLogic.delete(original, lower, upper);
             return original;
         }
@@ -25,7 +25,6 @@ import jo.sm.data.SparseMatrix;
 import jo.sm.data.StarMade;
 import jo.sm.logic.GridLogic;
 import jo.sm.logic.ShapeLibraryLogic;
-import jo.sm.logic.utils.FileUtils;
 import jo.sm.mods.IBlocksPlugin;
 import jo.sm.mods.IPluginCallback;
 import jo.sm.ship.data.Block;
@@ -88,8 +87,7 @@ public class SelectPasteFromPlugin implements IBlocksPlugin {
             ShapeLibraryEntry entry = ShapeLibraryLogic.getEntry(params.getShape());
             if (entry != null) {
                 try {
-                    String xml = FileUtils.readFileAsString(entry.getShape().toString());
-                    SparseMatrix<Block> insertion = GridLogic.fromString(xml);
+                    SparseMatrix<Block> insertion = ShapeLibraryLogic.readShape(entry);
                     GridLogic.insert(original, insertion, lower);
                     return original;
                 } catch (IOException ex) {
@@ -18,7 +18,6 @@
 package jo.sm.plugins.planet.select;
 
 import java.awt.Toolkit;
-import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.io.IOException;
@@ -84,18 +83,14 @@ public class SelectPastePlugin implements IBlocksPlugin {
         if ((lower != null) && (upper != null)) {
             Transferable contents = Toolkit.getDefaultToolkit()
                     .getSystemClipboard().getContents(null);
-            boolean hasTransferableText = (contents != null)
-                    && contents.isDataFlavorSupported(DataFlavor.stringFlavor);
-            if (hasTransferableText) {
-                try {
-                    String xml;
-                    xml = (String) contents.getTransferData(DataFlavor.stringFlavor);
-                    SparseMatrix<Block> insertion = GridLogic.fromString(xml);
+            try {
+                SparseMatrix<Block> insertion = GridSelection.getGrid(contents);
+                if (insertion != null) {
                     GridLogic.insert(original, insertion, lower);
                     return original;
-                } catch (UnsupportedFlavorException | IOException ex) {
-                    cb.setError(ex);
                 }
+            } catch (UnsupportedFlavorException | IOException ex) {
+                cb.setError(ex);
             }
         }
         return null;
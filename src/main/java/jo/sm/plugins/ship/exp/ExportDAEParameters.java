@@ -27,6 +27,8 @@ public class ExportDAEParameters {
 
     @Description(displayName = "", shortDescription = "Collada file (including DAE extension) to export to")
     private String mFile;
+    @Description(displayName = "Merge Faces", shortDescription = "Merge adjacent faces of the same block type, with a texture per block type")
+    private boolean mGreedy;
 
     public ExportDAEParameters() {
     }
@@ -38,4 +40,12 @@ public class ExportDAEParameters {
     public void setFile(String file) {
         mFile = file;
     }
+
+    public boolean isGreedy() {
+        return mGreedy;
+    }
+
+    public void setGreedy(boolean greedy) {
+        mGreedy = greedy;
+    }
 }
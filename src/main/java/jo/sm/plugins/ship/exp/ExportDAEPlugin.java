@@ -20,6 +20,10 @@ package jo.sm.plugins.ship.exp;
 import java.io.File;
 import java.io.IOException;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
@@ -33,9 +37,8 @@ import jo.sm.ship.data.Block;
 import jo.sm.ui.BlockTypeColors;
 import jo.sm.ui.lwjgl.LWJGLRenderLogic;
 import jo.util.jgl.obj.JGLGroup;
+import jo.util.jgl.obj.JGLNode;
 import jo.util.jgl.obj.tri.JGLObj;
-import jo.vecmath.Point3f;
-import jo.vecmath.logic.Point3fLogic;
 
 /**
  * @Auther Jo Jaquinta for SMEdit Classic - version 1.0
@@ -89,9 +92,18 @@ public class ExportDAEPlugin implements IBlocksPlugin {
         ExportDAEParameters params = (ExportDAEParameters) p;
         try {
             JGLGroup quads = new JGLGroup();
-            LWJGLRenderLogic.addBlocks(quads, original, false);
-            writeFile(params.getFile(), quads);
-            writeTexture(params.getFile());
+            int faces = LWJGLRenderLogic.addBlocks(quads, original, false, params.isGreedy());
+            writeFile(params.getFile(), quads, params.isGreedy());
+            if (params.isGreedy()) {
+                writeTiles(params.getFile(), quads);
+            } else {
+                writeTexture(params.getFile());
+            }
+            int polys = 0;
+            for (JGLNode node : quads.getChildren()) {
+                polys += ((JGLObj) node).getIndices();
+            }
+            cb.setStatus("Exported " + polys + " faces" + (params.isGreedy() ? " instead of " + faces : ""));
         } catch (IOException e) {
             cb.setError(e);
         }
@@ -114,78 +126,141 @@ public class ExportDAEPlugin implements IBlocksPlugin {
         ImageIO.write(BlockTypeColors.mAllTextures, "PNG", new File(pngFile));
     }
 
-    private void writeFile(String objFile, JGLGroup quads) throws IOException {
+    // the merged faces repeat a block's own texture, so each is written alone
+    private void writeTiles(String objFile, JGLGroup quads) throws IOException {
+        for (JGLNode node : quads.getChildren()) {
+            int textureID = LWJGLRenderLogic.getTileTextureID(((JGLObj) node).getTextureID());
+            ImageIO.write(BlockTypeColors.getTextureImage(textureID), "PNG", new File(getTileFile(objFile, textureID)));
+        }
+    }
+
+    private static String getTileFile(String objFile, int textureID) {
+        return objFile.substring(0, objFile.length() - 4) + "_t" + textureID + ".png";
+    }
+
+    private void writeFile(String objFile, JGLGroup quads, boolean greedy) throws IOException {
         File pngFile = new File(objFile.substring(0, objFile.length() - 4) + ".png");
         String template = ResourceUtils.loadSystemResourceString("Template.dae", ExportDAEPlugin.class);
 
-        JGLObj obj = (JGLObj) quads.getChildren().get(0);
-        int facePoints = (obj.getMode() == JGLObj.TRIANGLES) ? 3 : 4;
-        int vertexCount = obj.getVertices();
-        int vertexCountBy2 = vertexCount * 2;
-        int vertexCountBy3 = vertexCount * 3;
-        int polyCount = vertexCount / facePoints;
-        FloatBuffer verts = obj.getVertexBuffer();
-        verts.rewind();
         StringBuffer vertexPositions = new StringBuffer();
         StringBuffer vertexNormals = new StringBuffer();
-        StringBuffer polyListVerts = new StringBuffer();
-        for (int i = 0; i < vertexCount; i += 4) {
-            Point3f v1 = new Point3f(verts.get(), verts.get(), verts.get());
-            Point3f v2 = new Point3f(verts.get(), verts.get(), verts.get());
-            Point3f v3 = new Point3f(verts.get(), verts.get(), verts.get());
-            Point3f v4 = new Point3f(verts.get(), verts.get(), verts.get());
-            vertexPositions.append(" ").append(v1.x).append(" ").append(v1.y).append(" ").append(v1.z);
-            vertexPositions.append(" ").append(v2.x).append(" ").append(v2.y).append(" ").append(v2.z);
-            vertexPositions.append(" ").append(v3.x).append(" ").append(v3.y).append(" ").append(v3.z);
-            if (facePoints == 4) {
-                vertexPositions.append(" ").append(v4.x).append(" ").append(v4.y).append(" ").append(v4.z);
+        StringBuffer vertexUVs = new StringBuffer();
+        // a polylist for each mesh, and if greedy a material for each texture
+        List<Map<String, String>> polyLists = new ArrayList<>();
+        List<Map<String, String>> materials = new ArrayList<>();
+        int vertexCount = 0;
+        for (JGLNode node : quads.getChildren()) {
+            JGLObj obj = (JGLObj) node;
+            int facePoints = (obj.getMode() == JGLObj.TRIANGLES) ? 3 : 4;
+            int objVertexCount = obj.getVertices();
+            FloatBuffer verts = obj.getVertexBuffer();
+            verts.rewind();
+            StringBuffer polyListVerts = new StringBuffer();
+            float[] quad = new float[12];
+            for (int i = 0; i < objVertexCount; i += 4) {
+                verts.get(quad);
+                for (int j = 0; j < facePoints * 3; j += 3) {
+                    vertexPositions.append(" ").append(quad[j]).append(" ").append(quad[j + 1]).append(" ").append(quad[j + 2]);
+                }
+                // the normal is the cross of the first two edges
+                float e1x = quad[3] - quad[0];
+                float e1y = quad[4] - quad[1];
+                float e1z = quad[5] - quad[2];
+                float e2x = quad[6] - quad[0];
+                float e2y = quad[7] - quad[1];
+                float e2z = quad[8] - quad[2];
+                float nx = e1y * e2z - e1z * e2y;
+                float ny = e2x * e1z - e2z * e1x;
+                float nz = e1x * e2y - e1y * e2x;
+                vertexNormals.append(" ").append(nx).append(" ").append(ny).append(" ").append(nz);
+                vertexNormals.append(" ").append(nx).append(" ").append(ny).append(" ").append(nz);
+                vertexNormals.append(nx).append(" " + " ").append(ny).append(" ").append(nz);
+                if (facePoints == 4) {
+                    vertexNormals.append(" ").append(nx).append(" ").append(ny).append(" ").append(nz);
+                }
+                polyListVerts.append(" ").append(vertexCount + i + 0);
+                polyListVerts.append(" ").append(vertexCount + i + 1);
+                polyListVerts.append(" ").append(vertexCount + i + 2);
+                if (facePoints == 4) {
+                    polyListVerts.append(" ").append(vertexCount + i + 3);
+                }
             }
-            Point3f edge1 = new Point3f(v2);
-            edge1.sub(v1);
-            Point3f edge2 = new Point3f(v3);
-            edge2.sub(v1);
-            Point3f normal = Point3fLogic.cross(edge1, edge2);
-            vertexNormals.append(" ").append(normal.x).append(" ").append(normal.y).append(" ").append(normal.z);
-            vertexNormals.append(" ").append(normal.x).append(" ").append(normal.y).append(" ").append(normal.z);
-            vertexNormals.append(normal.x).append(" " + " ").append(normal.y).append(" ").append(normal.z);
-            if (facePoints == 4) {
-                vertexNormals.append(" ").append(normal.x).append(" ").append(normal.y).append(" ").append(normal.z);
+            FloatBuffer texts = obj.getTexturesBuffer();
+            if (texts != null) {
+                texts.rewind();
+                for (int i = 0; i < objVertexCount; i++) {
+                    float u = texts.get();
+                    float v = texts.get();
+                    vertexUVs.append(" ").append(u).append(" ").append(v);
+                }
             }
-            polyListVerts.append(" ").append(i + 0);
-            polyListVerts.append(" ").append(i + 1);
-            polyListVerts.append(" ").append(i + 2);
-            if (facePoints == 4) {
-                polyListVerts.append(" ").append(i + 3);
+            int faceCount = obj.getIndices();
+            StringBuffer polyListVCount = new StringBuffer();
+            for (int i = 0; i < faceCount; i++) {
+                polyListVCount.append(" ").append(facePoints);
             }
-        }
-        FloatBuffer texts = obj.getTexturesBuffer();
-        texts.rewind();
-        StringBuffer vertexUVs = new StringBuffer();
-        if (texts == null) {
-        } else {
-            for (int i = 0; i < vertexCount; i++) {
-                float u = texts.get();
-                float v = texts.get();
-                vertexUVs.append(" ").append(u).append(" ").append(v);
+            Map<String, String> polyList = new LinkedHashMap<>();
+            polyList.put(POLYLISTVCOUNT, polyListVCount.toString());
+            polyList.put(POLYCOUNT, String.valueOf(objVertexCount / facePoints));
+            polyList.put(POLYLISTVERTS, polyListVerts.toString());
+            if (greedy) {
+                int textureID = LWJGLRenderLogic.getTileTextureID(obj.getTextureID());
+                String name = "t" + textureID;
+                polyList.put("Skin-material", name + "-material");
+                Map<String, String> material = new LinkedHashMap<>();
+                material.put(TEXTUREMAPFILE, new File(getTileFile(objFile, textureID)).getName());
+                material.put("Color_jpg", "Color_" + name);
+                material.put("Skin-effect", name + "-effect");
+                material.put("Skin-material", name + "-material");
+                material.put("\"Skin\"", "\"" + name + "\"");
+                materials.add(material);
             }
+            polyLists.add(polyList);
+            vertexCount += objVertexCount;
         }
-        int faceCount = obj.getIndices();
-        StringBuffer polyListVCount = new StringBuffer();
-        for (int i = 0; i < faceCount; i++) {
-            polyListVCount.append(" ").append(facePoints);
+        if (greedy) {
+            template = repeat(template, "<image id=\"Color_jpg\"", "</image>", materials);
+            template = repeat(template, "<effect id=\"Skin-effect\"", "</effect>", materials);
+            template = repeat(template, "<material id=\"Skin-material\"", "</material>", materials);
+            template = repeat(template, "<instance_material symbol=\"Skin-material\"", "/>", materials);
+            // the stub material is unused, and its image is not written
+            template = repeat(template, "<effect id=\"Stub-effect\"", "</effect>", new ArrayList<Map<String, String>>());
+            template = repeat(template, "<material id=\"Stub-material\"", "</material>", new ArrayList<Map<String, String>>());
         }
+        template = repeat(template, "<polylist", "</polylist>", polyLists);
 
         template = template.replace(TEXTUREMAPFILE, pngFile.getName());
         template = template.replace(VERTEXPOSITIONS, vertexPositions);
-        template = template.replace(VERTEXCOUNTBY3, String.valueOf(vertexCountBy3));
-        template = template.replace(VERTEXCOUNTBY2, String.valueOf(vertexCountBy2));
+        template = template.replace(VERTEXCOUNTBY3, String.valueOf(vertexCount * 3));
+        template = template.replace(VERTEXCOUNTBY2, String.valueOf(vertexCount * 2));
         template = template.replace(VERTEXCOUNT, String.valueOf(vertexCount));
         template = template.replace(VERTEXNORMALS, vertexNormals);
         template = template.replace(VERTEXUVS, vertexUVs);
-        template = template.replace(POLYLISTVCOUNT, polyListVCount);
-        template = template.replace(POLYCOUNT, String.valueOf(polyCount));
-        template = template.replace(POLYLISTVERTS, polyListVerts);
 
         FileUtils.writeFile(template, new File(objFile));
     }
+
+    // replaces the first section of the template from start to end with a
+    // copy of it for each set of substitutions, or removes it if there are none
+    private static String repeat(String template, String start, String end, List<Map<String, String>> copies) {
+        int from = template.indexOf(start);
+        int to = template.indexOf(end, from) + end.length();
+        String section = template.substring(from, to);
+        String indent = template.substring(template.lastIndexOf('\n', from), from);
+        if (copies.isEmpty()) {
+            return template.substring(0, from - indent.length()) + template.substring(to);
+        }
+        StringBuilder sections = new StringBuilder();
+        for (Map<String, String> copy : copies) {
+            String s = section;
+            for (Map.Entry<String, String> e : copy.entrySet()) {
+                s = s.replace(e.getKey(), e.getValue());
+            }
+            if (sections.length() > 0) {
+                sections.append(indent);
+            }
+            sections.append(s);
+        }
+        return template.substring(0, from) + sections + template.substring(to);
+    }
 }
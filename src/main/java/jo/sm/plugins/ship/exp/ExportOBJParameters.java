@@ -27,6 +27,8 @@ public class ExportOBJParameters {
 
     @Description(displayName = "", shortDescription = "OBJ file (including extension) to export to")
     private String mFile;
+    @Description(displayName = "Merge Faces", shortDescription = "Merge adjacent faces of the same block type, with a texture per block type")
+    private boolean mGreedy;
 
     public ExportOBJParameters() {
     }
@@ -38,4 +40,12 @@ public class ExportOBJParameters {
     public void setFile(String file) {
         mFile = file;
     }
+
+    public boolean isGreedy() {
+        return mGreedy;
+    }
+
+    public void setGreedy(boolean greedy) {
+        mGreedy = greedy;
+    }
 }
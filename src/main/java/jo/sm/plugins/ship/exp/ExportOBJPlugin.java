@@ -94,15 +94,33 @@ public class ExportOBJPlugin implements IBlocksPlugin {
         ExportOBJParameters params = (ExportOBJParameters) p;
         try {
             JGLGroup quads = new JGLGroup();
-            LWJGLRenderLogic.addBlocks(quads, original, false);
-            writeFile(params.getFile(), quads);
-            writeTexture(params.getFile());
+            int faces = LWJGLRenderLogic.addBlocks(quads, original, false, params.isGreedy());
+            writeFile(params.getFile(), quads, params.isGreedy());
+            if (params.isGreedy()) {
+                writeTiles(params.getFile(), quads);
+            } else {
+                writeTexture(params.getFile());
+            }
+            int polys = 0;
+            for (JGLNode node : quads.getChildren()) {
+                polys += ((JGLObj) node).getIndices();
+            }
+            cb.setStatus("Exported " + polys + " faces" + (params.isGreedy() ? " instead of " + faces : ""));
         } catch (IOException e) {
             cb.setError(e);
         }
         return null;
     }
 
+    // the merged faces repeat a block's own texture, so each is written alone
+    private void writeTiles(String objFile, JGLGroup quads) throws IOException {
+        for (JGLNode node : quads.getChildren()) {
+            int textureID = LWJGLRenderLogic.getTileTextureID(((JGLObj) node).getTextureID());
+            String pngFile = objFile.substring(0, objFile.length() - 4) + "_t" + textureID + ".png";
+            ImageIO.write(BlockTypeColors.getTextureImage(textureID), "PNG", new File(pngFile));
+        }
+    }
+
     private void writeTexture(String objFile) throws IOException {
         String pngFile = objFile.substring(0, objFile.length() - 4) + ".png";
         ImageIO.write(BlockTypeColors.mAllTextures, "PNG", new File(pngFile));
@@ -160,7 +178,7 @@ public class ExportOBJPlugin implements IBlocksPlugin {
          */
     }
 
-    private void writeFile(String objFile, JGLGroup quads) throws IOException {
+    private void writeFile(String objFile, JGLGroup quads, boolean greedy) throws IOException {
         File mtlFile = new File(objFile.substring(0, objFile.length() - 4) + ".mtl");
         File jpgFile = new File(objFile.substring(0, objFile.length() - 4) + ".jpg");
         BufferedWriter wtr = new BufferedWriter(new FileWriter(new File(objFile)));
@@ -170,13 +188,19 @@ public class ExportOBJPlugin implements IBlocksPlugin {
         wtr.write("g Mesh1 Model");
         wtr.newLine();
         wtr.newLine();
-        wtr.write("usemtl material0");
-        wtr.newLine();
-        wtr.newLine();
+        if (!greedy) {
+            wtr.write("usemtl material0");
+            wtr.newLine();
+            wtr.newLine();
+        }
         int vertPosition = 1;
         for (JGLNode node : quads.getChildren()) {
             if (node instanceof JGLObj) {
                 JGLObj obj = (JGLObj) node;
+                if (greedy) {
+                    wtr.write("usemtl t" + LWJGLRenderLogic.getTileTextureID(obj.getTextureID()));
+                    wtr.newLine();
+                }
                 int vertCount = obj.getVertices();
                 FloatBuffer verts = obj.getVertexBuffer();
                 verts.rewind();
@@ -251,7 +275,21 @@ public class ExportOBJPlugin implements IBlocksPlugin {
         }
         wtr.close();
         wtr = new BufferedWriter(new FileWriter(mtlFile));
-        wtr.write("newmtl material0");
+        if (greedy) {
+            for (JGLNode node : quads.getChildren()) {
+                int textureID = LWJGLRenderLogic.getTileTextureID(((JGLObj) node).getTextureID());
+                String pngFile = new File(objFile.substring(0, objFile.length() - 4) + "_t" + textureID + ".png").getName();
+                writeMaterial(wtr, "t" + textureID, pngFile);
+            }
+        } else {
+            writeMaterial(wtr, "material0", jpgFile.getName());
+        }
+        wtr.newLine();
+        wtr.close();
+    }
+
+    private void writeMaterial(BufferedWriter wtr, String name, String map) throws IOException {
+        wtr.write("newmtl " + name);
         wtr.newLine();
         wtr.write("Ka 1.000000 1.000000 1.000000");
         wtr.newLine();
@@ -259,10 +297,8 @@ public class ExportOBJPlugin implements IBlocksPlugin {
         wtr.newLine();
         wtr.write("Ks 0.000000 0.000000 0.000000");
         wtr.newLine();
-        wtr.write("map_Kd " + jpgFile.getName());
+        wtr.write("map_Kd " + map);
         wtr.newLine();
         wtr.newLine();
-        wtr.newLine();
-        wtr.close();
     }
 }
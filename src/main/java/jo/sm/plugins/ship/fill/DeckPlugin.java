@@ -168,7 +168,7 @@ public class DeckPlugin implements IBlocksPlugin {
     private void placeIfInterior(SparseMatrix<Block> grid, Point3i p,
             List<Point3i> interior, short material) {
         if (interior.contains(p)) {
-            grid.set(p, new Block(material));
+            grid.set(p, Block.valueOf(material));
         }
     }
 
@@ -228,7 +228,7 @@ public class DeckPlugin implements IBlocksPlugin {
             List<Point3i> interior, short material) {
         for (Point3i p : interior) {
             if (p.y == y) {
-                grid.set(p, new Block(material));
+                grid.set(p, Block.valueOf(material));
             }
         }
     }
@@ -69,8 +69,7 @@ public class FillPlugin implements IBlocksPlugin {
     }
 
     private static void place(SparseMatrix<Block> modified, List<Point3i> interior, short blockID) {
-        Block b = new Block();
-        b.setBlockID(blockID);
+        Block b = Block.valueOf(blockID);
         Point3i p = interior.get(0);
         interior.remove(0);
         modified.set(p, b);
@@ -96,7 +95,7 @@ public class FillPlugin implements IBlocksPlugin {
         Point3i core = ShipLogic.findCore(modified);
         if (core == null) {
             core = new Point3i(8, 8, 8);
-            modified.set(core, new Block(BlockTypes.CORE_ID));
+            modified.set(core, Block.valueOf(BlockTypes.CORE_ID));
         }
         int accessRadius = (int) (Math.pow(interior.size(), .333) / 200);
         for (Iterator<Point3i> i = interior.iterator(); i.hasNext();) {
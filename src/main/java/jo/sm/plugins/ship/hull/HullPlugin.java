@@ -142,7 +142,7 @@ public class HullPlugin implements IBlocksPlugin {
         }
         HollowPlugin.doHollow(modified, cb);
         if (ShipLogic.findCore(modified) == null) {
-            modified.set(params.getCenterX(), params.getCenterY(), params.getCenterZ(), new Block(BlockTypes.CORE_ID));
+            modified.set(params.getCenterX(), params.getCenterY(), params.getCenterZ(), Block.valueOf(BlockTypes.CORE_ID));
         }
         return modified;
     }
@@ -451,9 +451,6 @@ public class HullPlugin implements IBlocksPlugin {
     }
 
     private void addHull(SparseMatrix<Block> grid, int x, int y, int z, short type) {
-        Block b;
-        b = new Block();
-        b.setBlockID(type);
-        grid.set(x, y, z, b);
+        grid.set(x, y, z, Block.valueOf(type));
     }
 }
@@ -142,9 +142,7 @@ public class ImportBinvoxPlugin implements IBlocksPlugin {
                             && getVoxel(hull, x, y, z + 1)) {
                         continue;
                     }
-                    Block b = new Block();
-                    b.setBlockID(color);
-                    modified.set(x, y, z, b);
+                    modified.set(x, y, z, Block.valueOf(color));
                 }
             }
             log.log(Level.INFO, modified.size()+" blocks  "+Runtime.getRuntime().freeMemory());
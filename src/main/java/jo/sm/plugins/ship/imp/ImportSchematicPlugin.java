@@ -165,7 +165,7 @@ public class ImportSchematicPlugin implements IBlocksPlugin {
                         continue;
                     }
                     if (map.mSMBlock > 0) {
-                        grid.set(center.x + x, center.y + y, center.z + z, new Block((short) map.mSMBlock));
+                        grid.set(center.x + x, center.y + y, center.z + z, Block.valueOf((short) map.mSMBlock));
                     }
                 }
             }
@@ -164,7 +164,7 @@ public class PlotLogic {
     private static void plotArea(SparseMatrix<Block> grid, Collection<Point3i> area,
             short color) {
         for (Point3i p : area) {
-            grid.set(p, new Block(color));
+            grid.set(p, Block.valueOf(color));
         }
     }
 
@@ -184,7 +184,7 @@ public class PlotLogic {
             Point2f uv = Point2fLogic.interpolate(auv, buv, i / (float) (plot.size() - 1));
             short color;
             color = uvToColor(uv, img);
-            grid.set(p, new Block(color));
+            grid.set(p, Block.valueOf(color));
         }
     }
 
@@ -59,7 +59,7 @@ public class MovePlugin implements IBlocksPlugin {
                 if (newID == -1) {
                     continue;
                 }
-                b = new Block(newID);
+                b = Block.valueOf(newID);
             }
             modified.set(to, b);
         }
@@ -127,11 +127,11 @@ public class DuplicatePlugin implements IBlocksPlugin {
             }
             short ori;
             ori = b.getOrientation();
-            b = new Block(b.getBlockID());
+            b = Block.valueOf(b.getBlockID());
             if (BlockTypes.isWedge(b.getBlockID()) || BlockTypes.isPowerWedge(b.getBlockID()) || (b.getBlockID() == BlockTypes.GLASS_WEDGE_ID)) {
                 ori = WedgeLogic.reflect(ori, true, false, false);
                 if (ori >= 0) {
-                    b.setOrientation(ori);
+                    b = b.withOrientation(ori);
                 } else {
                     log.log(Level.WARNING, "Could not rotate wedge ori=" + b.getOrientation());
                 }
@@ -139,7 +139,7 @@ public class DuplicatePlugin implements IBlocksPlugin {
             if (BlockTypes.isCorner(b.getBlockID()) || BlockTypes.isPowerCorner(b.getBlockID()) || (b.getBlockID() == BlockTypes.GLASS_CORNER_ID)) {
                 ori = CornerLogic.reflect(ori, true, false, false);
                 if (ori >= 0) {
-                    b.setOrientation(ori);
+                    b = b.withOrientation(ori);
                 } else {
                     log.log(Level.WARNING, "Could not rotate corner ori=" + b.getOrientation());
                 }
@@ -201,11 +201,11 @@ public class DuplicatePlugin implements IBlocksPlugin {
             }
             short ori;
             ori = b.getOrientation();
-            b = new Block(b.getBlockID());
+            b = Block.valueOf(b.getBlockID());
             if (BlockTypes.isWedge(b.getBlockID()) || BlockTypes.isPowerWedge(b.getBlockID()) || (b.getBlockID() == BlockTypes.GLASS_WEDGE_ID)) {
                 ori = WedgeLogic.reflect(ori, false, true, false);
                 if (ori >= 0) {
-                    b.setOrientation(ori);
+                    b = b.withOrientation(ori);
                 } else {
                     log.log(Level.WARNING, "Could not rotate wedge ori=" + b.getOrientation());
                 }
@@ -213,7 +213,7 @@ public class DuplicatePlugin implements IBlocksPlugin {
             if (BlockTypes.isCorner(b.getBlockID()) || BlockTypes.isPowerCorner(b.getBlockID()) || (b.getBlockID() == BlockTypes.GLASS_CORNER_ID)) {
                 ori = CornerLogic.reflect(ori, false, true, false);
                 if (ori >= 0) {
-                    b.setOrientation(ori);
+                    b = b.withOrientation(ori);
                 } else {
                     log.log(Level.WARNING, "Could not rotate corner ori=" + b.getOrientation());
                 }
@@ -271,13 +271,13 @@ public class DuplicatePlugin implements IBlocksPlugin {
                 delta = xyz.z - lower.z;
                 xyz.z = lower.z - 1 - delta;
             }
-            b = new Block(b.getBlockID());
+            b = Block.valueOf(b.getBlockID());
             short ori;
             ori = b.getOrientation();
             if (BlockTypes.isWedge(b.getBlockID()) || BlockTypes.isPowerWedge(b.getBlockID()) || (b.getBlockID() == BlockTypes.GLASS_WEDGE_ID)) {
                 ori = WedgeLogic.reflect(ori, false, false, true);
                 if (ori >= 0) {
-                    b.setOrientation(ori);
+                    b = b.withOrientation(ori);
                 } else {
                     log.log(Level.WARNING, "Could not rotate wedge ori=" + b.getOrientation());
                 }
@@ -285,7 +285,7 @@ public class DuplicatePlugin implements IBlocksPlugin {
             if (BlockTypes.isCorner(b.getBlockID()) || BlockTypes.isPowerCorner(b.getBlockID()) || (b.getBlockID() == BlockTypes.GLASS_CORNER_ID)) {
                 ori = CornerLogic.reflect(ori, false, false, true);
                 if (ori >= 0) {
-                    b.setOrientation(ori);
+                    b = b.withOrientation(ori);
                 } else {
                     log.log(Level.WARNING, "Could not rotate corner ori=" + b.getOrientation());
                 }
@@ -120,7 +120,7 @@ public class ReflectPlugin implements IBlocksPlugin {
                 ori = b.getOrientation();
                 ori = WedgeLogic.reflect(ori, params.isXReflect(), params.isYReflect(), params.isZReflect());
                 if (ori >= 0) {
-                    b.setOrientation(ori);
+                    b = b.withOrientation(ori);
                 } else {
                     log.log(Level.WARNING, "Could not rotate wedge ori=" + b.getOrientation());
                 }
@@ -130,7 +130,7 @@ public class ReflectPlugin implements IBlocksPlugin {
                 ori = b.getOrientation();
                 ori = CornerLogic.reflect(ori, params.isXReflect(), params.isYReflect(), params.isZReflect());
                 if (ori >= 0) {
-                    b.setOrientation(ori);
+                    b = b.withOrientation(ori);
                 } else {
                     log.log(Level.WARNING, "Could not rotate corner ori=" + b.getOrientation());
                 }
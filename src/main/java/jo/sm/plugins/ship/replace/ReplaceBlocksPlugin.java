@@ -107,8 +107,7 @@ public class ReplaceBlocksPlugin implements IBlocksPlugin {
                 } else {
                     short oldOri;
                     oldOri = b.getOrientation();
-                    b = new Block(params.getColor2());
-                    b.setOrientation(oldOri);
+                    b = Block.valueOf(params.getColor2(), oldOri);
                 }
             }
             modified.set(xyz, b);
@@ -104,7 +104,7 @@ public class ReplacePlugin implements IBlocksPlugin {
             short newColor;
             newColor = BlockTypes.getColoredBlock(b.getBlockID(), params.getColor2());
             if (newColor >= 0) {
-                b.setBlockID(newColor);
+                b = b.withBlockID(newColor);
             }
         }
         return b;
@@ -17,7 +17,6 @@
  **/
 package jo.sm.plugins.ship.rotate;
 
-import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,39 +62,37 @@ public class RotatePlugin implements IBlocksPlugin {
         t.translate(around.x, around.y, around.z);
         log.log(Level.INFO, "Matrix: ", t);
         SparseMatrix<Block> modified = new SparseMatrix<Block>();
-        for (Iterator<Point3i> i = original.iteratorNonNull(); i.hasNext();) {
-            Point3i xyz;
-            xyz = i.next();
-            inPoint.x = xyz.x;
-            inPoint.y = xyz.y;
-            inPoint.z = xyz.z;
+        original.forEachNonNull((x, y, z, blockID, orientation) -> {
+            inPoint.x = x;
+            inPoint.y = y;
+            inPoint.z = z;
             inPoint.w = 1;
-            Block b;
-            b = original.get(xyz);
             t.transform(inPoint, outPoint);
-            log.log(Level.INFO, "  "+inPoint+" -> "+outPoint);
-            if (BlockTypes.isWedge(b.getBlockID()) || BlockTypes.isPowerWedge(b.getBlockID()) || (b.getBlockID() == BlockTypes.GLASS_WEDGE_ID)) {
-                short ori;
-                ori = b.getOrientation();
-                ori = WedgeLogic.rotate(ori, params.getXRotate() / 90, params.getYRotate() / 90, params.getZRotate() / 90);
-                if (ori >= 0) {
-                    b.setOrientation(ori);
+            if (log.isLoggable(Level.FINEST)) {
+                log.log(Level.FINEST, "  "+inPoint+" -> "+outPoint);
+            }
+            short ori;
+            ori = orientation;
+            if (BlockTypes.isWedge(blockID) || BlockTypes.isPowerWedge(blockID) || (blockID == BlockTypes.GLASS_WEDGE_ID)) {
+                short rotated;
+                rotated = WedgeLogic.rotate(ori, params.getXRotate() / 90, params.getYRotate() / 90, params.getZRotate() / 90);
+                if (rotated >= 0) {
+                    ori = rotated;
                 } else {
-                    log.log(Level.INFO, "Could not rotate wedge ori: " + b.getOrientation());
+                    log.log(Level.INFO, "Could not rotate wedge ori: " + ori);
                 }
             }
-            if (BlockTypes.isCorner(b.getBlockID()) || BlockTypes.isPowerCorner(b.getBlockID()) || (b.getBlockID() == BlockTypes.GLASS_CORNER_ID)) {
-                short ori;
-                ori = b.getOrientation();
-                ori = CornerLogic.rotate(ori, params.getXRotate() / 90, params.getYRotate() / 90, params.getZRotate() / 90);
-                if (ori >= 0) {
-                    b.setOrientation(ori);
+            if (BlockTypes.isCorner(blockID) || BlockTypes.isPowerCorner(blockID) || (blockID == BlockTypes.GLASS_CORNER_ID)) {
+                short rotated;
+                rotated = CornerLogic.rotate(ori, params.getXRotate() / 90, params.getYRotate() / 90, params.getZRotate() / 90);
+                if (rotated >= 0) {
+                    ori = rotated;
                 } else {
-                    log.log(Level.INFO, "Could not rotate corner ori: " + b.getOrientation());
+                    log.log(Level.INFO, "Could not rotate corner ori: " + ori);
                 }
             }
-            modified.set(outPoint.x, outPoint.y, outPoint.z, b);
-        }
+            modified.set(outPoint.x, outPoint.y, outPoint.z, blockID, ori);
+        });
         return modified;
     }
 
@@ -159,13 +156,6 @@ public class RotatePlugin implements IBlocksPlugin {
     }
 
     private Point3i findCore(SparseMatrix<Block> grid) {
-        for (Iterator<Point3i> i = grid.iteratorNonNull(); i.hasNext();) {
-            Point3i xyz;
-            xyz = i.next();
-            if (grid.get(xyz).getBlockID() == BlockTypes.CORE_ID) {
-                return xyz;
-            }
-        }
-        return null;
+        return ShipLogic.findFirstBlock(grid, BlockTypes.CORE_ID);
     }
 }
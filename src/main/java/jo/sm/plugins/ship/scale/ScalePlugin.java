@@ -109,9 +109,9 @@ public class ScalePlugin implements IBlocksPlugin {
                     for (int y = 0; y < size.y; y++) {
                         for (int z = 0; z < size.z; z++) {
                             Block newB;
-                            newB = new Block(b);
+                            newB = b;
                             if (BlockTypes.isController(newB.getBlockID())) {
-                                newB.setBlockID(BlockTypes.CONTROLLER_IDS.get(newB.getBlockID()));
+                                newB = newB.withBlockID(BlockTypes.CONTROLLER_IDS.get(newB.getBlockID()));
                             }
                             set(fPoint, x, y, z, modified, newB);
                         }
@@ -143,8 +143,6 @@ public class OmbrePlugin implements IBlocksPlugin {
             newColor = params.getColor1();
         }
         newColor = BlockTypes.getColoredBlock(b.getBlockID(), newColor);
-        b = new Block(b);
-        b.setBlockID(newColor);
-        return b;
+        return b.withBlockID(newColor);
     }
 }
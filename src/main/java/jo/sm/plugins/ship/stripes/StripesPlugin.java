@@ -130,9 +130,7 @@ public class StripesPlugin implements IBlocksPlugin {
         }
         short newColor;
         newColor = BlockTypes.getColoredBlock(b.getBlockID(), color ? params.getColor2() : params.getColor1());
-        b = new Block(b);
-        b.setBlockID(newColor);
-        return b;
+        return b.withBlockID(newColor);
     }
 
     private int mod(int value, int width) {
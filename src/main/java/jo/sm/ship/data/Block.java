@@ -17,44 +17,59 @@
  **/
 package jo.sm.ship.data;
 
+import jo.sm.data.BlockChunk;
 import jo.sm.ui.BlockTypeColors;
 
 /**
  * @Auther Jo Jaquinta for SMEdit Classic - version 1.0
+ *
+ * Blocks are immutable flyweights. Obtain them with valueOf, which hands out
+ * one shared instance per (id, orientation) pair, and derive changed blocks
+ * with withBlockID/withOrientation. They are safe to share between grids,
+ * snapshots and threads.
  **/
 public final class Block {
 
-    private short mBlockID;
-    private byte mOrientation;
+    private static final int ORIENTATIONS = 16;
+    private static final Block[] INTERNED = new Block[BlockChunk.ID_LIMIT * ORIENTATIONS];
+
+    private final short mBlockID;
+    private final byte mOrientation;
 
-    public Block() {
+    private Block(short id, short orientation) {
+        mBlockID = id;
+        mOrientation = (byte) orientation;
     }
 
-    public Block(short id) {
-        this();
-        setBlockID(id);
+    public static Block valueOf(short id) {
+        return valueOf(id, (short) 0);
     }
 
-    public Block(Block b) {
-        mBlockID = b.mBlockID;
-        mOrientation = b.mOrientation;
+    public static Block valueOf(short id, short orientation) {
+        if ((id < 0) || (id >= BlockChunk.ID_LIMIT) || (orientation < 0) || (orientation >= ORIENTATIONS)) {
+            return new Block(id, orientation);
+        }
+        int idx = id * ORIENTATIONS + orientation;
+        Block b = INTERNED[idx];
+        if (b == null) {
+            b = new Block(id, orientation);
+            INTERNED[idx] = b;
+        }
+        return b;
     }
 
     public short getBlockID() {
         return mBlockID;
     }
 
-    public void setBlockID(short blockID) {
-        mBlockID = blockID;
+    public Block withBlockID(short blockID) {
+        return valueOf(blockID, mOrientation);
     }
 
     public boolean isActive() {
         return false;
     }
 
-    public void setActive(boolean active) {
-    }
-
     public short getHitPoints() {
         if (BlockTypeColors.BLOCK_HITPOINTS.containsKey(mBlockID)) {
             return BlockTypeColors.BLOCK_HITPOINTS.get(mBlockID);
@@ -63,14 +78,25 @@ public final class Block {
         }
     }
 
-    public void setHitPoints(short hitPoints) {
-    }
-
     public short getOrientation() {
         return mOrientation;
     }
 
-    public void setOrientation(short orientation) {
-        mOrientation = (byte) orientation;
+    public Block withOrientation(short orientation) {
+        return valueOf(mBlockID, orientation);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Block)) {
+            return false;
+        }
+        Block b = (Block) o;
+        return (mBlockID == b.mBlockID) && (mOrientation == b.mOrientation);
+    }
+
+    @Override
+    public int hashCode() {
+        return (mBlockID << 8) ^ mOrientation;
     }
 }
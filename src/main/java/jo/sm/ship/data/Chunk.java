@@ -24,7 +24,7 @@ public class Chunk {
     private long mTimestamp;
     private Point3i mPosition;
     private int mType;
-    private Block[][][] mBlocks;
+    private short[] mBlocks;
 
     //
     private int mTypeIndexStart; //0
@@ -80,11 +80,15 @@ public class Chunk {
     }
 
     //
-    public Block[][][] getBlocks() {
+    /**
+     * Packed block values as stored by BlockChunk, indexed by
+     * BlockChunk.index(x, y, z).
+     **/
+    public short[] getBlocks() {
         return mBlocks;
     }
 
-    public void setBlocks(Block[][][] blocks) {
+    public void setBlocks(short[] blocks) {
         mBlocks = blocks;
     }
 
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ship.data;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import jo.sm.data.BlockChunk;
+import jo.vecmath.Point3i;
+
+/**
+ * What a set of .smd2 files held when they were last read or written: the
+ * grid chunks as they were then, plus the size and time of each superchunk
+ * file. Grid chunks are copied before they are changed, so any chunk still
+ * identical to the one recorded here is unchanged on disk.
+ **/
+public class DataBaseline {
+
+    private File mDataDir;
+    private String mBaseName;
+    private Map<Long, BlockChunk> mChunks;
+    private Map<Point3i, Long> mFileModified;
+    private Map<Point3i, Long> mFileLength;
+
+    public DataBaseline() {
+        mChunks = new HashMap<>();
+        mFileModified = new HashMap<>();
+        mFileLength = new HashMap<>();
+    }
+
+    public File getDataDir() {
+        return mDataDir;
+    }
+
+    public void setDataDir(File dataDir) {
+        mDataDir = dataDir;
+    }
+
+    public String getBaseName() {
+        return mBaseName;
+    }
+
+    public void setBaseName(String baseName) {
+        mBaseName = baseName;
+    }
+
+    public Map<Long, BlockChunk> getChunks() {
+        return mChunks;
+    }
+
+    public void setChunks(Map<Long, BlockChunk> chunks) {
+        mChunks = chunks;
+    }
+
+    public Map<Point3i, Long> getFileModified() {
+        return mFileModified;
+    }
+
+    public void setFileModified(Map<Point3i, Long> fileModified) {
+        mFileModified = fileModified;
+    }
+
+    public Map<Point3i, Long> getFileLength() {
+        return mFileLength;
+    }
+
+    public void setFileLength(Map<Point3i, Long> fileLength) {
+        mFileLength = fileLength;
+    }
+}
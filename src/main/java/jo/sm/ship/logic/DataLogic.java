@@ -17,10 +17,7 @@
  **/
 package jo.sm.ship.logic;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -28,24 +25,41 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
+import jo.sm.data.BlockChunk;
 import jo.sm.data.BlockTypes;
 import jo.sm.data.CubeIterator;
+import jo.sm.data.SparseMatrix;
 import jo.sm.logic.IOLogic;
 import jo.sm.logic.utils.DebugLogic;
 import jo.sm.mods.IPluginCallback;
 import jo.sm.ship.data.Block;
 import jo.sm.ship.data.Chunk;
 import jo.sm.ship.data.Data;
+import jo.sm.ship.data.DataBaseline;
 import jo.vecmath.Point3i;
 import jo.vecmath.logic.Point3iLogic;
 
@@ -53,9 +67,55 @@ import jo.vecmath.logic.Point3iLogic;
 public class DataLogic {
     private static final Logger log = Logger.getLogger(DataLogic.class.getName());
 
+    // per-thread scratch space for readChunk, which runs on the fork-join pool
+    private static final ThreadLocal<byte[]> INFLATE_BUFFER = ThreadLocal.withInitial(() -> new byte[BlockChunk.VOLUME * 3]);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    // and for encodeChunk
+    private static final ThreadLocal<byte[]> DEFLATE_BUFFER = ThreadLocal.withInitial(() -> new byte[BlockChunk.VOLUME * 3]);
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+
+    static final int CHUNKS_PER_FILE = 16 * 16 * 16;
+    static final int FILE_HEADER = 4 + CHUNKS_PER_FILE * 8 + CHUNKS_PER_FILE * 8;
+    static final int CHUNK_HEADER = 25;
+    static final int CHUNK_SLOT = 5120;
+
     public static Map<Point3i, Data> readFiles(File dataDir, String prefix, IPluginCallback cb) throws IOException {
         cb.setStatus("Reading " + prefix);
         Map<Point3i, Data> data = new HashMap<>();
+        List<File> files = findFiles(dataDir, prefix);
+        cb.startTask(files.size());
+        // superchunk files are independent, so decode them concurrently and
+        // collect the results here in order, where progress is reported
+        List<Future<Data>> reads = new ArrayList<>();
+        for (final File dataFile : files) {
+            reads.add(ForkJoinPool.commonPool().submit(() -> readDataFromEntityFile(dataFile)));
+        }
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                if (cb.isPleaseCancel()) {
+                    // a partial read must never be mistaken for the whole entity, as saving it would drop the rest
+                    for (Future<Data> read : reads) {
+                        read.cancel(true);
+                    }
+                    throw new InterruptedIOException("Cancelled reading " + prefix);
+                }
+                data.put(getSuperChunkIndex(files.get(i)), reads.get(i).get());
+                cb.workTask(1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + prefix);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed reading " + prefix, e.getCause());
+        }
+        cb.endTask();
+        return data;
+    }
+
+    private static List<File> findFiles(File dataDir, String prefix) {
         List<File> files = new ArrayList<>();
         for (File dataFile : dataDir.listFiles()) {
             if (dataFile.getName().endsWith(".smd2")
@@ -74,26 +134,57 @@ public class DataLogic {
                 }
             }
         }
-        cb.startTask(files.size());
-        for (File dataFile : files) {
-            readDataFromEntityFile(dataFile, data);
-            cb.workTask(1);
+        return files;
+    }
+
+    /**
+     * Opens the superchunk files for prefix without decoding any chunks.
+     * The caller must close the readers.
+     **/
+    public static Map<Point3i, SuperChunkReader> openFiles(File dataDir, String prefix) throws IOException {
+        Map<Point3i, SuperChunkReader> readers = new HashMap<>();
+        try {
+            for (File dataFile : findFiles(dataDir, prefix)) {
+                Point3i p = getSuperChunkIndex(dataFile);
+                readers.put(p, new SuperChunkReader(dataFile, p));
+            }
+        } catch (IOException e) {
+            for (SuperChunkReader reader : readers.values()) {
+                reader.close();
+            }
+            throw e;
         }
-        cb.endTask();
-        return data;
+        return readers;
     }
 
-    private static void readDataFromEntityFile(File dataFile,
-            Map<Point3i, Data> data) throws IOException, FileNotFoundException {
+    /**
+     * Reads just the chunks of prefix that overlap lower..upper into a grid,
+     * inflating nothing else, as ShipLogic.getBlocks does for open readers.
+     **/
+    public static SparseMatrix<Block> readRegion(File dataDir, String prefix, Point3i lower, Point3i upper) throws IOException {
+        Map<Point3i, SuperChunkReader> readers = openFiles(dataDir, prefix);
+        try {
+            return ShipLogic.getBlocks(readers.values(), lower, upper);
+        } finally {
+            for (SuperChunkReader reader : readers.values()) {
+                reader.close();
+            }
+        }
+    }
+
+    private static Point3i getSuperChunkIndex(File dataFile) {
         String[] parts = dataFile.getName().split("\\.");
         int l = parts.length;
-        Point3i position = new Point3i(Integer.parseInt(parts[l - 4]),
+        return new Point3i(Integer.parseInt(parts[l - 4]),
                 Integer.parseInt(parts[l - 3]),
                 Integer.parseInt(parts[l - 2]));
+    }
+
+    private static Data readDataFromEntityFile(File dataFile) throws IOException, FileNotFoundException {
+        Point3i position = getSuperChunkIndex(dataFile);
         log.log(Level.INFO, "Reading from " + dataFile.getName() + " - " + position);
         //System.out.println("Reading from " + dataFile.getName() + " - " + position);
-        Data datum = DataLogic.readFile(new FileInputStream(dataFile), true, position);
-        data.put(position, datum);
+        return DataLogic.readFile(new FileInputStream(dataFile), true, position);
     }
 
     public static Data readFile(InputStream is, boolean close) throws IOException {
@@ -133,58 +224,21 @@ public class DataLogic {
         long[][][] timestampTable = new long[16][16][16];
         IOLogic.readFully(dis, timestampTable);
         //data.setTimestampTable(unknown3);
-        List<Chunk> chunks = new ArrayList<>();
+        List<byte[]> chunkSlots = new ArrayList<>();
         for (int offset = 0; offset <= maxOffset; offset++) {
-            byte[] chunkData = new byte[5120];
+            byte[] chunkData = new byte[CHUNK_SLOT];
             try {
                 dis.readFully(chunkData);
             } catch (EOFException e) {
                 break;
             }
             //System.out.println(ByteUtils.toStringDump(chunkData));
-            DataInputStream dis2 = new DataInputStream(new ByteArrayInputStream(chunkData));
-            Chunk chunk = new Chunk();
-            chunk.setTimestamp(dis2.readLong());
-            chunk.setPosition(IOLogic.readPoint3i(dis2));
-            chunk.setType(dis2.readByte());
-            int compressedLen = dis2.readInt();
-            //System.out.println("Chunk "+chunk.getPosition());
-            //System.out.println("CompressedLen="+compressedLen);
-            byte[] compressedData = new byte[compressedLen];
-            dis2.readFully(compressedData);
-            DataInputStream dis3 = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressedData)));
-            Block[][][] blocks = new Block[16][16][16];
-            //int blockCount = 0;
-            byte[] inbuf = new byte[3];
-            for (int z = 0; z < 16; z++) {
-                for (int y = 0; y < 16; y++) {
-                    for (int x = 0; x < 16; x++) {
-                        blocks[x][y][z] = new Block();
-                        dis3.readFully(inbuf);
-                        int bitfield = toUnsignedInt(inbuf);
-                        blocks[x][y][z].setBlockID((short) ((bitfield >> 0) & 0x7ff));
-                        blocks[x][y][z].setHitPoints((short) ((bitfield >> 11) & 0x1ff));
-                        blocks[x][y][z].setActive(((bitfield >> 20) & 0x1) == 1);
-                        blocks[x][y][z].setOrientation((short) (((bitfield >> 21) & 0x7)
-                                | ((bitfield >> (20 - 3)) & 0x8)));
-                        //if (BlockTypes.isHull(blocks[x][y][z].getBlockID()))
-                        //    System.out.println("  Block "+Integer.toHexString(bitfield)
-                        //            +" (id="+ blocks[x][y][z].getBlockID()+", hp="+ blocks[x][y][z].getHitPoints()+")"
-                        //            +" "+ByteUtils.toString(inbuf));
-                        //if (bitfield != 0)
-                        //    blockCount++;
-                        if (blocks[x][y][z].getBlockID() <= 0) {
-                            blocks[x][y][z] = null; // clear out unneeded blocks
-                        } else if (DebugLogic.HULL_ONLY) {
-                            if (!BlockTypes.isAnyHull(blocks[x][y][z].getBlockID())) {
-                                blocks[x][y][z] = null; // clear out unneeded blocks
-                            }
-                        }
-                    }
-                }
-            }
-            //System.out.println("Block count="+blockCount);
-            chunk.setBlocks(blocks);
+            chunkSlots.add(chunkData);
+        }
+        Chunk[] decoded = readChunks(chunkSlots);
+        List<Chunk> chunks = new ArrayList<>();
+        for (int offset = 0; offset < decoded.length; offset++) {
+            Chunk chunk = decoded[offset];
             min = Point3iLogic.min(min, chunk.getPosition());
             max = Point3iLogic.max(max, chunk.getPosition());
             if (chunkOffsets.containsKey(offset)) {
@@ -252,90 +306,196 @@ public class DataLogic {
         return data;
     }
 
+    private static Chunk[] readChunks(final List<byte[]> chunkSlots) throws IOException {
+        final Chunk[] chunks = new Chunk[chunkSlots.size()];
+        try {
+            IntStream.range(0, chunks.length).parallel().forEach(offset -> {
+                try {
+                    chunks[offset] = readChunk(chunkSlots.get(offset));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return chunks;
+    }
+
+    static Chunk readChunk(byte[] chunkData) throws IOException {
+        Chunk chunk = new Chunk();
+        chunk.setTimestamp(getLong(chunkData, 0));
+        chunk.setPosition(new Point3i(getInt(chunkData, 8), getInt(chunkData, 12), getInt(chunkData, 16)));
+        chunk.setType(chunkData[20]);
+        int compressedLen = getInt(chunkData, 21);
+        //System.out.println("Chunk "+chunk.getPosition());
+        //System.out.println("CompressedLen="+compressedLen);
+        if ((compressedLen < 0) || (CHUNK_HEADER + compressedLen > chunkData.length)) {
+            throw new EOFException("Bad compressed length " + compressedLen + " in chunk " + chunk.getPosition());
+        }
+        byte[] inbuf = INFLATE_BUFFER.get();
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(chunkData, CHUNK_HEADER, compressedLen);
+        int len = 0;
+        try {
+            while (len < inbuf.length) {
+                int n = inflater.inflate(inbuf, len, inbuf.length - len);
+                if (n == 0) {
+                    if (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) {
+                        break;
+                    }
+                }
+                len += n;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Chunk " + chunk.getPosition() + ": " + e.getMessage());
+        }
+        if (len < inbuf.length) {
+            throw new EOFException("Chunk " + chunk.getPosition() + " inflated to " + len + " bytes");
+        }
+        // voxels are stored x fastest, then y, then z, which is BlockChunk.index order
+        short[] blocks = new short[BlockChunk.VOLUME];
+        for (int idx = 0, o = 0; idx < BlockChunk.VOLUME; idx++, o += 3) {
+            int bitfield = ((inbuf[o] & 0xff) << 16) | ((inbuf[o + 1] & 0xff) << 8) | (inbuf[o + 2] & 0xff);
+            int blockID = bitfield & 0x7ff;
+            if (blockID == 0) {
+                continue;
+            }
+            if (DebugLogic.HULL_ONLY && !BlockTypes.isAnyHull((short) blockID)) {
+                continue;
+            }
+            blocks[idx] = BlockChunk.pack(blockID, ((bitfield >> 21) & 0x7) | ((bitfield >> (20 - 3)) & 0x8));
+        }
+        chunk.setBlocks(blocks);
+        return chunk;
+    }
+
+    static int getInt(byte[] buf, int o) {
+        return ((buf[o] & 0xff) << 24) | ((buf[o + 1] & 0xff) << 16) | ((buf[o + 2] & 0xff) << 8) | (buf[o + 3] & 0xff);
+    }
+
+    static long getLong(byte[] buf, int o) {
+        return ((long) getInt(buf, o) << 32) | (getInt(buf, o + 4) & 0xffffffffL);
+    }
+
     public static void writeFile(Point3i superChunkIndex, Data data, OutputStream os, boolean close, IPluginCallback cb) throws IOException {
-        Point3i superChunkOrigin = ShipLogic.getSuperChunkOriginFromIndex(superChunkIndex);
         if (cb != null) {
             cb.setStatus("Writing " + superChunkIndex);
         }
-        DataOutputStream dos;
-        if (os instanceof DataOutputStream) {
-            dos = (DataOutputStream) os;
+        os.write(encodeFile(superChunkIndex, data, null, getHitPointTable()));
+        if (close) {
+            os.close();
         } else {
-            dos = new DataOutputStream(os);
+            os.flush();
         }
-        dos.writeInt(0); // non-compressed header
+    }
 
-        int[][][][] offsetSizeTable = new int[16][16][16][2];
-        for (int z = 0; z < 16; z++) {
-            for (int y = 0; y < 16; y++) {
-                for (int x = 0; x < 16; x++) {
-                    offsetSizeTable[x][y][z][0] = -1;
-                }
-            }
+    // the whole superchunk file is laid out in memory and written in one go;
+    // chunks with a non-null entry in reuse are copied over as already encoded
+    private static byte[] encodeFile(Point3i superChunkIndex, Data data, byte[][] reuse, short[] hitPoints) throws IOException {
+        Point3i superChunkOrigin = ShipLogic.getSuperChunkOriginFromIndex(superChunkIndex);
+        final Chunk[] chunks = data.getChunks();
+        final byte[][] slots = new byte[chunks.length][];
+        IntStream.range(0, chunks.length).parallel().forEach(i -> slots[i] = ((reuse != null) && (reuse[i] != null)) ? reuse[i] : encodeChunk(chunks[i], hitPoints));
+
+        // offset/size and timestamp tables are both indexed [z][y][x]
+        int[] offsetSizeTable = new int[CHUNKS_PER_FILE * 2];
+        for (int i = 0; i < offsetSizeTable.length; i += 2) {
+            offsetSizeTable[i] = -1;
         }
-        long[][][] timestampTable = new long[16][16][16];
-        ByteArrayOutputStream baos2 = new ByteArrayOutputStream();
-        DataOutputStream dos2 = new DataOutputStream(baos2);
-        for (int i = 0; i < data.getChunks().length; i++) {
-            Chunk chunk = data.getChunks()[i];
-            ByteArrayOutputStream baos3 = new ByteArrayOutputStream();
-            //int blockCount = 0;
-            try (DataOutputStream dos3 = new DataOutputStream(new DeflaterOutputStream(baos3))) {
-                //int blockCount = 0;
-                for (int z = 0; z < 16; z++) {
-                    for (int y = 0; y < 16; y++) {
-                        for (int x = 0; x < 16; x++) {
-                            Block b = chunk.getBlocks()[x][y][z];
-                            int bitfield = 0;
-                            if (b != null) {
-                                bitfield |= ((b.getBlockID() & 0x7ff) << 0);
-                                bitfield |= ((b.getHitPoints() & 0x1ff) << 11);
-                                bitfield |= ((b.getOrientation() & 0x8) << (20 - 3));
-                                bitfield |= ((b.getOrientation() & 0x7) << 21);
-//                            blockCount++;
-//                            if (BlockTypes.isHull(b.getBlockID()))
-//                                System.out.println("  Block "+Integer.toHexString(bitfield)
-//                                        +" (id="+b.getBlockID()+", hp="+b.getHitPoints()+")"
-//                                        +" "+ByteUtils.toString(fromUnsignedInt(bitfield)));
-                            }
-                            dos3.write(fromUnsignedInt(bitfield));
-                        }
-                    }
-                }
-            }
-            byte[] compressedData = baos3.toByteArray();
-            //System.out.println("Block count="+blockCount);
-
-            dos2.writeLong(chunk.getTimestamp());
-            IOLogic.write(dos2, chunk.getPosition());
-            dos2.writeByte(chunk.getType());
-            //System.out.println("CompressedLen="+compressedData.length);
-            dos2.writeInt(compressedData.length);
-            dos2.write(compressedData);
-            for (int j = 25 + compressedData.length; j < 5120; j++) {
-                dos2.writeByte(0);
-            }
+        long[] timestampTable = new long[CHUNKS_PER_FILE];
+        int length = FILE_HEADER;
+        for (int i = 0; i < chunks.length; i++) {
+            Chunk chunk = chunks[i];
+            length += slots[i].length;
             Point3i chunkIndex = ShipLogic.getChunkIndexFromSuperchunkOriginAndChunkPosition(superChunkOrigin, chunk.getPosition());
-            try {
-                offsetSizeTable[chunkIndex.z][chunkIndex.y][chunkIndex.x][1] = 25 + compressedData.length;
-                offsetSizeTable[chunkIndex.z][chunkIndex.y][chunkIndex.x][0] = i;
-                timestampTable[chunkIndex.z][chunkIndex.y][chunkIndex.x] = chunk.getTimestamp();
-            } catch (ArrayIndexOutOfBoundsException e) {
-                e.printStackTrace();
+            if ((chunkIndex.x < 0) || (chunkIndex.x > 15) || (chunkIndex.y < 0) || (chunkIndex.y > 15)
+                    || (chunkIndex.z < 0) || (chunkIndex.z > 15)) {
                 log.log(Level.INFO, "ChunkPosition: " + chunk.getPosition() + "SuperChunkIndex: " + superChunkIndex + ", index=" + chunkIndex);
-                //System.out.println("ChunkPosition: " + chunk.getPosition() + "SuperChunkIndex: " + superChunkIndex + ", index=" + chunkIndex);
+                continue;
+            }
+            int t = (chunkIndex.z << 8) | (chunkIndex.y << 4) | chunkIndex.x;
+            offsetSizeTable[t * 2] = i;
+            offsetSizeTable[t * 2 + 1] = CHUNK_HEADER + getInt(slots[i], 21);
+            timestampTable[t] = chunk.getTimestamp();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.putInt(0); // non-compressed header
+        buf.asIntBuffer().put(offsetSizeTable);
+        buf.position(buf.position() + offsetSizeTable.length * 4);
+        buf.asLongBuffer().put(timestampTable);
+        buf.position(buf.position() + timestampTable.length * 8);
+        for (byte[] slot : slots) {
+            buf.put(slot);
+        }
+        return buf.array();
+    }
+
+    private static byte[] encodeChunk(Chunk chunk, short[] hitPoints) {
+        // voxels are stored x fastest, then y, then z, which is BlockChunk.index order
+        byte[] raw = DEFLATE_BUFFER.get();
+        short[] blocks = chunk.getBlocks();
+        for (int idx = 0, o = 0; idx < BlockChunk.VOLUME; idx++, o += 3) {
+            short packed = blocks[idx];
+            int bitfield = 0;
+            if (packed != 0) {
+                short blockID = BlockChunk.getBlockID(packed);
+                short orientation = BlockChunk.getOrientation(packed);
+                bitfield |= ((blockID & 0x7ff) << 0);
+                bitfield |= ((hitPoints[blockID] & 0x1ff) << 11);
+                bitfield |= ((orientation & 0x8) << (20 - 3));
+                bitfield |= ((orientation & 0x7) << 21);
+            }
+            raw[o] = (byte) (bitfield >> 16);
+            raw[o + 1] = (byte) (bitfield >> 8);
+            raw[o + 2] = (byte) bitfield;
+        }
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        // compress straight into the zero padded slot, growing it in the rare
+        // case the data does not fit, as the old stream writer allowed
+        byte[] slot = new byte[CHUNK_SLOT];
+        int len = 0;
+        while (!deflater.finished()) {
+            if (CHUNK_HEADER + len == slot.length) {
+                slot = Arrays.copyOf(slot, slot.length * 2);
             }
+            len += deflater.deflate(slot, CHUNK_HEADER + len, slot.length - CHUNK_HEADER - len);
+        }
+        if (CHUNK_HEADER + len > CHUNK_SLOT) {
+            slot = Arrays.copyOf(slot, CHUNK_HEADER + len);
         }
-        dos2.flush();
+        putLong(slot, 0, chunk.getTimestamp());
+        putInt(slot, 8, chunk.getPosition().x);
+        putInt(slot, 12, chunk.getPosition().y);
+        putInt(slot, 16, chunk.getPosition().z);
+        slot[20] = (byte) chunk.getType();
+        putInt(slot, 21, len);
+        return slot;
+    }
 
-        // chunk index
-        IOLogic.write(dos, offsetSizeTable);
-        IOLogic.write(dos, timestampTable);
-        dos.write(baos2.toByteArray());
+    private static void putInt(byte[] buf, int o, int v) {
+        buf[o] = (byte) (v >> 24);
+        buf[o + 1] = (byte) (v >> 16);
+        buf[o + 2] = (byte) (v >> 8);
+        buf[o + 3] = (byte) v;
+    }
 
-        if (close) {
-            dos.close();
+    private static void putLong(byte[] buf, int o, long v) {
+        putInt(buf, o, (int) (v >> 32));
+        putInt(buf, o + 4, (int) v);
+    }
+
+    // snapshot of Block.getHitPoints() so the encoder avoids a map lookup per voxel
+    private static short[] getHitPointTable() {
+        short[] hitPoints = new short[BlockChunk.ID_LIMIT];
+        for (int id = 1; id < hitPoints.length; id++) {
+            hitPoints[id] = Block.valueOf((short) id).getHitPoints();
         }
+        return hitPoints;
     }
 
     public static Point3i getLocalIndex(Point3i superChunkIndex,
@@ -356,30 +516,26 @@ public class DataLogic {
         return index;
     }
 
-    private static byte[] fromUnsignedInt(int i) {
-        byte[] outbuf = new byte[3];
-        outbuf[2] = (byte) (i & 0xff);
-        i >>= 8;
-        outbuf[1] = (byte) (i & 0xff);
-        i >>= 8;
-        outbuf[0] = (byte) (i & 0xff);
-        return outbuf;
-    }
-
-    private static int toUnsignedInt(byte[] bytes) {
-        return toUnsignedInt(bytes, 0, bytes.length);
-    }
-
-    private static int toUnsignedInt(byte[] bytes, int o, int l) {
-        long v = 0;
-        for (int i = 0; i < l; i++) {
-            v = (v << 8) | (bytes[o + i] & 0xff);
-        }
-        return (int) v;
-    }
-
+    /**
+     * Writes data as the files for baseName in baseDir, replacing any there.
+     * Every file is encoded before the old ones are touched, so a cancel,
+     * which throws InterruptedIOException, leaves them as they were.
+     **/
     public static void writeFiles(Map<Point3i, Data> data, File baseDir,
             String baseName, IPluginCallback cb) throws IOException {
+        if (cb != null) {
+            cb.setStatus("Writing " + baseName);
+            cb.startTask(data.size());
+        }
+        List<Point3i> indexes = new ArrayList<>(data.keySet());
+        // superchunk files are independent, so encode them concurrently and
+        // collect the results here, where progress is reported
+        final short[] hitPoints = getHitPointTable();
+        List<Future<byte[]>> encodes = new ArrayList<>();
+        for (final Point3i p : indexes) {
+            encodes.add(ForkJoinPool.commonPool().submit(() -> encodeFile(p, data.get(p), null, hitPoints)));
+        }
+        List<byte[]> encoded = getEncoded(encodes, baseName, cb);
         // clean up first
         File[] oldFiles = baseDir.listFiles();
         if (oldFiles != null) {
@@ -389,61 +545,236 @@ public class DataLogic {
                 }
             }
         }
+        for (int i = 0; i < indexes.size(); i++) {
+            Point3i p = indexes.get(i);
+            log.log(Level.INFO, "Writing to " + getDataFile(baseDir, baseName, p).getName() + " - " + p);
+            replaceFile(getDataFile(baseDir, baseName, p), encoded.get(i));
+        }
         if (cb != null) {
-            cb.setStatus("Writing " + baseName);
-            cb.startTask(data.size());
+            cb.endTask();
         }
-        for (Point3i p : data.keySet()) {
-            File dataFile = new File(baseDir, baseName + "." + p.x + "." + p.y + "." + p.z + ".smd2");
-            // TEST
-            /*
-             byte[] original = FileUtils.readFile(dataFile.toString());
-             //String oTxt = ByteUtils.toStringDump(original);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             writeFile(data.get(p), baos, true);
-             byte[] save = baos.toByteArray();
-             String sTxt = ByteUtils.toStringDump(save);
-             if (oTxt.equals(sTxt))
-             System.out.println("Identical");
-             else
-             {
-             StringTokenizer oST = new StringTokenizer(oTxt, "\r\n");
-             StringTokenizer sST = new StringTokenizer(sTxt, "\r\n");
-             while (oST.hasMoreTokens())
-             {
-             String oLine = oST.nextToken();
-             String sLine = sST.nextToken();
-             if (!oLine.equals(sLine))
-             {
-             System.out.println("O: "+oLine);
-             System.out.println("S: "+sLine);
-             }
-             }
-             }
-             try
-             {
-             readFile(new ByteArrayInputStream(save), true);
-             }
-             catch (Exception e)
-             {
-             e.printStackTrace();
-             return;
-             }
-             */
-            if (dataFile.exists()) {
-                File dest = new File(baseDir, baseName + "." + p.x + "." + p.y + "." + p.z + ".smd2.bak");
-                if (dest.exists()) {
-                    dest.delete();
+    }
+
+    // waits for the encodes in order, stopping them all if the user cancels,
+    // which must happen before any file is changed
+    private static List<byte[]> getEncoded(List<Future<byte[]>> encodes, String baseName, IPluginCallback cb) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(encodes.size());
+        try {
+            for (Future<byte[]> encode : encodes) {
+                if ((cb != null) && cb.isPleaseCancel()) {
+                    for (Future<byte[]> e : encodes) {
+                        e.cancel(true);
+                    }
+                    throw new InterruptedIOException("Cancelled writing " + baseName);
+                }
+                encoded.add(encode.get());
+                if (cb != null) {
+                    cb.workTask(1);
                 }
-                dataFile.renameTo(dest);
             }
-            writeFile(p, data.get(p), new FileOutputStream(dataFile), true, cb);
+        } catch (InterruptedException e) {
+            for (Future<byte[]> encode : encodes) {
+                encode.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted writing " + baseName);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed writing " + baseName, e.getCause());
+        }
+        return encoded;
+    }
+
+    // keeps the previous contents of dataFile as a .bak beside it
+    private static void replaceFile(File dataFile, byte[] bytes) throws IOException {
+        if (dataFile.exists()) {
+            File dest = new File(dataFile.getParentFile(), dataFile.getName() + ".bak");
+            if (dest.exists()) {
+                dest.delete();
+            }
+            dataFile.renameTo(dest);
+        }
+        try (OutputStream os = new FileOutputStream(dataFile)) {
+            os.write(bytes);
+        }
+    }
+
+    /**
+     * Records what the files for baseName in dataDir hold, given that they
+     * were just read into, or written from, grid.
+     **/
+    public static DataBaseline getBaseline(SparseMatrix<Block> grid, File dataDir, String baseName) {
+        return getBaseline(grid.snapshot(), dataDir, baseName);
+    }
+
+    private static DataBaseline getBaseline(Map<Long, BlockChunk> chunks, File dataDir, String baseName) {
+        if (DebugLogic.HULL_ONLY) {
+            return null; // the grid does not hold everything on disk
+        }
+        DataBaseline baseline = new DataBaseline();
+        baseline.setDataDir(dataDir);
+        baseline.setBaseName(baseName);
+        baseline.setChunks(chunks);
+        for (Point3i p : groupBySuperChunk(chunks.values()).keySet()) {
+            File dataFile = getDataFile(dataDir, baseName, p);
+            if (dataFile.exists()) {
+                baseline.getFileModified().put(p, dataFile.lastModified());
+                baseline.getFileLength().put(p, dataFile.length());
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * Saves grid to the files for baseName in baseDir. If baseline describes
+     * those files, only superchunk files holding chunks changed since then
+     * are rewritten, and the unchanged chunks in them are copied across
+     * still compressed. Otherwise everything is written. Returns the
+     * baseline for the files as now saved. A cancel throws
+     * InterruptedIOException before any file is changed.
+     **/
+    public static DataBaseline writeFiles(SparseMatrix<Block> grid, DataBaseline baseline, File baseDir,
+            String baseName, IPluginCallback cb) throws IOException {
+        Map<Long, BlockChunk> chunks = grid.snapshot();
+        if ((baseline == null) || !baseDir.equals(baseline.getDataDir()) || !baseName.equals(baseline.getBaseName())) {
+            writeFiles(ShipLogic.getData(chunks.values()), baseDir, baseName, cb);
+            return getBaseline(chunks, baseDir, baseName);
+        }
+        Map<Point3i, List<BlockChunk>> current = groupBySuperChunk(chunks.values());
+        Map<Long, BlockChunk> saved = baseline.getChunks();
+        Set<Point3i> dirty = new HashSet<>();
+        for (BlockChunk chunk : chunks.values()) {
+            if (saved.get(chunk.getKey()) != chunk) {
+                dirty.add(getSuperChunkIndex(chunk));
+            }
+        }
+        for (BlockChunk chunk : saved.values()) {
+            if (!chunks.containsKey(chunk.getKey())) {
+                dirty.add(getSuperChunkIndex(chunk));
+            }
+        }
+        for (Point3i p : current.keySet()) {
+            if (!isUnchangedOnDisk(baseline, p)) {
+                dirty.add(p);
+            }
+        }
+        if (cb != null) {
+            cb.setStatus("Writing " + baseName);
+            cb.startTask(dirty.size());
+        }
+        log.log(Level.INFO, "Writing " + dirty.size() + " of " + current.size() + " superchunk files for " + baseName);
+        final long now = System.currentTimeMillis();
+        final short[] hitPoints = getHitPointTable();
+        List<Point3i> rewrites = new ArrayList<>();
+        List<Point3i> removes = new ArrayList<>();
+        List<Future<byte[]>> encodes = new ArrayList<>();
+        for (final Point3i p : dirty) {
+            final List<BlockChunk> assembly = current.get(p);
+            final File dataFile = getDataFile(baseDir, baseName, p);
+            if (assembly == null) {
+                removes.add(p);
+                continue;
+            }
+            final boolean reusable = isUnchangedOnDisk(baseline, p);
+            rewrites.add(p);
+            encodes.add(ForkJoinPool.commonPool().submit(() -> {
+                Map<Long, byte[]> oldSlots = reusable ? readSlots(dataFile, p) : new HashMap<Long, byte[]>();
+                Chunk[] fileChunks = new Chunk[assembly.size()];
+                byte[][] reuse = new byte[assembly.size()][];
+                for (int i = 0; i < fileChunks.length; i++) {
+                    BlockChunk c = assembly.get(i);
+                    Chunk chunk = new Chunk();
+                    chunk.setPosition(new Point3i(c.getOriginX(), c.getOriginY(), c.getOriginZ()));
+                    chunk.setType(1);
+                    byte[] slot = (saved.get(c.getKey()) == c) ? oldSlots.get(c.getKey()) : null;
+                    if (slot != null) {
+                        reuse[i] = slot;
+                        chunk.setTimestamp(getLong(slot, 0));
+                    } else {
+                        chunk.setBlocks(c.toArray());
+                        chunk.setTimestamp(now);
+                    }
+                    fileChunks[i] = chunk;
+                }
+                Data data = new Data();
+                data.setChunks(fileChunks);
+                return encodeFile(p, data, reuse, hitPoints);
+            }));
+        }
+        // nothing on disk changes until every file is encoded, so a cancel
+        // leaves the files and the caller's baseline as they were
+        List<byte[]> encoded = getEncoded(encodes, baseName, cb);
+        for (Point3i p : removes) {
+            getDataFile(baseDir, baseName, p).delete();
             if (cb != null) {
                 cb.workTask(1);
             }
         }
+        for (int i = 0; i < rewrites.size(); i++) {
+            replaceFile(getDataFile(baseDir, baseName, rewrites.get(i)), encoded.get(i));
+        }
         if (cb != null) {
             cb.endTask();
         }
+        return getBaseline(chunks, baseDir, baseName);
+    }
+
+    private static File getDataFile(File dataDir, String baseName, Point3i p) {
+        return new File(dataDir, baseName + "." + p.x + "." + p.y + "." + p.z + ".smd2");
+    }
+
+    private static Point3i getSuperChunkIndex(BlockChunk chunk) {
+        return ShipLogic.getSuperChunkIndexFromPoint(new Point3i(chunk.getOriginX(), chunk.getOriginY(), chunk.getOriginZ()));
+    }
+
+    private static Map<Point3i, List<BlockChunk>> groupBySuperChunk(Collection<BlockChunk> chunks) {
+        Map<Point3i, List<BlockChunk>> groups = new HashMap<>();
+        for (BlockChunk chunk : chunks) {
+            Point3i p = getSuperChunkIndex(chunk);
+            List<BlockChunk> group = groups.get(p);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(p, group);
+            }
+            group.add(chunk);
+        }
+        return groups;
+    }
+
+    private static boolean isUnchangedOnDisk(DataBaseline baseline, Point3i p) {
+        File dataFile = getDataFile(baseline.getDataDir(), baseline.getBaseName(), p);
+        Long modified = baseline.getFileModified().get(p);
+        Long length = baseline.getFileLength().get(p);
+        return (modified != null) && (length != null) && dataFile.exists()
+                && (dataFile.lastModified() == modified) && (dataFile.length() == length);
+    }
+
+    // compressed chunk slots of an existing file, keyed by BlockChunk.key,
+    // skipping any whose header disagrees with the offset table
+    private static Map<Long, byte[]> readSlots(File dataFile, Point3i superChunkIndex) throws IOException {
+        Map<Long, byte[]> slots = new HashMap<>();
+        byte[] bytes = Files.readAllBytes(dataFile.toPath());
+        if (bytes.length < FILE_HEADER) {
+            return slots;
+        }
+        Point3i superChunkOrigin = ShipLogic.getSuperChunkOriginFromIndex(superChunkIndex);
+        for (int t = 0; t < CHUNKS_PER_FILE; t++) {
+            int offset = getInt(bytes, 4 + t * 8);
+            int size = getInt(bytes, 8 + t * 8);
+            int start = FILE_HEADER + offset * CHUNK_SLOT;
+            if ((offset < 0) || (size > CHUNK_SLOT) || (start + CHUNK_SLOT > bytes.length)) {
+                continue;
+            }
+            Point3i expected = ShipLogic.getChunkPositionFromSuperchunkOriginAndChunkIndex(superChunkOrigin,
+                    new Point3i(t & 0xf, (t >> 4) & 0xf, t >> 8));
+            if ((getInt(bytes, start + 8) != expected.x) || (getInt(bytes, start + 12) != expected.y)
+                    || (getInt(bytes, start + 16) != expected.z)) {
+                continue;
+            }
+            slots.put(BlockChunk.key(expected.x, expected.y, expected.z), Arrays.copyOfRange(bytes, start, start + CHUNK_SLOT));
+        }
+        return slots;
     }
 }
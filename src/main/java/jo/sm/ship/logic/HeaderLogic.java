@@ -23,7 +23,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -109,16 +108,15 @@ public class HeaderLogic {
         Point3i upper = new Point3i();
         grid.getBounds(lower, upper);
         Map<Short, BlockEntry> manifest = new HashMap<>();
-        for (Iterator<Point3i> i = grid.iteratorNonNull(); i.hasNext();) {
-            Block b = grid.get(i.next());
-            BlockEntry entry = manifest.get(b.getBlockID());
-            if (entry == null) {
-                entry = new BlockEntry();
-                entry.setBlockID(b.getBlockID());
-                entry.setBlockQuantity(0);
-                manifest.put(b.getBlockID(), entry);
+        int[] counts = grid.getTypeCounts();
+        for (short id = 0; id < counts.length; id++) {
+            if (counts[id] == 0) {
+                continue;
             }
-            entry.setBlockQuantity(entry.getBlockQuantity() + 1);
+            BlockEntry entry = new BlockEntry();
+            entry.setBlockID(id);
+            entry.setBlockQuantity(counts[id]);
+            manifest.put(id, entry);
         }
 
         Header header = new Header();
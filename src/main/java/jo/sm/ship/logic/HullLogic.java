@@ -72,7 +72,8 @@ public class HullLogic {
             }
             short newID = filter.get(oldID);
             if (newID != -1) {
-                block.setBlockID(newID);
+                block = block.withBlockID(newID);
+                grid.set(coords, block);
             }
         }
     }
@@ -23,8 +23,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -110,6 +111,7 @@ public class LogicLogic {
         logic.getControllers().add(coreController);
         // controlled blocks
         List<Point3i> controllerBlocks = findAllControllerBlocks(grid);
+        Map<Short, List<Point3i>> controlledByType = new HashMap<>();
         for (Point3i controllerBlockPosition : controllerBlocks) {
             Block controllerBlock = grid.get(controllerBlockPosition);
             GroupEntry controllerGroup = new GroupEntry();
@@ -124,7 +126,11 @@ public class LogicLogic {
             controlledEntry.getGroups().add(controlledGroup);
             short controlledBlockID = BlockTypes.CONTROLLER_IDS.get(controllerBlock.getBlockID());
             controlledGroup.setBlockID(controlledBlockID);
-            List<Point3i> controlledBlocks = ShipLogic.findBlocks(grid, controlledBlockID);
+            List<Point3i> controlledBlocks = controlledByType.get(controlledBlockID);
+            if (controlledBlocks == null) {
+                controlledBlocks = ShipLogic.findBlocks(grid, controlledBlockID);
+                controlledByType.put(controlledBlockID, controlledBlocks);
+            }
             for (Point3i block : controlledBlocks) {
                 controlledGroup.getBlocks().add(new Point3s(block));
             }
@@ -147,12 +153,8 @@ public class LogicLogic {
 
     private static List<Point3i> findAllControllerBlocks(SparseMatrix<Block> grid) {
         List<Point3i> blocks = new ArrayList<>();
-        for (Iterator<Point3i> i = grid.iteratorNonNull(); i.hasNext();) {
-            Point3i pp = i.next();
-            Block b = grid.get(pp);
-            if (BlockTypes.isController(b.getBlockID())) {
-                blocks.add(pp);
-            }
+        for (short controllerID : BlockTypes.CONTROLLER_IDS.keySet()) {
+            grid.forEachOfType(controllerID, (x, y, z, blockID, orientation) -> blocks.add(new Point3i(x, y, z)));
         }
         return blocks;
     }
@@ -17,14 +17,17 @@
  **/
 package jo.sm.ship.logic;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
+import jo.sm.data.BlockChunk;
 import jo.sm.data.BlockTypes;
-import jo.sm.data.CubeIterator;
 import jo.sm.data.SparseMatrix;
 import jo.sm.ship.data.Block;
 import jo.sm.ship.data.Chunk;
@@ -40,22 +43,25 @@ public class ShipLogic {
         boolean first = true;
         for (Chunk c : datum.getChunks()) {
             Point3i pos = c.getPosition();
-            for (CubeIterator i = new CubeIterator(new Point3i(0, 0, 0), new Point3i(15, 15, 15)); i.hasNext();) {
-                Point3i xyz = i.next();
-                if ((c.getBlocks()[xyz.x][xyz.y][xyz.z] == null) || (c.getBlocks()[xyz.x][xyz.y][xyz.z].getBlockID() <= 0)) {
+            short[] blocks = c.getBlocks();
+            for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+                if ((blocks[idx] == 0) || (BlockChunk.getBlockID(blocks[idx]) <= 0)) {
                     continue;
                 }
+                int x = pos.x + BlockChunk.indexX(idx);
+                int y = pos.y + BlockChunk.indexY(idx);
+                int z = pos.z + BlockChunk.indexZ(idx);
                 if (first) {
-                    lower.add(pos, xyz);
-                    upper.add(pos, xyz);
+                    lower.set(x, y, z);
+                    upper.set(x, y, z);
                     first = false;
                 } else {
-                    lower.x = Math.min(lower.x, pos.x + xyz.x);
-                    lower.y = Math.min(lower.y, pos.y + xyz.y);
-                    lower.z = Math.min(lower.z, pos.z + xyz.z);
-                    upper.x = Math.max(upper.x, pos.x + xyz.x);
-                    upper.y = Math.max(upper.y, pos.y + xyz.y);
-                    upper.z = Math.max(upper.z, pos.z + xyz.z);
+                    lower.x = Math.min(lower.x, x);
+                    lower.y = Math.min(lower.y, y);
+                    lower.z = Math.min(lower.z, z);
+                    upper.x = Math.max(upper.x, x);
+                    upper.y = Math.max(upper.y, y);
+                    upper.z = Math.max(upper.z, z);
                 }
             }
         }
@@ -105,63 +111,79 @@ public class ShipLogic {
                 //p.x += dataOrigin.x*256;
                 //p.y += dataOrigin.y*256;
                 //p.z += dataOrigin.z*256;
-                for (CubeIterator i = new CubeIterator(new Point3i(0, 0, 0), new Point3i(15, 15, 15)); i.hasNext();) {
-                    Point3i xyz = i.next();
-                    Block b = c.getBlocks()[xyz.x][xyz.y][xyz.z];
-                    if ((b != null) && (b.getBlockID() > 0)) {
-                        blocks.set(p.x + xyz.x, p.y + xyz.y, p.z + xyz.z, b);
-                    }
+                blocks.setChunk(p.x, p.y, p.z, c.getBlocks());
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Builds a grid from just the chunks overlapping lower..upper, decoding
+     * them on demand from the given readers. Whole chunks are added, so the
+     * grid may extend up to 15 blocks past the requested bounds.
+     **/
+    public static SparseMatrix<Block> getBlocks(Collection<SuperChunkReader> readers, Point3i lower, Point3i upper) throws IOException {
+        final List<SuperChunkReader> owners = new ArrayList<>();
+        final List<Point3i> positions = new ArrayList<>();
+        for (SuperChunkReader reader : readers) {
+            for (Point3i p : reader.getChunkPositions()) {
+                if ((p.x + BlockChunk.MASK < lower.x) || (p.x > upper.x)
+                        || (p.y + BlockChunk.MASK < lower.y) || (p.y > upper.y)
+                        || (p.z + BlockChunk.MASK < lower.z) || (p.z > upper.z)) {
+                    continue;
                 }
+                owners.add(reader);
+                positions.add(p);
             }
         }
+        final Chunk[] chunks = new Chunk[positions.size()];
+        try {
+            IntStream.range(0, chunks.length).parallel().forEach(i -> {
+                try {
+                    chunks[i] = owners.get(i).getChunk(positions.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        SparseMatrix<Block> blocks = new SparseMatrix<>();
+        for (Chunk c : chunks) {
+            Point3i p = c.getPosition();
+            blocks.setChunk(p.x, p.y, p.z, c.getBlocks());
+        }
         return blocks;
     }
 
     public static Map<Point3i, Data> getData(SparseMatrix<Block> blocks) {
+        return getData(blocks.getChunks());
+    }
+
+    public static Map<Point3i, Data> getData(Collection<BlockChunk> blocks) {
         long now = System.currentTimeMillis();
-        Map<Point3i, Map<Point3i, Chunk>> assemblies = new HashMap<>();
-        for (Iterator<Point3i> i = blocks.iteratorNonNull(); i.hasNext();) {
-            Point3i universePoint = i.next();
-            Point3i superChunkIndex = getSuperChunkIndexFromPoint(universePoint);
-            Point3i superChunkOrigin = getSuperChunkOriginFromIndex(superChunkIndex);
-            Point3i superChunkLower = getSuperChunkLowerFromOrigin(superChunkOrigin);
-            Map<Point3i, Chunk> assembly = assemblies.get(superChunkIndex);
+        // grid chunks and file chunks are both 16-aligned, so each grid chunk
+        // maps onto exactly one file chunk
+        Map<Point3i, List<Chunk>> assemblies = new HashMap<>();
+        for (BlockChunk c : blocks) {
+            Point3i chunkPosition = new Point3i(c.getOriginX(), c.getOriginY(), c.getOriginZ());
+            Point3i superChunkIndex = getSuperChunkIndexFromPoint(chunkPosition);
+            List<Chunk> assembly = assemblies.get(superChunkIndex);
             if (assembly == null) {
-                assembly = new HashMap<>();
+                assembly = new ArrayList<>();
                 assemblies.put(superChunkIndex, assembly);
             }
-            Point3i chunkIndex = new Point3i(universePoint);
-            chunkIndex.sub(superChunkLower);
-            chunkIndex.scale(1, 16);
-            Point3i chunkPosition = getChunkPositionFromSuperchunkLowerAndChunkIndex(superChunkLower, chunkIndex);
-            Chunk chunk = assembly.get(chunkIndex);
-            if (chunk == null) {
-                chunk = new Chunk();
-                chunk.setPosition(chunkPosition);
-                chunk.setBlocks(new Block[16][16][16]);
-                chunk.setTimestamp(now);
-                chunk.setType(1);
-                assembly.put(chunkIndex, chunk);
-            }
-            Point3i chunkOffset = new Point3i(universePoint.x - chunkPosition.x, universePoint.y - chunkPosition.y, universePoint.z - chunkPosition.z);
-            try {
-                chunk.getBlocks()[chunkOffset.x][chunkOffset.y][chunkOffset.z] = blocks.get(universePoint);
-            } catch (ArrayIndexOutOfBoundsException e) {
-                System.out.println("Universe Point: " + universePoint);
-                System.out.println("Super Chunk Index: " + superChunkIndex);
-                System.out.println("Super Chunk Origin: " + superChunkOrigin);
-                System.out.println("Super Chunk Lower: " + superChunkLower);
-                System.out.println("Chunk Index: " + chunkIndex);
-                System.out.println("Chunk Position: " + chunkPosition);
-                System.out.println("Chunk Offset: " + chunkOffset);
-                e.printStackTrace();
-            }
+            Chunk chunk = new Chunk();
+            chunk.setPosition(chunkPosition);
+            chunk.setBlocks(c.toArray());
+            chunk.setTimestamp(now);
+            chunk.setType(1);
+            assembly.add(chunk);
         }
         Map<Point3i, Data> data = new HashMap<Point3i, Data>();
         for (Point3i superChunkIndex : assemblies.keySet()) {
-            Map<Point3i, Chunk> assembly = assemblies.get(superChunkIndex);
             Data datum = new Data();
-            datum.setChunks(assembly.values().toArray(new Chunk[0]));
+            datum.setChunks(assemblies.get(superChunkIndex).toArray(new Chunk[0]));
             data.put(superChunkIndex, datum);
         }
         return data;
@@ -241,15 +263,13 @@ public class ShipLogic {
 
     public static List<Point3i> findBlocks(SparseMatrix<Block> grid, short id, boolean stopAfterFirst) {
         List<Point3i> finds = new ArrayList<>();
-        for (Iterator<Point3i> i = grid.iteratorNonNull(); i.hasNext();) {
-            Point3i pp = i.next();
-            Block b = grid.get(pp);
-            if (b.getBlockID() == id) {
-                finds.add(pp);
-                if (stopAfterFirst) {
-                    break;
-                }
+        if (stopAfterFirst) {
+            Point3i first = grid.findFirstOfType(id);
+            if (first != null) {
+                finds.add(first);
             }
+        } else {
+            grid.forEachOfType(id, (x, y, z, blockID, orientation) -> finds.add(new Point3i(x, y, z)));
         }
         return finds;
     }
@@ -374,6 +394,6 @@ public class ShipLogic {
         for (Point3i p : cores) {
             grid.set(p, null);
         }
-        grid.set(8, 8, 8, new Block(BlockTypes.CORE_ID));
+        grid.set(8, 8, 8, Block.valueOf(BlockTypes.CORE_ID));
     }
 }
@@ -136,11 +136,7 @@ public class SmoothLogic {
         if (ori < 0) {
             return;
         }
-        Block b = new Block();
-        b.setActive(false);
-        b.setBlockID(calculateCornerType(grid, p, edges));
-        b.setOrientation((short) ori);
-        grid.set(p, b);
+        grid.set(p, Block.valueOf(calculateCornerType(grid, p, edges), (short) ori));
     }
 
     private static void doWedge(SparseMatrix<Block> grid, Point3i p, boolean[] edges) {
@@ -181,11 +177,7 @@ public class SmoothLogic {
         if (ori < 0) {
             return;
         }
-        Block b = new Block();
-        b.setActive(false);
-        b.setBlockID(calculateWedgeType(grid, p, edges));
-        b.setOrientation((short) ori);
-        grid.set(p, b);
+        grid.set(p, Block.valueOf(calculateWedgeType(grid, p, edges), (short) ori));
 
     }
 
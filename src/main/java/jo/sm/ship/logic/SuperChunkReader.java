@@ -0,0 +1,157 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ship.logic;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jo.sm.data.BlockChunk;
+import jo.sm.ship.data.Chunk;
+import jo.vecmath.Point3i;
+
+/**
+ * Random access to the chunks of one .smd2 superchunk file. Only the offset
+ * and timestamp tables are read when it is opened; a chunk is read and
+ * inflated the first time it is asked for, then kept. Chunks are addressed
+ * by their position, the lowest corner in grid coordinates, and get that
+ * position even if the chunk header disagrees, as in DataLogic.readFile.
+ * Safe for use from several threads.
+ **/
+public class SuperChunkReader implements Closeable {
+
+    private final File mFile;
+    private final Point3i mSuperChunkIndex;
+    private final FileChannel mChannel;
+    // offset table entries and timestamps, keyed by BlockChunk.key of the chunk position
+    private final Map<Long, Integer> mOffsets;
+    private final Map<Long, Long> mTimestamps;
+    private final Map<Long, Point3i> mPositions;
+    private final Map<Long, Chunk> mChunks;
+
+    public SuperChunkReader(File dataFile, Point3i superChunkIndex) throws IOException {
+        mFile = dataFile;
+        mSuperChunkIndex = superChunkIndex;
+        mOffsets = new HashMap<>();
+        mTimestamps = new HashMap<>();
+        mPositions = new HashMap<>();
+        mChunks = new ConcurrentHashMap<>();
+        mChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+        try {
+            readTables();
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+    private void readTables() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(DataLogic.FILE_HEADER);
+        readFully(header, 0);
+        long slots = (mChannel.size() - DataLogic.FILE_HEADER) / DataLogic.CHUNK_SLOT;
+        Point3i superChunkOrigin = ShipLogic.getSuperChunkOriginFromIndex(mSuperChunkIndex);
+        for (int t = 0; t < DataLogic.CHUNKS_PER_FILE; t++) {
+            int offset = header.getInt(4 + t * 8);
+            if ((offset < 0) || (offset >= slots)) {
+                continue;
+            }
+            // tables are indexed [z][y][x]
+            Point3i p = ShipLogic.getChunkPositionFromSuperchunkOriginAndChunkIndex(superChunkOrigin,
+                    new Point3i(t & 0xf, (t >> 4) & 0xf, t >> 8));
+            long key = BlockChunk.key(p.x, p.y, p.z);
+            mOffsets.put(key, offset);
+            mTimestamps.put(key, header.getLong(4 + DataLogic.CHUNKS_PER_FILE * 8 + t * 8));
+            mPositions.put(key, p);
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = mChannel.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new EOFException("Unexpected end of " + mFile.getName());
+            }
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public Point3i getSuperChunkIndex() {
+        return mSuperChunkIndex;
+    }
+
+    /** Positions of all chunks listed in the offset table **/
+    public Collection<Point3i> getChunkPositions() {
+        return Collections.unmodifiableCollection(mPositions.values());
+    }
+
+    public boolean hasChunk(Point3i chunkPosition) {
+        return mOffsets.containsKey(BlockChunk.key(chunkPosition.x, chunkPosition.y, chunkPosition.z));
+    }
+
+    public long getTimestamp(Point3i chunkPosition) {
+        Long timestamp = mTimestamps.get(BlockChunk.key(chunkPosition.x, chunkPosition.y, chunkPosition.z));
+        return (timestamp == null) ? 0 : timestamp;
+    }
+
+    public boolean isLoaded(Point3i chunkPosition) {
+        return mChunks.containsKey(BlockChunk.key(chunkPosition.x, chunkPosition.y, chunkPosition.z));
+    }
+
+    /** Returns the chunk at chunkPosition, or null if the file has none there **/
+    public Chunk getChunk(Point3i chunkPosition) throws IOException {
+        long key = BlockChunk.key(chunkPosition.x, chunkPosition.y, chunkPosition.z);
+        Chunk chunk = mChunks.get(key);
+        if (chunk != null) {
+            return chunk;
+        }
+        Integer offset = mOffsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer slot = ByteBuffer.allocate(DataLogic.CHUNK_SLOT);
+        readFully(slot, DataLogic.FILE_HEADER + (long) offset * DataLogic.CHUNK_SLOT);
+        chunk = DataLogic.readChunk(slot.array());
+        chunk.setPosition(new Point3i(mPositions.get(key)));
+        // two threads may race to inflate the same chunk; keep the first
+        Chunk prior = mChunks.putIfAbsent(key, chunk);
+        return (prior == null) ? chunk : prior;
+    }
+
+    /** Forgets decoded chunks, so they can be collected **/
+    public void unload() {
+        mChunks.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChunks.clear();
+        mChannel.close();
+    }
+}
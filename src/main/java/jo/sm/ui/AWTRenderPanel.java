@@ -360,7 +360,7 @@ public class AWTRenderPanel extends RenderPanel {
         }
         tile.setNormal(face);
         tile.setType(RenderPoly.SQUARE);
-        tile.setBlock(new Block(type));
+        tile.setBlock(Block.valueOf(type));
         mTiles.getAllPolys().add(tile);
     }
 
@@ -425,7 +425,7 @@ public class AWTRenderPanel extends RenderPanel {
 
     @Override
     public void undo() {
-        SparseMatrix<Block> grid = mUndoer.undo();
+        SparseMatrix<Block> grid = mUndoer.undo(StarMadeLogic.getModel());
         if (grid != null) {
             StarMadeLogic.setModel(grid);
         }
@@ -433,7 +433,7 @@ public class AWTRenderPanel extends RenderPanel {
 
     @Override
     public void redo() {
-        SparseMatrix<Block> grid = mUndoer.redo();
+        SparseMatrix<Block> grid = mUndoer.redo(StarMadeLogic.getModel());
         if (grid != null) {
             StarMadeLogic.setModel(grid);
         }
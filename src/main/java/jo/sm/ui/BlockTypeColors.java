@@ -684,7 +684,7 @@ public class BlockTypeColors {
         return localBufferedImage;
     }
 
-    public static void loadBlockIcons() {
+    public static synchronized void loadBlockIcons() {
         if (mBlockIconsLoaded) {
             return;
         }
@@ -333,7 +333,8 @@ public class EditPanel extends JPanel {
         }
         short newID = BlockTypes.getColoredBlock(block.getBlockID(), StarMadeLogic.getInstance().getSelectedBlockType());
         if (newID != -1) {
-            block.setBlockID(newID);
+            block = block.withBlockID(newID);
+            grid.set(coords, block);
         }
     }
 
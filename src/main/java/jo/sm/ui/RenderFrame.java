@@ -64,6 +64,7 @@ import jo.sm.ui.act.file.OpenExistingAction;
 import jo.sm.ui.act.file.OpenExistingAction1;
 import jo.sm.ui.act.file.OpenFileAction;
 import jo.sm.ui.act.file.OpenFileAction1;
+import jo.sm.ui.act.file.OpenRegionAction;
 import jo.sm.ui.act.file.QuitAction;
 import jo.sm.ui.act.file.SaveAction;
 import jo.sm.ui.act.file.SaveAsBlueprintAction;
@@ -74,6 +75,7 @@ import jo.sm.ui.act.memRefresh;
 import jo.sm.ui.act.plugin.BlocksPluginAction;
 import jo.sm.ui.act.view.AxisAction;
 import jo.sm.ui.act.view.DontDrawAction;
+import jo.sm.ui.act.view.GreedyAction;
 import jo.sm.ui.act.view.PlainAction;
 import jo.sm.ui.logic.MenuLogic;
 import jo.sm.ui.logic.ShipSpec;
@@ -332,6 +334,7 @@ public class RenderFrame extends JFrame {
         setJMenuBar(menuBar);
         menuBar.add(menuFile);
         menuFile.add(new OpenExistingAction(this));
+        menuFile.add(new OpenRegionAction(this));
         menuFile.add(new OpenFileAction(this));
         menuFile.add(new JSeparator());
         menuFile.add(new SaveAction(this));
@@ -351,6 +354,9 @@ public class RenderFrame extends JFrame {
         menuEdit.add(new JSeparator());
         menuBar.add(menuView);
         menuView.add(new JCheckBoxMenuItem(new PlainAction(this)));
+        if (mClient instanceof LWJGLRenderPanel) {
+            menuView.add(new JCheckBoxMenuItem(new GreedyAction(this)));
+        }
         menuView.add(new JCheckBoxMenuItem(new AxisAction(this)));
         menuView.add(new JCheckBoxMenuItem(new DontDrawAction(this)));
         JSeparator viewFileStart = new JSeparator();
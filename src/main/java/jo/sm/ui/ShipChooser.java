@@ -23,44 +23,100 @@ import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTextField;
 import javax.swing.JTree;
+import javax.swing.event.TreeSelectionEvent;
+import javax.swing.event.TreeSelectionListener;
 import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 
+import jo.sm.data.BlueprintCatalogEntry;
+import jo.sm.logic.BlueprintCatalogLogic;
 import jo.sm.ui.logic.ShipSpec;
 import jo.sm.ui.logic.ShipTreeLogic;
+import jo.vecmath.Vector3f;
 
 @SuppressWarnings("serial")
 public class ShipChooser extends JDialog {
 
     private ShipSpec mSelected;
 
+    private static final String[] SORT_NAMES = {"Name", "Block count", "Size on disk"};
+    private static final List<Comparator<BlueprintCatalogEntry>> SORT_ORDERS = List.of(
+            BlueprintCatalogLogic.BY_NAME, BlueprintCatalogLogic.BY_BLOCK_COUNT, BlueprintCatalogLogic.BY_BYTE_SIZE);
+
     private final JTree mTree;
+    private final JComboBox<String> mSort;
+    private final JTextField mMinBlocks;
+    private final JTextField mMaxBlocks;
+    private final JLabel mDetails;
 
     public ShipChooser(JFrame base) {
         super(base, "Choose Ship", Dialog.ModalityType.DOCUMENT_MODAL);
         // instantiate
         mTree = new JTree(ShipTreeLogic.getShipTree());
+        mSort = new JComboBox<>(SORT_NAMES);
+        mMinBlocks = new JTextField(6);
+        mMaxBlocks = new JTextField(6);
+        mDetails = new JLabel(" ");
         JButton ok = new JButton("OK");
         JButton cancel = new JButton("Cancel");
         // layout
         JPanel client = new JPanel();
         getContentPane().add(client);
         client.setLayout(new BorderLayout());
-        client.add(BorderLayout.NORTH, new JLabel("Select a ship to view:"));
+        JPanel topBar = new JPanel();
+        client.add(BorderLayout.NORTH, topBar);
+        topBar.setLayout(new BorderLayout());
+        topBar.add(BorderLayout.WEST, new JLabel("Select a ship to view:"));
+        JPanel sortBar = new JPanel();
+        topBar.add(BorderLayout.EAST, sortBar);
+        sortBar.setLayout(new FlowLayout());
+        sortBar.add(new JLabel("Sort blueprints by"));
+        sortBar.add(mSort);
+        sortBar.add(new JLabel("with"));
+        sortBar.add(mMinBlocks);
+        sortBar.add(new JLabel("to"));
+        sortBar.add(mMaxBlocks);
+        sortBar.add(new JLabel("blocks"));
         client.add(BorderLayout.CENTER, new JScrollPane(mTree));
+        JPanel bottomBar = new JPanel();
+        client.add(BorderLayout.SOUTH, bottomBar);
+        bottomBar.setLayout(new BorderLayout());
+        bottomBar.add(BorderLayout.NORTH, mDetails);
         JPanel buttonBar = new JPanel();
-        client.add(BorderLayout.SOUTH, buttonBar);
+        bottomBar.add(BorderLayout.SOUTH, buttonBar);
         buttonBar.setLayout(new FlowLayout());
         buttonBar.add(ok);
         buttonBar.add(cancel);
         // link
+        ActionListener refilter = new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent ev) {
+                doSort();
+            }
+        };
+        mSort.addActionListener(refilter);
+        mMinBlocks.addActionListener(refilter);
+        mMaxBlocks.addActionListener(refilter);
+        mTree.addTreeSelectionListener(new TreeSelectionListener() {
+            @Override
+            public void valueChanged(TreeSelectionEvent ev) {
+                doShowDetails();
+            }
+        });
         ok.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent ev) {
@@ -77,6 +133,52 @@ public class ShipChooser extends JDialog {
         setLocationRelativeTo(base);
     }
 
+    private void doSort() {
+        int min = getBound(mMinBlocks, 0);
+        int max = getBound(mMaxBlocks, Integer.MAX_VALUE);
+        Predicate<BlueprintCatalogEntry> filter = null;
+        if ((min > 0) || (max < Integer.MAX_VALUE)) {
+            filter = entry -> (entry.getBlockCount() >= min) && (entry.getBlockCount() <= max);
+        }
+        mTree.setModel(new DefaultTreeModel(ShipTreeLogic.getShipTree(SORT_ORDERS.get(mSort.getSelectedIndex()), filter)));
+    }
+
+    /** Returns the block count typed in field, or def if it is empty or not a number **/
+    private static int getBound(JTextField field, int def) {
+        String text = field.getText().trim();
+        if (text.isEmpty()) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private void doShowDetails() {
+        TreePath selectedPath = mTree.getSelectionPath();
+        BlueprintCatalogEntry entry = null;
+        if (selectedPath != null) {
+            Object o = ((DefaultMutableTreeNode) selectedPath.getLastPathComponent()).getUserObject();
+            if (o instanceof ShipSpec) {
+                ShipSpec spec = (ShipSpec) o;
+                if ((spec.getType() == ShipSpec.BLUEPRINT) || (spec.getType() == ShipSpec.DEFAULT_BLUEPRINT)) {
+                    entry = BlueprintCatalogLogic.getEntry(spec.getType() == ShipSpec.DEFAULT_BLUEPRINT, spec.getName());
+                }
+            }
+        }
+        if (entry == null) {
+            mDetails.setText(" ");
+            return;
+        }
+        Vector3f size = new Vector3f(entry.getUpperBound());
+        size.sub(entry.getLowerBound());
+        mDetails.setText(entry.getBlockCount() + " blocks, " + (int) size.x + " x " + (int) size.y + " x " + (int) size.z
+                + ", " + entry.getManifest().length + " block types, " + (entry.getByteSize() + 1023) / 1024 + " KB in "
+                + entry.getDataFiles() + " data files");
+    }
+
     private void doOK() {
         TreePath selectedPath = mTree.getSelectionPath();
         DefaultMutableTreeNode selectedNode = (DefaultMutableTreeNode) selectedPath.getLastPathComponent();
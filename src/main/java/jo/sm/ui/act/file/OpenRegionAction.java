@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ui.act.file;
+
+import java.awt.event.ActionEvent;
+
+import javax.swing.JOptionPane;
+
+import jo.sm.data.SparseMatrix;
+import jo.sm.logic.RunnableLogic;
+import jo.sm.logic.StarMadeLogic;
+import jo.sm.logic.utils.StringUtils;
+import jo.sm.mods.IPluginCallback;
+import jo.sm.mods.IRunnableWithProgress;
+import jo.sm.ship.data.Block;
+import jo.sm.ui.RenderFrame;
+import jo.sm.ui.ShipChooser;
+import jo.sm.ui.act.GenericAction;
+import jo.sm.ui.logic.ShipSpec;
+import jo.sm.ui.logic.ShipTreeLogic;
+import jo.vecmath.Point3i;
+import jo.vecmath.logic.Point3iLogic;
+
+/**
+ * Opens just the chunks of a blueprint or entity inside a box, so part of a
+ * huge one can be viewed without decoding the rest. The result can only be
+ * saved with Save As.
+ **/
+@SuppressWarnings("serial")
+public class OpenRegionAction extends GenericAction {
+
+    private final RenderFrame mFrame;
+    private String mLastRegion;
+
+    public OpenRegionAction(RenderFrame frame) {
+        mFrame = frame;
+        mLastRegion = "0,0,0 63,63,63";
+        setName("Open Region...");
+        setToolTipText("Open part of a large data object");
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent ev) {
+        ShipChooser chooser = new ShipChooser(mFrame);
+        chooser.setVisible(true);
+        final ShipSpec spec = chooser.getSelected();
+        if (spec == null) {
+            return;
+        }
+        String region = JOptionPane.showInputDialog(mFrame, "Corners of the region to open, as x,y,z x,y,z", mLastRegion);
+        if (StringUtils.isTrivial(region)) {
+            return;
+        }
+        String[] corners = region.trim().split("\\s+");
+        final Point3i lower;
+        final Point3i upper;
+        try {
+            if (corners.length != 2) {
+                throw new IllegalArgumentException("Expected two corners: '" + region + "'");
+            }
+            Point3i a = Point3iLogic.fromString(corners[0]);
+            Point3i b = Point3iLogic.fromString(corners[1]);
+            lower = Point3iLogic.min(a, b);
+            upper = Point3iLogic.max(a, b);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(mFrame, "The region must be two corners, as x,y,z x,y,z",
+                    "Open Region", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        mLastRegion = region.trim();
+        IRunnableWithProgress t = new IRunnableWithProgress() {
+            @Override
+            public void run(IPluginCallback cb) {
+                SparseMatrix<Block> grid = ShipTreeLogic.loadShipRegion(spec, lower, upper, cb);
+                if (grid != null) {
+                    StarMadeLogic.getInstance().setCurrentModel(spec);
+                    StarMadeLogic.setModel(grid);
+                    mFrame.getClient().getUndoer().clear();
+                }
+            }
+        };
+        RunnableLogic.run(mFrame, "Open " + spec.getName(), t);
+    }
+
+}
@@ -23,8 +23,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Map;
 
+import javax.swing.JOptionPane;
+
 import jo.sm.data.SparseMatrix;
 import jo.sm.logic.BlueprintLogic;
+import jo.sm.logic.EntityLogic;
 import jo.sm.logic.RunnableLogic;
 import jo.sm.logic.StarMadeLogic;
 import jo.sm.mods.IPluginCallback;
@@ -58,6 +61,12 @@ public class SaveAction extends GenericAction {
         if (spec == null) {
             return;
         }
+        if (spec.isPartial()) {
+            JOptionPane.showMessageDialog(mFrame, "Only a region of " + spec.getName()
+                    + " was opened, so saving over it would lose the rest. Use Save As instead.",
+                    "Save", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
         if (spec.getType() == ShipSpec.FILE) {
             doSaveFile();
         } else if (spec.getType() == ShipSpec.BLUEPRINT) {
@@ -105,17 +114,15 @@ public class SaveAction extends GenericAction {
     }
 
     private void doSaveEntity() {
-        ShipSpec spec = StarMadeLogic.getInstance().getCurrentModel();
-        SparseMatrix<Block> grid = StarMadeLogic.getModel();
-        final Map<Point3i, Data> data = ShipLogic.getData(grid);
-        final File baseDir = new File(spec.getEntity().getFile().getParentFile(), "DATA");
-        String fName = spec.getEntity().getFile().getName();
-        final String baseName = fName.substring(0, fName.length() - 4); // remove .ent
+        final ShipSpec spec = StarMadeLogic.getInstance().getCurrentModel();
+        final SparseMatrix<Block> grid = StarMadeLogic.getModel();
+        final File baseDir = EntityLogic.getDataDir(spec.getEntity());
+        final String baseName = EntityLogic.getDataBaseName(spec.getEntity());
         IRunnableWithProgress t = new IRunnableWithProgress() {
             @Override
             public void run(IPluginCallback cb) {
                 try {
-                    DataLogic.writeFiles(data, baseDir, baseName, cb);
+                    spec.setBaseline(DataLogic.writeFiles(grid, spec.getBaseline(), baseDir, baseName, cb));
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ui.act.view;
+
+import java.awt.event.ActionEvent;
+
+import jo.sm.ui.RenderFrame;
+import jo.sm.ui.act.GenericAction;
+import jo.sm.ui.lwjgl.LWJGLRenderPanel;
+
+/**
+ * Switches the 3D view between drawing each block face and drawing adjacent
+ * faces of the same block type as one rectangle.
+ **/
+@SuppressWarnings("serial")
+public class GreedyAction extends GenericAction {
+
+    private final RenderFrame mFrame;
+
+    public GreedyAction(RenderFrame frame) {
+        mFrame = frame;
+        setName("Merge Faces");
+        setToolTipText("Draw adjacent faces of the same block type as one, for fewer polygons");
+        setChecked(((LWJGLRenderPanel) mFrame.getClient()).isGreedy());
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent ev) {
+        LWJGLRenderPanel client = (LWJGLRenderPanel) mFrame.getClient();
+        client.setGreedy(!client.isGreedy());
+        setChecked(client.isGreedy());
+    }
+
+}
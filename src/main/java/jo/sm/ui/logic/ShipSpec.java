@@ -20,6 +20,7 @@ package jo.sm.ui.logic;
 import java.io.File;
 
 import jo.sm.data.Entity;
+import jo.sm.ship.data.DataBaseline;
 
 /**
  * @Auther Jo Jaquinta for SMEdit Classic - version 1.0
@@ -36,6 +37,8 @@ public class ShipSpec {
     private String mName;
     private Entity mEntity;
     private File mFile;
+    private DataBaseline mBaseline;
+    private boolean mPartial;
 
     @Override
     public String toString() {
@@ -81,4 +84,21 @@ public class ShipSpec {
     public void setClassification(int classification) {
         mClassification = classification;
     }
+
+    public DataBaseline getBaseline() {
+        return mBaseline;
+    }
+
+    public void setBaseline(DataBaseline baseline) {
+        mBaseline = baseline;
+    }
+
+    /** True if only a region was read, so saving over the source would lose the rest **/
+    public boolean isPartial() {
+        return mPartial;
+    }
+
+    public void setPartial(boolean partial) {
+        mPartial = partial;
+    }
 }
@@ -19,11 +19,18 @@ package jo.sm.ui.logic;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 
+import jo.sm.data.BlueprintCatalogEntry;
 import jo.sm.data.Entity;
 import jo.sm.data.SparseMatrix;
+import jo.sm.logic.BatchLogic;
+import jo.sm.logic.BlueprintCatalogLogic;
 import jo.sm.logic.BlueprintLogic;
 import jo.sm.logic.EntityLogic;
 import jo.sm.logic.StarMadeLogic;
@@ -31,8 +38,10 @@ import jo.sm.mods.IBlocksPlugin;
 import jo.sm.mods.IPluginCallback;
 import jo.sm.ship.data.Block;
 import jo.sm.ship.data.Blueprint;
+import jo.sm.ship.logic.DataLogic;
 import jo.sm.ship.logic.ShipLogic;
 import jo.util.Paths;
+import jo.vecmath.Point3i;
 
 /**
  * @Auther Jo Jaquinta for SMEdit Classic - version 1.0
@@ -40,9 +49,22 @@ import jo.util.Paths;
 public class ShipTreeLogic {
 
     public static DefaultMutableTreeNode getShipTree() {
+        return getShipTree(BlueprintCatalogLogic.BY_NAME);
+    }
+
+    public static DefaultMutableTreeNode getShipTree(Comparator<BlueprintCatalogEntry> blueprintOrder) {
+        return getShipTree(blueprintOrder, null);
+    }
+
+    /**
+     * Builds the ship tree with the blueprints in the given order, keeping
+     * only those that pass blueprintFilter (all if null).
+     **/
+    public static DefaultMutableTreeNode getShipTree(Comparator<BlueprintCatalogEntry> blueprintOrder,
+            Predicate<BlueprintCatalogEntry> blueprintFilter) {
         DefaultMutableTreeNode root = new DefaultMutableTreeNode("Root");
-        addBlueprint(root, "Blueprints", false);
-        addBlueprint(root, "Default Blueprints", true);
+        addBlueprint(root, "Blueprints", false, blueprintOrder, blueprintFilter);
+        addBlueprint(root, "Default Blueprints", true, blueprintOrder, blueprintFilter);
         addEntity(root, "Your Ships", "SHIP", "Player");
         addEntity(root, "Other Ships", "SHIP", "MOB_");
         addEntity(root, "Turrets", "SHIP", "AITURRET");
@@ -54,19 +76,15 @@ public class ShipTreeLogic {
     }
 
     private static void addBlueprint(DefaultMutableTreeNode root,
-            String title, boolean def) {
+            String title, boolean def, Comparator<BlueprintCatalogEntry> order,
+            Predicate<BlueprintCatalogEntry> filter) {
         DefaultMutableTreeNode group = new DefaultMutableTreeNode(title);
-        String[] options;
-        if (def) {
-            options = BlueprintLogic.getDefaultBlueprintNames().toArray(new String[0]);
-        } else {
-            options = BlueprintLogic.getBlueprintNames().toArray(new String[0]);
-        }
-        if (options.length == 0) {
+        List<BlueprintCatalogEntry> options = BlueprintCatalogLogic.query(def, filter, order);
+        if (options.isEmpty()) {
             return;
         }
-        for (String name : options) {
-            ShipSpec spec = getBlueprintSpec(name, def);
+        for (BlueprintCatalogEntry entry : options) {
+            ShipSpec spec = getBlueprintSpec(entry.getName(), def);
             DefaultMutableTreeNode option = new DefaultMutableTreeNode(spec);
             group.add(option);
         }
@@ -138,10 +156,14 @@ public class ShipTreeLogic {
     }
 
     public static SparseMatrix<Block> loadShip(ShipSpec spec, IPluginCallback cb) {
+        spec.setPartial(false);
         try {
             if (spec.getType() == ShipSpec.BLUEPRINT) {
                 Blueprint blueprint = BlueprintLogic.readBlueprint(spec.getName(), cb);
                 SparseMatrix<Block> grid = ShipLogic.getBlocks(blueprint.getData());
+                if (spec.getFile() != null) {
+                    spec.setBaseline(DataLogic.getBaseline(grid, new File(spec.getFile(), "DATA"), spec.getName()));
+                }
                 //System.out.println("Original:");
                 //HeaderLogic.dump(blueprint.getHeader());
                 //LogicLogic.dump(blueprint.getLogic(), grid);
@@ -152,6 +174,9 @@ public class ShipTreeLogic {
             } else if (spec.getType() == ShipSpec.DEFAULT_BLUEPRINT) {
                 Blueprint blueprint = BlueprintLogic.readDefaultBlueprint(spec.getName(), cb);
                 SparseMatrix<Block> grid = ShipLogic.getBlocks(blueprint.getData());
+                if (spec.getFile() != null) {
+                    spec.setBaseline(DataLogic.getBaseline(grid, new File(spec.getFile(), "DATA"), spec.getName()));
+                }
                 //System.out.println("Original:");
                 //HeaderLogic.dump(blueprint.getHeader());
                 //LogicLogic.dump(blueprint.getLogic(), grid);
@@ -165,10 +190,39 @@ public class ShipTreeLogic {
                 //ShipLogic.dumpChunks(e.getData());
                 SparseMatrix<Block> grid = ShipLogic.getBlocks(e.getData());
                 e.setData(null); // conserve memory
+                spec.setBaseline(DataLogic.getBaseline(grid, EntityLogic.getDataDir(e), EntityLogic.getDataBaseName(e)));
                 return grid;
             } else {
                 throw new IllegalArgumentException("Unknown ship type " + spec.getType());
             }
+        } catch (InterruptedIOException e) {
+            // cancelled, so there is nothing to open
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Reads just the chunks of a blueprint or entity that overlap
+     * lower..upper, so part of a huge one opens without decoding the rest.
+     * The spec is marked partial and gets no baseline.
+     **/
+    public static SparseMatrix<Block> loadShipRegion(ShipSpec spec, Point3i lower, Point3i upper, IPluginCallback cb) {
+        try {
+            SparseMatrix<Block> grid;
+            if ((spec.getType() == ShipSpec.BLUEPRINT) || (spec.getType() == ShipSpec.DEFAULT_BLUEPRINT)) {
+                grid = BatchLogic.loadBlueprintRegion(spec, lower, upper, cb);
+            } else if (spec.getType() == ShipSpec.ENTITY) {
+                Entity e = spec.getEntity();
+                cb.setStatus("Reading " + spec.getName() + " " + lower + " to " + upper);
+                spec.setBaseline(null);
+                grid = DataLogic.readRegion(EntityLogic.getDataDir(e), EntityLogic.getDataBaseName(e), lower, upper);
+            } else {
+                throw new IllegalArgumentException("Cannot read a region of ship type " + spec.getType());
+            }
+            spec.setPartial(true);
+            return grid;
         } catch (IOException | IllegalArgumentException e) {
             e.printStackTrace();
         }
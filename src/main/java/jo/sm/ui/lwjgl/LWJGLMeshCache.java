@@ -0,0 +1,203 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ui.lwjgl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jo.sm.data.BlockChunk;
+import jo.sm.data.SparseMatrix;
+import jo.sm.logic.FaceVisibilityLogic;
+import jo.sm.ship.data.Block;
+import jo.util.jgl.obj.tri.JGLObj;
+
+/**
+ * Keeps a mesh for each 16x16x16 chunk of the grid being viewed, so that
+ * after an edit only the chunks affected are meshed again.
+ *
+ * Works from grid snapshots. A grid copies a chunk before writing to it once
+ * it has been snapshotted, so a chunk whose object is unchanged has
+ * unchanged blocks. A chunk whose object was replaced is compared with the
+ * one it was meshed from, as a view filter builds a new grid on every update
+ * and most of its chunks come out as before. A chunk is rebuilt when it is
+ * new or its blocks differ, or when the layer of a face-adjacent neighbour that touches it has gained or lost
+ * blocks, as that changes which of its faces are hidden. The rebuilds run in
+ * parallel on the common fork-join pool. If greedy, each chunk is meshed with
+ * LWJGLRenderLogic.addChunkGreedy, giving a mesh per texture in the chunk.
+ *
+ * Needs no GL context, so it can be used and timed headless.
+ **/
+public class LWJGLMeshCache {
+
+    // in the order LWJGLRenderLogic.addChunk takes them: XP, XM, YP, YM, ZP, ZM
+    private static final int[][] NEIGHBOURS = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+
+    private static final ThreadLocal<MeshInfo> SCRATCH = ThreadLocal.withInitial(() -> new MeshInfo(false));
+    private static final ThreadLocal<Map<Integer, MeshInfo>> GREEDY_SCRATCH = ThreadLocal.withInitial(TreeMap::new);
+
+    private final Map<Long, ChunkMesh> mMeshes;
+    private boolean mPlain;
+    private boolean mGreedy;
+    private int mLastRebuilt;
+
+    public LWJGLMeshCache() {
+        mMeshes = new HashMap<>();
+    }
+
+    /** Brings the meshes up to date with the grid, which must not change during the call **/
+    public List<JGLObj> update(SparseMatrix<Block> grid, boolean plain) {
+        return update(grid.snapshot(), plain);
+    }
+
+    /**
+     * Brings the meshes up to date with a snapshot of the grid, as returned
+     * by SparseMatrix.snapshot, and returns the meshes to draw.
+     **/
+    public synchronized List<JGLObj> update(Map<Long, BlockChunk> chunks, boolean plain) {
+        LWJGLRenderLogic.init();
+        if (plain != mPlain) {
+            mMeshes.clear();
+            mPlain = plain;
+        }
+        mMeshes.keySet().retainAll(chunks.keySet());
+        List<ChunkMesh> dirty = new ArrayList<>();
+        for (BlockChunk chunk : chunks.values()) {
+            BlockChunk[] neighbours = FaceVisibilityLogic.getNeighbours(chunks, chunk);
+            ChunkMesh mesh = mMeshes.get(chunk.getKey());
+            if ((mesh != null) && mesh.mChunk.hasSameBlocks(chunk) && isFacingUnchanged(mesh.mNeighbours, neighbours)) {
+                mesh.mChunk = chunk;
+                mesh.mNeighbours = neighbours;
+                continue;
+            }
+            mesh = new ChunkMesh();
+            mesh.mChunk = chunk;
+            mesh.mNeighbours = neighbours;
+            mMeshes.put(chunk.getKey(), mesh);
+            dirty.add(mesh);
+        }
+        dirty.parallelStream().forEach(this::build);
+        mLastRebuilt = dirty.size();
+        List<JGLObj> objs = new ArrayList<>();
+        for (ChunkMesh mesh : mMeshes.values()) {
+            objs.addAll(mesh.mObjs);
+        }
+        return objs;
+    }
+
+    public synchronized void clear() {
+        mMeshes.clear();
+    }
+
+    public synchronized boolean isGreedy() {
+        return mGreedy;
+    }
+
+    /** Chooses whether faces are merged, which remeshes every chunk on the next update **/
+    public synchronized void setGreedy(boolean greedy) {
+        if (greedy != mGreedy) {
+            mMeshes.clear();
+            mGreedy = greedy;
+        }
+    }
+
+    /** Returns the number of block faces showing **/
+    public synchronized int getFaceCount() {
+        int faces = 0;
+        for (ChunkMesh mesh : mMeshes.values()) {
+            faces += mesh.mFaces;
+        }
+        return faces;
+    }
+
+    /** Returns the number of quads drawn, which is less than the faces when greedy **/
+    public synchronized int getQuadCount() {
+        int quads = 0;
+        for (ChunkMesh mesh : mMeshes.values()) {
+            for (JGLObj obj : mesh.mObjs) {
+                quads += obj.getIndices();
+            }
+        }
+        return quads;
+    }
+
+    /** Returns how many chunks were meshed by the last update **/
+    public synchronized int getLastRebuilt() {
+        return mLastRebuilt;
+    }
+
+    public synchronized int getChunkCount() {
+        return mMeshes.size();
+    }
+
+    private void build(ChunkMesh mesh) {
+        // the meshes are copied into the objects, so each thread can fill the same ones again
+        if (mGreedy) {
+            Map<Integer, MeshInfo> infos = GREEDY_SCRATCH.get();
+            for (MeshInfo info : infos.values()) {
+                info.reset(mPlain);
+            }
+            mesh.mFaces = LWJGLRenderLogic.addChunkGreedy(infos, mPlain, mesh.mChunk, mesh.mNeighbours);
+            mesh.mObjs = LWJGLRenderLogic.infosToObjs(infos);
+            return;
+        }
+        MeshInfo info = SCRATCH.get();
+        info.reset(mPlain);
+        LWJGLRenderLogic.addChunk(info, mesh.mChunk, mesh.mNeighbours);
+        mesh.mFaces = info.getQuads();
+        // a chunk wholly inside the hull has nothing to draw
+        mesh.mObjs = info.isEmpty() ? Collections.<JGLObj>emptyList()
+                : Collections.singletonList(LWJGLRenderLogic.infoToObj(info));
+    }
+
+    // true if each neighbour's layer against the chunk has blocks in the same places as before
+    private static boolean isFacingUnchanged(BlockChunk[] before, BlockChunk[] after) {
+        for (int i = 0; i < NEIGHBOURS.length; i++) {
+            if (before[i] == after[i]) {
+                continue;
+            }
+            // the layer of the neighbour on the far side of face i is at its opposite edge
+            int[] d = NEIGHBOURS[i];
+            for (int a = 0; a < BlockChunk.SIZE; a++) {
+                for (int b = 0; b < BlockChunk.SIZE; b++) {
+                    int x = (d[0] > 0) ? 0 : (d[0] < 0) ? BlockChunk.MASK : a;
+                    int y = (d[1] > 0) ? 0 : (d[1] < 0) ? BlockChunk.MASK : (d[0] != 0) ? a : b;
+                    int z = (d[2] > 0) ? 0 : (d[2] < 0) ? BlockChunk.MASK : b;
+                    int idx = BlockChunk.index(x, y, z);
+                    boolean was = (before[i] != null) && (before[i].get(idx) != 0);
+                    boolean is = (after[i] != null) && (after[i].get(idx) != 0);
+                    if (was != is) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static class ChunkMesh {
+
+        private BlockChunk mChunk;
+        private BlockChunk[] mNeighbours;
+        private List<JGLObj> mObjs;
+        private int mFaces;
+    }
+}
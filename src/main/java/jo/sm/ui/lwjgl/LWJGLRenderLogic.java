@@ -17,67 +17,289 @@
  **/
 package jo.sm.ui.lwjgl;
 
-import java.awt.Color;
-import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import jo.sm.data.BlockChunk;
 import jo.sm.data.RenderPoly;
 import jo.sm.data.SparseMatrix;
+import jo.sm.logic.FaceVisibilityLogic;
 import jo.sm.ship.data.Block;
 import jo.sm.ui.BlockTypeColors;
 import jo.util.jgl.obj.JGLGroup;
+import jo.util.jgl.obj.JGLNode;
 import jo.util.jgl.obj.tri.JGLObj;
 import jo.util.lwjgl.win.JGLTextureCache;
-import jo.vecmath.Color3f;
-import jo.vecmath.Point2f;
 import jo.vecmath.Point3f;
 import jo.vecmath.Point3i;
 import jo.vecmath.logic.MathUtils;
 
 public class LWJGLRenderLogic {
 
+    // textures of single block faces, for meshes whose faces repeat a texture
+    private static final int TILE_TEXTURE_BASE = 0x10000;
+    // the face directions in the order the greedy mesher works through them
+    private static final int[] FACES = {RenderPoly.XP, RenderPoly.XM, RenderPoly.YP, RenderPoly.YM, RenderPoly.ZP, RenderPoly.ZM};
+
     private static int mTextureID = -1;
 
-    public static void addBlocks(JGLGroup group, SparseMatrix<Block> grid, boolean plain) {
+    static synchronized void init() {
         if (mTextureID < 0) {
             BlockTypeColors.loadBlockIcons();
             JGLTextureCache.register(1, BlockTypeColors.mAllTextures);
+            // only the images are kept until a frame first draws with them
+            for (int textureID : new TreeSet<>(BlockTypeColors.BLOCK_TEXTURE_IDS.values())) {
+                JGLTextureCache.register(TILE_TEXTURE_BASE + textureID, BlockTypeColors.getTextureImage(textureID));
+            }
             mTextureID = 1;
         }
-        MeshInfo info = new MeshInfo();
-        info.verts = new ArrayList<>();
-        info.indexes = new ArrayList<>();
-        if (plain) {
-            info.colors = new ArrayList<>();
-        } else {
-            info.uv = new ArrayList<>();
-        }
-        for (Iterator<Point3i> i = grid.iteratorNonNull(); i.hasNext();) {
-            addBlock(info, grid, i.next());
-        }
+    }
+
+    public static void addBlocks(JGLGroup group, SparseMatrix<Block> grid, boolean plain) {
+        init();
+        MeshInfo info = new MeshInfo(plain);
+        FaceVisibilityLogic.forEachExposed(grid, null, (x, y, z, blockID, orientation, faces) -> {
+            addFaces(info, x, y, z, blockID, faces);
+        });
         JGLObj obj = infoToObj(info);
         group.add(obj);
     }
 
     /**
+     * Adds the blocks of grid, with a mesh per texture if greedy, or a single
+     * mesh otherwise. Returns the number of block faces drawn, which is
+     * larger than the number of quads in the meshes when greedy.
+     *
+     * @param group
+     * @param grid
+     * @param plain
+     * @param greedy
+     * @return
+     */
+    public static int addBlocks(JGLGroup group, SparseMatrix<Block> grid, boolean plain, boolean greedy) {
+        if (!greedy) {
+            addBlocks(group, grid, plain);
+            List<JGLNode> children = group.getChildren();
+            return ((JGLObj) children.get(children.size() - 1)).getIndices();
+        }
+        init();
+        Map<Long, BlockChunk> chunks = grid.snapshot();
+        Map<Integer, MeshInfo> infos = new TreeMap<>();
+        int faces = 0;
+        for (BlockChunk chunk : chunks.values()) {
+            faces += addChunkGreedy(infos, plain, chunk, FaceVisibilityLogic.getNeighbours(chunks, chunk));
+        }
+        for (JGLObj obj : infosToObjs(infos)) {
+            group.add(obj);
+        }
+        return faces;
+    }
+
+    /**
+     * Adds the faces of the blocks in chunk that do not touch another block.
+     * neighbours holds the chunks beyond each face, in the order XP, XM, YP,
+     * YM, ZP, ZM, or null where there is none. The chunks must not change
+     * while this runs, so it is safe to call on chunks from a snapshot.
      *
      * @param info
+     * @param chunk
+     * @param neighbours
+     */
+    public static void addChunk(MeshInfo info, BlockChunk chunk, BlockChunk[] neighbours) {
+        short[] exposed = FaceVisibilityLogic.getExposed(chunk, neighbours, null, null);
+        int ox = chunk.getOriginX();
+        int oy = chunk.getOriginY();
+        int oz = chunk.getOriginZ();
+        for (int idx = 0; idx < BlockChunk.VOLUME; idx++) {
+            short packed = chunk.get(idx);
+            if (packed == 0) {
+                continue;
+            }
+            addFaces(info, ox + BlockChunk.indexX(idx), oy + BlockChunk.indexY(idx), oz + BlockChunk.indexZ(idx),
+                    BlockChunk.getBlockID(packed), FaceVisibilityLogic.getFaces(exposed, idx));
+        }
+    }
+
+    // faces holds a bit for each side of the block at x, y, z to add
+    private static void addFaces(MeshInfo info, int x, int y, int z, short type, int faces) {
+        if (faces == 0) {
+            return;
+        }
+        float lx = x - .5f;
+        float ly = y - .5f;
+        float lz = z - .5f;
+        float ux = lx + 1;
+        float uy = ly + 1;
+        float uz = lz + 1;
+        if ((faces & (1 << RenderPoly.XP)) != 0) {
+            addSelectFace(info, ux, ly, lz, ux, uy, uz, RenderPoly.XP, type);
+        }
+        if ((faces & (1 << RenderPoly.XM)) != 0) {
+            addSelectFace(info, lx, ly, lz, lx, uy, uz, RenderPoly.XM, type);
+        }
+        if ((faces & (1 << RenderPoly.YP)) != 0) {
+            addSelectFace(info, lx, uy, lz, ux, uy, uz, RenderPoly.YP, type);
+        }
+        if ((faces & (1 << RenderPoly.YM)) != 0) {
+            addSelectFace(info, lx, ly, lz, ux, ly, uz, RenderPoly.YM, type);
+        }
+        if ((faces & (1 << RenderPoly.ZP)) != 0) {
+            addSelectFace(info, lx, ly, uz, ux, uy, uz, RenderPoly.ZP, type);
+        }
+        if ((faces & (1 << RenderPoly.ZM)) != 0) {
+            addSelectFace(info, lx, ly, lz, ux, uy, lz, RenderPoly.ZM, type);
+        }
+    }
+
+    /**
+     * Adds the same surface as addChunk, but merges the faces of one block
+     * type that lie side by side in a plane into as few rectangles as it
+     * can. Each slice of the chunk is swept a row at a time, taking each
+     * rectangle as wide and then as tall as it will go. The rectangles are
+     * added to the mesh in infos for their texture, or to a single mesh under
+     * 0 if plain. Textured meshes repeat a single face's texture across each
+     * rectangle, a tile per block, rather than stretching the atlas over it.
+     * Returns the number of block faces covered, so the saving can be shown.
+     *
+     * @param infos
+     * @param plain
+     * @param chunk
+     * @param neighbours
      * @return
      */
-    public static JGLObj infoToObj(MeshInfo info) {
-        JGLObj obj = new JGLObj();
-        obj.setMode(JGLObj.QUADS);
-        obj.setVertices(info.verts);
-        obj.setIndices(info.indexes);
-        if (info.colors != null) {
-            obj.setColors(info.colors);
-        } else {
-            obj.setTextures(info.uv);
-            obj.setTextureID(mTextureID);
+    public static int addChunkGreedy(Map<Integer, MeshInfo> infos, boolean plain, BlockChunk chunk, BlockChunk[] neighbours) {
+        short[] faceMasks = FaceVisibilityLogic.getExposed(chunk, neighbours, null, null);
+        int faces = 0;
+        int[] origin = {chunk.getOriginX(), chunk.getOriginY(), chunk.getOriginZ()};
+        // block ID plus one of each exposed face in the slice, zero where none
+        int[] mask = new int[BlockChunk.SIZE * BlockChunk.SIZE];
+        int[] p = new int[3];
+        float[] lower = new float[3];
+        float[] upper = new float[3];
+        for (int f = 0; f < FACES.length; f++) {
+            int axis = f / 2;
+            int step = ((f & 1) == 0) ? 1 : -1;
+            // u and v run across the slice
+            int ua = (axis + 1) % 3;
+            int va = (axis + 2) % 3;
+            for (int s = 0; s < BlockChunk.SIZE; s++) {
+                int exposed = 0;
+                p[axis] = s;
+                for (int v = 0; v < BlockChunk.SIZE; v++) {
+                    p[va] = v;
+                    for (int u = 0; u < BlockChunk.SIZE; u++) {
+                        p[ua] = u;
+                        int idx = BlockChunk.index(p[0], p[1], p[2]);
+                        int m = 0;
+                        if (FaceVisibilityLogic.isExposed(faceMasks, FACES[f], idx)) {
+                            m = BlockChunk.getBlockID(chunk.get(idx)) + 1;
+                            exposed++;
+                        }
+                        mask[v * BlockChunk.SIZE + u] = m;
+                    }
+                }
+                if (exposed == 0) {
+                    continue;
+                }
+                faces += exposed;
+                lower[axis] = origin[axis] + s + step * .5f;
+                upper[axis] = lower[axis];
+                for (int v = 0; v < BlockChunk.SIZE; v++) {
+                    for (int u = 0; u < BlockChunk.SIZE;) {
+                        int m = mask[v * BlockChunk.SIZE + u];
+                        if (m == 0) {
+                            u++;
+                            continue;
+                        }
+                        int w = 1;
+                        while ((u + w < BlockChunk.SIZE) && (mask[v * BlockChunk.SIZE + u + w] == m)) {
+                            w++;
+                        }
+                        int h = 1;
+                        grow:
+                        while (v + h < BlockChunk.SIZE) {
+                            for (int i = 0; i < w; i++) {
+                                if (mask[(v + h) * BlockChunk.SIZE + u + i] != m) {
+                                    break grow;
+                                }
+                            }
+                            h++;
+                        }
+                        for (int j = 0; j < h; j++) {
+                            for (int i = 0; i < w; i++) {
+                                mask[(v + j) * BlockChunk.SIZE + u + i] = 0;
+                            }
+                        }
+                        lower[ua] = origin[ua] + u - .5f;
+                        upper[ua] = lower[ua] + w;
+                        lower[va] = origin[va] + v - .5f;
+                        upper[va] = lower[va] + h;
+                        short type = (short) (m - 1);
+                        addSelectFace(getTiledInfo(infos, plain, type), lower[0], lower[1], lower[2],
+                                upper[0], upper[1], upper[2], FACES[f], type);
+                        u += w;
+                    }
+                }
+            }
+        }
+        return faces;
+    }
+
+    private static MeshInfo getTiledInfo(Map<Integer, MeshInfo> infos, boolean plain, short type) {
+        int key = 0;
+        if (!plain) {
+            Integer textureID = BlockTypeColors.BLOCK_TEXTURE_IDS.get(type);
+            key = (textureID == null) ? 0 : textureID;
+        }
+        MeshInfo info = infos.get(key);
+        if (info == null) {
+            info = new MeshInfo(plain);
+            if (!plain) {
+                info.textureID = TILE_TEXTURE_BASE + key;
+            }
+            infos.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * Returns the texture ID of a single block face, as used by the meshes
+     * addChunkGreedy makes, or -1 if it is not one.
+     *
+     * @param id
+     * @return
+     */
+    public static int getTileTextureID(int id) {
+        return (id >= TILE_TEXTURE_BASE) ? id - TILE_TEXTURE_BASE : -1;
+    }
+
+    /**
+     * Turns the meshes addChunkGreedy filled into objects, leaving out those
+     * with nothing in them.
+     *
+     * @param infos
+     * @return
+     */
+    public static List<JGLObj> infosToObjs(Map<Integer, MeshInfo> infos) {
+        List<JGLObj> objs = new ArrayList<>();
+        for (MeshInfo info : infos.values()) {
+            if (!info.isEmpty()) {
+                objs.add(infoToObj(info));
+            }
         }
-        return obj;
+        return objs;
+    }
+
+    /**
+     *
+     * @param info
+     * @return
+     */
+    public static JGLObj infoToObj(MeshInfo info) {
+        return info.toObj(mTextureID);
     }
 
     /**
@@ -91,37 +313,30 @@ public class LWJGLRenderLogic {
         if (b == null) {
             return;
         }
-        Point3f lower = new Point3f(p.x - .5f, p.y - .5f, p.z - .5f);
-        Point3f upper = new Point3f(p.x + .5f, p.y + .5f, p.z + .5f);
-        short[] colors = new short[]{b.getBlockID()};
-        List<JGLObj> objs = new ArrayList<>();
+        float lx = p.x - .5f;
+        float ly = p.y - .5f;
+        float lz = p.z - .5f;
+        float ux = p.x + .5f;
+        float uy = p.y + .5f;
+        float uz = p.z + .5f;
+        short type = b.getBlockID();
         if (!grid.contains(p.x + 1, p.y, p.z)) {
-            addSelectFace(group, upper.x, lower.y, lower.z, upper.x, upper.y, upper.z,
-                    RenderPoly.XP, colors[0 % colors.length]);
+            addSelectFace(group, ux, ly, lz, ux, uy, uz, RenderPoly.XP, type);
         }
         if (!grid.contains(p.x - 1, p.y, p.z)) {
-            addSelectFace(group, lower.x, lower.y, lower.z, lower.x, upper.y, upper.z,
-                    RenderPoly.XM, colors[1 % colors.length]);
+            addSelectFace(group, lx, ly, lz, lx, uy, uz, RenderPoly.XM, type);
         }
         if (!grid.contains(p.x, p.y + 1, p.z)) {
-            addSelectFace(group, lower.x, upper.y, lower.z, upper.x, upper.y, upper.z,
-                    RenderPoly.YP, colors[2 % colors.length]);
+            addSelectFace(group, lx, uy, lz, ux, uy, uz, RenderPoly.YP, type);
         }
         if (!grid.contains(p.x, p.y - 1, p.z)) {
-            addSelectFace(group, lower.x, lower.y, lower.z, upper.x, lower.y, upper.z,
-                    RenderPoly.YM, colors[3 % colors.length]);
+            addSelectFace(group, lx, ly, lz, ux, ly, uz, RenderPoly.YM, type);
         }
         if (!grid.contains(p.x, p.y, p.z + 1)) {
-            addSelectFace(group, lower.x, lower.y, upper.z, upper.x, upper.y, upper.z,
-                    RenderPoly.ZP, colors[4 % colors.length]);
+            addSelectFace(group, lx, ly, uz, ux, uy, uz, RenderPoly.ZP, type);
         }
         if (!grid.contains(p.x, p.y, p.z - 1)) {
-            addSelectFace(group, lower.x, lower.y, lower.z, upper.x, upper.y, lower.z,
-                    RenderPoly.ZM, colors[5 % colors.length]);
-        }
-        for (JGLObj obj : objs) {
-            obj.setData("point", p);
-            obj.setData("block", b);
+            addSelectFace(group, lx, ly, lz, ux, uy, lz, RenderPoly.ZM, type);
         }
     }
 
@@ -168,45 +383,21 @@ public class LWJGLRenderLogic {
             int face, short type) {
         if (MathUtils.epsilonEquals(x1, x2)) {
             if (face == RenderPoly.XP) {
-                addSelectQuad(group, new Point3f(x1, y1, z1),
-                        new Point3f(x1, y1, z2),
-                        new Point3f(x1, y2, z2),
-                        new Point3f(x1, y2, z1),
-                        type);
+                group.addQuad(x1, y1, z1, x1, y1, z2, x1, y2, z2, x1, y2, z1, type);
             } else {
-                addSelectQuad(group, new Point3f(x1, y1, z1),
-                        new Point3f(x1, y2, z1),
-                        new Point3f(x1, y2, z2),
-                        new Point3f(x1, y1, z2),
-                        type);
+                group.addQuad(x1, y1, z1, x1, y2, z1, x1, y2, z2, x1, y1, z2, type);
             }
         } else if (MathUtils.epsilonEquals(y1, y2)) {
             if (face == RenderPoly.YP) {
-                addSelectQuad(group, new Point3f(x1, y1, z1),
-                        new Point3f(x2, y1, z1),
-                        new Point3f(x2, y1, z2),
-                        new Point3f(x1, y1, z2),
-                        type);
+                group.addQuad(x1, y1, z1, x2, y1, z1, x2, y1, z2, x1, y1, z2, type);
             } else {
-                addSelectQuad(group, new Point3f(x1, y1, z1),
-                        new Point3f(x1, y1, z2),
-                        new Point3f(x2, y1, z2),
-                        new Point3f(x2, y1, z1),
-                        type);
+                group.addQuad(x1, y1, z1, x1, y1, z2, x2, y1, z2, x2, y1, z1, type);
             }
         } else if (MathUtils.epsilonEquals(z1, z2)) {
             if (face == RenderPoly.ZP) {
-                addSelectQuad(group, new Point3f(x1, y1, z1),
-                        new Point3f(x1, y2, z1),
-                        new Point3f(x2, y2, z1),
-                        new Point3f(x2, y1, z1),
-                        type);
+                group.addQuad(x1, y1, z1, x1, y2, z1, x2, y2, z1, x2, y1, z1, type);
             } else {
-                addSelectQuad(group, new Point3f(x1, y1, z1),
-                        new Point3f(x2, y1, z1),
-                        new Point3f(x2, y2, z1),
-                        new Point3f(x1, y2, z1),
-                        type);
+                group.addQuad(x1, y1, z1, x2, y1, z1, x2, y2, z1, x1, y2, z1, type);
             }
         }
     }
@@ -222,36 +413,7 @@ public class LWJGLRenderLogic {
      */
     public static void addSelectQuad(MeshInfo info, Point3f left, Point3f top, Point3f right, Point3f bottom,
             short type) {
-        info.verts.add(left);
-        info.verts.add(top);
-        info.verts.add(right);
-        info.verts.add(bottom);
-        info.indexes.add(info.verts.size() - 1);
-        info.indexes.add(info.verts.size() - 2);
-        info.indexes.add(info.verts.size() - 3);
-        info.indexes.add(info.verts.size() - 4);
-        if (info.colors != null) {
-            Color c = BlockTypeColors.getFillColor(type);
-            Color3f color = new Color3f(c.getRed() / 255f, c.getGreen() / 255f, c.getBlue() / 255f);
-            info.colors.add(color);
-            info.colors.add(color);
-            info.colors.add(color);
-            info.colors.add(color);
-        }
-        if (info.uv != null) {
-            Rectangle2D.Float rec = BlockTypeColors.getAllTextureLocation(type);
-            info.uv.add(new Point2f(rec.x, rec.y));
-            info.uv.add(new Point2f(rec.x + rec.width, rec.y));
-            info.uv.add(new Point2f(rec.x + rec.width, rec.y + rec.height));
-            info.uv.add(new Point2f(rec.x, rec.y + rec.height));
-        }
+        info.addQuad(left.x, left.y, left.z, top.x, top.y, top.z, right.x, right.y, right.z,
+                bottom.x, bottom.y, bottom.z, type);
     }
 }
-
-class MeshInfo {
-
-    List<Point3f> verts;
-    List<Integer> indexes;
-    List<Color3f> colors;
-    List<Point2f> uv;
-}
@@ -22,8 +22,15 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import jo.sm.data.BlockChunk;
 import jo.sm.data.BlockTypes;
 import jo.sm.data.RenderPoly;
 import jo.sm.data.SparseMatrix;
@@ -44,6 +51,8 @@ import jo.vecmath.Vector3f;
 @SuppressWarnings("serial")
 public class LWJGLRenderPanel extends RenderPanel {
 
+    private static final Logger log = Logger.getLogger(LWJGLRenderPanel.class.getName());
+
     private final JGLCanvas mCanvas;
     private final JGLScene mScene;
     JGLCamera mUniverse;
@@ -52,14 +61,25 @@ public class LWJGLRenderPanel extends RenderPanel {
     private final JGLGroup mAxis;
 
     private SparseMatrix<Block> mFilteredGrid;
-    private boolean mPlainGraphics;
+    private volatile boolean mPlainGraphics;
     private boolean mDontDraw;
     private UndoBuffer mUndoer;
+    private final LWJGLMeshCache mMeshes;
+    // the latest grid snapshot waiting to be meshed, or null if none
+    private final AtomicReference<Map<Long, BlockChunk>> mPendingChunks;
+    private final ExecutorService mMesher;
 
     Vector3f mPOVTranslate;
 
     public LWJGLRenderPanel() {
         mUndoer = new UndoBuffer();
+        mMeshes = new LWJGLMeshCache();
+        mPendingChunks = new AtomicReference<>();
+        mMesher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "LWJGL mesher");
+            t.setDaemon(true);
+            return t;
+        });
         mPOVTranslate = new Vector3f();
         mScene = new JGLScene();
         mScene.setBackground(new Color4f());
@@ -123,12 +143,32 @@ public class LWJGLRenderPanel extends RenderPanel {
             mFilteredGrid = StarMadeLogic.getInstance().getViewFilter().modify(StarMadeLogic.getModel(), null, StarMadeLogic.getInstance(), null);
         }
         updateAxis();
-        mBlocks.getChildren().clear();
-        LWJGLRenderLogic.addBlocks(mBlocks, mFilteredGrid, mPlainGraphics);
-        System.out.println("Quads:" + mBlocks.getChildren().size());
+        // the snapshot is taken here, so the grid cannot change under the mesher
+        if (mPendingChunks.getAndSet(mFilteredGrid.snapshot()) == null) {
+            mMesher.execute(this::updateMeshes);
+        }
         updateSelectionBox();
     }
 
+    // on the mesher thread: remeshes the chunks changed since last time
+    private void updateMeshes() {
+        Map<Long, BlockChunk> chunks = mPendingChunks.getAndSet(null);
+        if (chunks == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<JGLObj> objs = mMeshes.update(chunks, mPlainGraphics);
+        synchronized (mBlocks) {
+            mBlocks.getChildren().clear();
+            mBlocks.getChildren().addAll(objs);
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.log(Level.FINE, "Meshed " + mMeshes.getLastRebuilt() + " of " + mMeshes.getChunkCount() + " chunks in "
+                    + (System.nanoTime() - start) / 1000000 + "ms, " + mMeshes.getQuadCount() + " quads for "
+                    + mMeshes.getFaceCount() + " faces");
+        }
+    }
+
     public void updateSelectionBox() {
         /*
          mSelection.getChildren().clear();
@@ -143,11 +183,7 @@ public class LWJGLRenderPanel extends RenderPanel {
 
     public void updateAxis() {
         mAxis.getChildren().clear();
-        MeshInfo info = new MeshInfo();
-        info.verts = new ArrayList<>();
-        info.indexes = new ArrayList<>();
-        //info.colors = new ArrayList<Color3f>();
-        info.uv = new ArrayList<>();
+        MeshInfo info = new MeshInfo(false);
         System.out.println("Adding axis");
 //        LWJGLRenderLogic.addBox(info, new Point3f(9,8,8), new Point3f(256+8,8,8), new short[] { BlockTypes.SPECIAL_SELECT_XP });
 //        LWJGLRenderLogic.addBox(info, new Point3f(8-256,8,8), new Point3f(7,8,8), new short[] { BlockTypes.SPECIAL_SELECT_XM });
@@ -242,6 +278,16 @@ public class LWJGLRenderPanel extends RenderPanel {
         mPlainGraphics = plainGraphics;
     }
 
+    public boolean isGreedy() {
+        return mMeshes.isGreedy();
+    }
+
+    /** Chooses whether adjacent faces of the same block type are drawn merged **/
+    public void setGreedy(boolean greedy) {
+        mMeshes.setGreedy(greedy);
+        updateTiles();
+    }
+
     @Override
     public boolean isAxis() {
         return !mAxis.isCull();
@@ -265,7 +311,7 @@ public class LWJGLRenderPanel extends RenderPanel {
 
     @Override
     public void undo() {
-        SparseMatrix<Block> grid = mUndoer.undo();
+        SparseMatrix<Block> grid = mUndoer.undo(StarMadeLogic.getModel());
         if (grid != null) {
             StarMadeLogic.setModel(grid);
         }
@@ -273,7 +319,7 @@ public class LWJGLRenderPanel extends RenderPanel {
 
     @Override
     public void redo() {
-        SparseMatrix<Block> grid = mUndoer.redo();
+        SparseMatrix<Block> grid = mUndoer.redo(StarMadeLogic.getModel());
         if (grid != null) {
             StarMadeLogic.setModel(grid);
         }
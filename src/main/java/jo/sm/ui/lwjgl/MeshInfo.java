@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package jo.sm.ui.lwjgl;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import jo.sm.logic.utils.BufferLogic;
+import jo.sm.ui.BlockTypeColors;
+import jo.util.jgl.obj.tri.JGLObj;
+import jo.vecmath.Point3f;
+
+/**
+ * A mesh of quads being built. The vertices, colours or texture coordinates,
+ * and indexes are written straight into direct buffers that double in size
+ * when full, so a mesh of a million faces is a handful of buffers, not
+ * millions of points, and nothing is left on the heap for the collector. A
+ * mesh can be reset and filled again, keeping its buffers, where meshes are
+ * built over and over.
+ **/
+class MeshInfo {
+
+    // x, y, z of each vertex
+    FloatBuffer verts;
+    // r, g, b, a of each vertex, if plain
+    FloatBuffer colors;
+    // u, v of each vertex, if textured
+    FloatBuffer uv;
+    IntBuffer indexes;
+    int vertCount;
+    // if set, uv repeats this tile texture rather than pointing into the atlas
+    int textureID;
+
+    private float mLowX, mLowY, mLowZ;
+    private float mHighX, mHighY, mHighZ;
+    // the colour or atlas square of the last block type, as runs of one type are common
+    private short mLastType;
+    private float mR, mG, mB;
+    private float mU, mV, mWidth, mHeight;
+
+    MeshInfo(boolean plain) {
+        verts = BufferLogic.createFloatBuffer(64 * 3);
+        indexes = BufferLogic.createIntBuffer(64);
+        reset(plain);
+    }
+
+    /** Empties the mesh, to be filled plain or textured **/
+    void reset(boolean plain) {
+        vertCount = 0;
+        verts.clear();
+        indexes.clear();
+        mLastType = -1;
+        mLowX = mLowY = mLowZ = Float.MAX_VALUE;
+        mHighX = mHighY = mHighZ = -Float.MAX_VALUE;
+        if (plain) {
+            colors = (colors == null) ? BufferLogic.createFloatBuffer(verts.capacity() / 3 * 4) : colors;
+            colors.clear();
+            uv = null;
+        } else {
+            uv = (uv == null) ? BufferLogic.createFloatBuffer(verts.capacity() / 3 * 2) : uv;
+            uv.clear();
+            colors = null;
+        }
+    }
+
+    boolean isEmpty() {
+        return vertCount == 0;
+    }
+
+    int getQuads() {
+        return vertCount / 4;
+    }
+
+    /**
+     * Adds a quad with the colour or texture of a block type. Corners are
+     * given in the order left, top, right, bottom.
+     **/
+    void addQuad(float lx, float ly, float lz, float tx, float ty, float tz,
+            float rx, float ry, float rz, float bx, float by, float bz, short type) {
+        if ((vertCount + 4) * 3 > verts.capacity()) {
+            int size = verts.capacity() / 3 * 2;
+            verts = BufferLogic.grow(verts, size * 3);
+            indexes = BufferLogic.grow(indexes, size);
+            if (colors != null) {
+                colors = BufferLogic.grow(colors, size * 4);
+            }
+            if (uv != null) {
+                uv = BufferLogic.grow(uv, size * 2);
+            }
+        }
+        verts.put(lx).put(ly).put(lz);
+        verts.put(tx).put(ty).put(tz);
+        verts.put(rx).put(ry).put(rz);
+        verts.put(bx).put(by).put(bz);
+        // opposite corners span the quad
+        mLowX = Math.min(mLowX, Math.min(lx, rx));
+        mLowY = Math.min(mLowY, Math.min(ly, ry));
+        mLowZ = Math.min(mLowZ, Math.min(lz, rz));
+        mHighX = Math.max(mHighX, Math.max(lx, rx));
+        mHighY = Math.max(mHighY, Math.max(ly, ry));
+        mHighZ = Math.max(mHighZ, Math.max(lz, rz));
+        indexes.put(vertCount + 3).put(vertCount + 2).put(vertCount + 1).put(vertCount);
+        if (colors != null) {
+            if (type != mLastType) {
+                Color c = BlockTypeColors.getFillColor(type);
+                mR = c.getRed() / 255f;
+                mG = c.getGreen() / 255f;
+                mB = c.getBlue() / 255f;
+                mLastType = type;
+            }
+            for (int i = 0; i < 4; i++) {
+                colors.put(mR).put(mG).put(mB).put(1);
+            }
+        } else if (textureID > 0) {
+            // one repeat of the tile per block along each side
+            float u = Math.abs(tx - lx) + Math.abs(ty - ly) + Math.abs(tz - lz);
+            float w = Math.abs(rx - tx) + Math.abs(ry - ty) + Math.abs(rz - tz);
+            putUV(0, 0, u, w);
+        } else {
+            if (type != mLastType) {
+                Rectangle2D.Float rec = BlockTypeColors.getAllTextureLocation(type);
+                mU = rec.x;
+                mV = rec.y;
+                mWidth = rec.width;
+                mHeight = rec.height;
+                mLastType = type;
+            }
+            putUV(mU, mV, mWidth, mHeight);
+        }
+        vertCount += 4;
+    }
+
+    private void putUV(float u, float v, float width, float height) {
+        uv.put(u).put(v);
+        uv.put(u + width).put(v);
+        uv.put(u + width).put(v + height);
+        uv.put(u).put(v + height);
+    }
+
+    /**
+     * Copies the mesh into a new object, with buffers of its own, so this
+     * one can be filled again.
+     **/
+    JGLObj toObj(int atlasTextureID) {
+        JGLObj obj = new JGLObj();
+        obj.setMode(JGLObj.QUADS);
+        obj.setVertexBuffer(BufferLogic.copy(verts));
+        obj.setLowBounds(new Point3f(mLowX, mLowY, mLowZ));
+        obj.setHighBounds(new Point3f(mHighX, mHighY, mHighZ));
+        obj.setIndexIntBuffer(BufferLogic.copy(indexes));
+        if (colors != null) {
+            obj.setColorBuffer(BufferLogic.copy(colors));
+        } else {
+            obj.setTexturesBuffer(BufferLogic.copy(uv));
+            obj.setTextureID((textureID > 0) ? textureID : atlasTextureID);
+        }
+        return obj;
+    }
+}
@@ -1,5 +1,7 @@
 package jo.vecmath.logic;
 
+import java.util.StringTokenizer;
+
 import jo.vecmath.Point3i;
 
 public class Point3iLogic {
@@ -11,6 +13,18 @@ public class Point3iLogic {
         return (int) Math.sqrt(dx * dx + dy * dy + dz * dz);
     }
 
+    public static Point3i fromString(String txt) {
+        StringTokenizer st = new StringTokenizer(txt, ", ");
+        if (st.countTokens() != 3) {
+            throw new IllegalArgumentException("Expected three values: '" + txt + "', got " + st.countTokens());
+        }
+        Point3i p = new Point3i();
+        p.x = Integer.parseInt(st.nextToken());
+        p.y = Integer.parseInt(st.nextToken());
+        p.z = Integer.parseInt(st.nextToken());
+        return p;
+    }
+
     public static Point3i min(Point3i p, Point3i lower, Point3i upper) {
         if (lower == null) {
             if (upper == null) {
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package jo.sm.ent.logic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import jo.sm.ent.data.ControlElementMap;
+import jo.sm.ent.data.Tag;
+import jo.sm.ent.data.TagType;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Entity files must come back byte for byte after a read and a write, or
+ * the game sees a different entity than the one the editor was handed.
+ **/
+public class TagLogicTest {
+
+    @Test
+    public void rewriteIsByteIdentical() throws IOException {
+        byte[] original = makeFile(true);
+        byte[] once = rewrite(original);
+        assertArrayEquals(original, once);
+        assertArrayEquals(once, rewrite(once));
+    }
+
+    @Test
+    public void numericListsArePacked() throws IOException {
+        Tag root = TagLogic.readFile(new ByteArrayInputStream(makeFile(true)), true);
+        assertTrue(TagUtils.lookup(root, "ints").getValue() instanceof int[]);
+        assertTrue(TagUtils.lookup(root, "floats").getValue() instanceof float[]);
+        assertEquals(TagType.STRUCT, TagUtils.lookup(root, "empty").getSubType());
+        ControlElementMap map = (ControlElementMap) TagUtils.lookup(root, "controllers").getValue();
+        assertEquals(2, map.getElements().size());
+        assertEquals(3, map.getElements().get(0).getElements().get(0).size());
+    }
+
+    @Test
+    public void entityLogicWritesPackedLists() throws IOException {
+        byte[] original = makeFile(false);
+        Tag root = TagLogic.readFile(new ByteArrayInputStream(original), true);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        EntityLogic.writeFile(root, baos, true);
+        assertArrayEquals(original, baos.toByteArray());
+    }
+
+    @Test
+    public void entityUtilsLooksIntoPackedLists() throws IOException {
+        Tag root = TagLogic.readFile(new ByteArrayInputStream(makeFile(false)), true);
+        assertEquals(-7, EntityUtils.lookup(root, "ints/1").getValue());
+        assertEquals((short) 300, EntityUtils.lookup(root, "shorts/2").getValue());
+        EntityUtils.dump(root, "");
+    }
+
+    @Test
+    public void oddMemberPrefixesAreSkipped() throws IOException {
+        byte[] buf = new byte[25];
+        buf[0] = (byte) 0xf3;
+        buf[24] = (byte) TagType.INT.ordinal();
+        assertEquals(TagType.INT, TagLogic.readMemberType(new DataInputStream(new ByteArrayInputStream(buf))));
+        buf = new byte[] { (byte) 0xff, 1, 2, (byte) TagType.STRING.ordinal() };
+        assertEquals(TagType.STRING, TagLogic.readMemberType(new DataInputStream(new ByteArrayInputStream(buf))));
+        // a file cut off inside the prefix must not read as a short member
+        buf = new byte[] { (byte) 0xf3, 0, 0, 0, 0, 0 };
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buf));
+        assertThrows(EOFException.class, () -> TagLogic.readMemberType(dis));
+    }
+
+    private static byte[] rewrite(byte[] file) throws IOException {
+        Tag root = TagLogic.readFile(new ByteArrayInputStream(file), true);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TagLogic.writeFile(root, baos, true);
+        return baos.toByteArray();
+    }
+
+    // an uncompressed entity file, built field by field as the game writes it
+    private static byte[] makeFile(boolean withControllers) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeShort(0);
+        dos.writeByte(TagType.STRUCT.ordinal());
+        dos.writeUTF("sc");
+
+        startList(dos, "bytes", TagType.BYTE, 3);
+        dos.write(new byte[] { 1, -2, 127 });
+        startList(dos, "shorts", TagType.SHORT, 3);
+        dos.writeShort(-1);
+        dos.writeShort(0);
+        dos.writeShort(300);
+        startList(dos, "ints", TagType.INT, 2);
+        dos.writeInt(42);
+        dos.writeInt(-7);
+        startList(dos, "longs", TagType.LONG, 1);
+        dos.writeLong(Long.MIN_VALUE);
+        startList(dos, "floats", TagType.FLOAT, 2);
+        dos.writeFloat(1.5f);
+        dos.writeFloat(Float.NaN);
+        startList(dos, "doubles", TagType.DOUBLE, 1);
+        dos.writeDouble(-0.0);
+        startList(dos, "noints", TagType.INT, 0);
+        startList(dos, "empty", TagType.STRUCT, 0);
+        startList(dos, "names", TagType.STRING, 2);
+        dos.writeUTF("alpha");
+        dos.writeUTF("");
+        startList(dos, "structs", TagType.STRUCT, 1);
+        dos.writeByte(TagType.INT.ordinal());
+        dos.writeUTF("id");
+        dos.writeInt(9);
+        dos.writeByte(TagType.FINISH.ordinal());
+
+        if (withControllers) {
+            dos.writeByte(TagType.SERIALIZABLE.ordinal());
+            dos.writeUTF("controllers");
+            dos.writeByte(1);
+            dos.writeInt(2);
+            // a controller with three controlled blocks
+            dos.writeShort(8);
+            dos.writeShort(8);
+            dos.writeShort(8);
+            dos.writeInt(1);
+            dos.writeShort(4);
+            dos.writeInt(3);
+            for (int i = 0; i < 3; i++) {
+                dos.writeShort(8 + i);
+                dos.writeShort(9);
+                dos.writeShort(-10 - i);
+            }
+            // and one controlling nothing
+            dos.writeShort(-3);
+            dos.writeShort(0);
+            dos.writeShort(12);
+            dos.writeInt(0);
+        }
+
+        dos.writeByte(TagType.FINISH.ordinal());
+        dos.close();
+        return baos.toByteArray();
+    }
+
+    private static void startList(DataOutputStream dos, String name, TagType subtype, int len)
+            throws IOException {
+        dos.writeByte(TagType.LIST.ordinal());
+        dos.writeUTF(name);
+        dos.writeByte(subtype.ordinal());
+        dos.writeInt(len);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2014 
+ * SMEdit https://github.com/StarMade/SMEdit
+ * SMTools https://github.com/StarMade/SMTools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package jo.sm.ent.logic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import jo.sm.ent.data.Tag;
+import jo.sm.ent.data.TagEdit;
+import jo.sm.ent.data.TagType;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Edits must find their tags whether or not the path starts with the root
+ * tag's name, as the edit command took paths below the root before it
+ * patched files in place.
+ **/
+public class TagPatchLogicTest {
+
+    @TempDir
+    File mDir;
+
+    @Test
+    public void rootRelativePaths() throws IOException {
+        File f = write("plain.ent", false);
+        Map<String, Tag> patched = TagPatchLogic.patch(f, Arrays.asList(
+                new TagEdit("ints/1", "=", "5"),
+                new TagEdit("count", "+=", "2")));
+        assertEquals(5, patched.get("ints/1").getValue());
+        assertEquals(9, patched.get("count").getValue());
+        Tag root = read(f);
+        assertArrayEquals(new int[] {42, 5, 3}, (int[]) TagUtils.lookup(root, "ints").getValue());
+        assertEquals(9, TagUtils.lookup(root, "count").getValue());
+    }
+
+    @Test
+    public void rootedPaths() throws IOException {
+        File f = write("zipped.ent", true);
+        Map<String, Tag> patched = TagPatchLogic.patch(f, Arrays.asList(
+                new TagEdit("sc/ints/0", "-=", "2"),
+                new TagEdit("sc/count", "=", "1")));
+        assertEquals(2, patched.size());
+        Tag root = read(f);
+        assertArrayEquals(new int[] {40, -7, 3}, (int[]) TagUtils.lookup(root, "ints").getValue());
+        assertEquals(1, TagUtils.lookup(root, "count").getValue());
+    }
+
+    @Test
+    public void bothFormsOfOnePath() throws IOException {
+        File f = write("both.ent", false);
+        Map<String, Tag> patched = TagPatchLogic.patch(f, Arrays.asList(
+                new TagEdit("count", "+=", "1"),
+                new TagEdit("sc/count", "+=", "1")));
+        assertEquals(2, patched.size());
+        assertEquals(9, TagUtils.lookup(read(f), "count").getValue());
+    }
+
+    @Test
+    public void missingPathIsLeftOut() throws IOException {
+        File f = write("missing.ent", false);
+        Map<String, Tag> patched = TagPatchLogic.patch(f, Arrays.asList(new TagEdit("nothere", "=", "1")));
+        assertFalse(patched.containsKey("nothere"));
+    }
+
+    private File write(String name, boolean zipped) throws IOException {
+        Tag root = new Tag(TagType.STRUCT, "sc", new Tag[] {
+            new Tag(TagType.LIST, "ints", new int[] {42, -7, 3}),
+            new Tag(TagType.INT, "count", 7),
+            new Tag(TagType.FINISH, null, null)
+        });
+        File f = new File(mDir, name);
+        OutputStream os = new FileOutputStream(f);
+        if (zipped) {
+            os = new GZIPOutputStream(os);
+            // a zipped file has no leading short, so drop the one writeFile puts first
+            os = new SkipFirst(os, 2);
+        }
+        TagLogic.writeFile(root, os, true);
+        return f;
+    }
+
+    private static Tag read(File f) throws IOException {
+        return TagLogic.readFile(new FileInputStream(f), true);
+    }
+
+    private static class SkipFirst extends FilterOutputStream {
+
+        private int mSkip;
+
+        SkipFirst(OutputStream os, int skip) {
+            super(os);
+            mSkip = skip;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mSkip > 0) {
+                mSkip--;
+            } else {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int skip = Math.min(mSkip, len);
+            mSkip -= skip;
+            out.write(b, off + skip, len - skip);
+        }
+    }
+}